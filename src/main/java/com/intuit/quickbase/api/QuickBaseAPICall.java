@@ -65,5 +65,38 @@ public enum QuickBaseAPICall
     /** API_SetFieldProperties. **/ API_SetFieldProperties,
     /** API_SignOut. **/ API_SignOut, 
     /** API_UploadFile. **/ API_UploadFile,
-    /** API_UserRoles. **/ API_UserRoles
+    /** API_UserRoles. **/ API_UserRoles;
+
+    /**
+     * Checks whether the API call only reads data. Read-only calls can safely be repeated or
+     * shared between callers that issue the same request at the same time.
+     *
+     * @return <code>true</code> if the call does not modify any data, <code>false</code> otherwise
+     */
+    public boolean isReadOnly()
+    {
+        switch (this)
+        {
+            case API_DoQuery:
+            case API_FindDBByName:
+            case API_GenAddRecordForm:
+            case API_GenResultsTable:
+            case API_GetAppDTMInfo:
+            case API_GetDBInfo:
+            case API_GetDBPage:
+            case API_GetDBvar:
+            case API_GetNumRecords:
+            case API_GetRecordAsHTML:
+            case API_GetRecordInfo:
+            case API_GetRoleInfo:
+            case API_GetSchema:
+            case API_GetUserInfo:
+            case API_GetUserRole:
+            case API_GrantedDBs:
+            case API_UserRoles:
+                return true;
+            default:
+                return false;
+        }
+    }
 }
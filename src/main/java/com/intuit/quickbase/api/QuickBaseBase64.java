@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseBase64.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The class <code>QuickBaseBase64</code> encodes binary data in Base64 (RFC 4648, without line
+ * breaks) block by block, so that large files can be encoded while they are streamed.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseBase64
+{
+    private final static byte[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(); //$NON-NLS-1$
+    private final static byte PADDING = '=';
+
+    private QuickBaseBase64()
+    {
+        super();
+    }
+
+    /**
+     * Gets the length of the Base64 encoding of data of a given length.
+     *
+     * @param length the length of the data
+     * @return the length of the encoded data
+     */
+    static long encodedLength(long length)
+    {
+        return (length + 2)/3*4;
+    }
+
+    /**
+     * Encodes a block of data. Unless it is the last block, the length of the block must be a
+     * multiple of three.
+     *
+     * @param input the buffer that contains the data
+     * @param length the number of bytes to be encoded
+     * @param output the buffer that receives the encoded data (which must be large enough)
+     * @return the number of encoded bytes
+     */
+    static int encode(byte[] input, int length, byte[] output)
+    {
+        int in = 0;
+        int out = 0;
+        for (int full = length/3*3; in < full; in += 3)
+        {
+            int bits = (input[in] & 0xFF) << 16 | (input[in + 1] & 0xFF) << 8 | input[in + 2] & 0xFF;
+            output[out++] = ALPHABET[bits >>> 18];
+            output[out++] = ALPHABET[bits >>> 12 & 0x3F];
+            output[out++] = ALPHABET[bits >>> 6 & 0x3F];
+            output[out++] = ALPHABET[bits & 0x3F];
+        }
+        int remaining = length - in;
+        if (remaining > 0)
+        {
+            int bits = (input[in] & 0xFF) << 16 | (remaining == 2 ? (input[in + 1] & 0xFF) << 8 : 0);
+            output[out++] = ALPHABET[bits >>> 18];
+            output[out++] = ALPHABET[bits >>> 12 & 0x3F];
+            output[out++] = remaining == 2 ? ALPHABET[bits >>> 6 & 0x3F] : PADDING;
+            output[out++] = PADDING;
+        }
+        return out;
+    }
+}
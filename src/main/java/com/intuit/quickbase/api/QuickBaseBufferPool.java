@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseBufferPool.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class {@link QuickBaseBufferPool} is a bounded pool of I/O buffers of a fixed size. Request
+ * bodies are written into buffers that are borrowed from the pool and returned after the request
+ * was sent, so that a connection allocates (almost) no new buffers in a steady state. If the pool
+ * is empty, a new buffer is allocated; buffers that are returned to a full pool are discarded.
+ *
+ * @see QuickBaseConnection#getBufferPool()
+ *
+ * @version $Revision$
+ */
+public class QuickBaseBufferPool
+{
+    /** The size of the pooled buffers. **/
+    public final static int BUFFER_SIZE = 16*1024;
+
+    private final BlockingQueue<byte[]> buffers;
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    /**
+     * Creates a new {@link QuickBaseBufferPool}.
+     *
+     * @param maxBuffers the maximum number of idle buffers that are kept in the pool
+     */
+    public QuickBaseBufferPool(int maxBuffers)
+    {
+        if (maxBuffers < 1)
+        {
+            throw new IllegalArgumentException("Invalid pool size: " + maxBuffers); //$NON-NLS-1$
+        }
+        this.buffers = new ArrayBlockingQueue<byte[]>(maxBuffers);
+    }
+
+    /**
+     * Gets the number of buffers that were allocated because the pool was empty.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocations()
+    {
+        return allocations.get();
+    }
+
+    /**
+     * Gets the number of buffers that were taken from the pool.
+     *
+     * @return the number of reuses
+     */
+    public long getReuses()
+    {
+        return reuses.get();
+    }
+
+    /**
+     * Gets the number of idle buffers in the pool.
+     *
+     * @return the number of idle buffers
+     */
+    public int getIdleBuffers()
+    {
+        return buffers.size();
+    }
+
+    /**
+     * Borrows a buffer from the pool.
+     *
+     * @return a buffer of {@link #BUFFER_SIZE} bytes (with undefined content)
+     */
+    byte[] acquire()
+    {
+        byte[] buffer = buffers.poll();
+        if (buffer == null)
+        {
+            allocations.incrementAndGet();
+            return new byte[BUFFER_SIZE];
+        }
+        reuses.incrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used any more by the caller.
+     *
+     * @param buffer the buffer
+     */
+    void release(byte[] buffer)
+    {
+        if (buffer.length == BUFFER_SIZE)
+        {
+            buffers.offer(buffer);
+        }
+    }
+}
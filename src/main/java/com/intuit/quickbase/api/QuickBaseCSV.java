@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseCSV.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The class <code>QuickBaseCSV</code> provides helper methods for composing the comma-separated
+ * values that are sent to QuickBase by {@link QuickBaseAPICall#API_ImportFromCSV}.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseCSV
+{
+    private final static char SEPARATOR = ',';
+    private final static char QUOTE = '"';
+    private final static String LINE_END = "\r\n"; //$NON-NLS-1$
+
+    private QuickBaseCSV()
+    {
+        super();
+    }
+
+    /**
+     * Appends a single CSV line (including the line terminator) to a {@link StringBuilder}.
+     * Values are quoted only if necessary; <code>null</code> values result in empty cells.
+     *
+     * @param csv the {@link StringBuilder} that receives the line
+     * @param values the values of the line
+     */
+    static void appendRow(StringBuilder csv, String... values)
+    {
+        for (int index = 0; index < values.length; index++)
+        {
+            if (index > 0)
+            {
+                csv.append(SEPARATOR);
+            }
+            appendValue(csv, values[index]);
+        }
+        csv.append(LINE_END);
+    }
+
+    /**
+     * Estimates the number of characters that a value occupies in a CSV line.
+     *
+     * @param value the value
+     * @return the approximate length of the value, including separator and quotes
+     */
+    static int estimateLength(String value)
+    {
+        return value == null ? 1 : value.length() + 3;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static void appendValue(StringBuilder csv, String value)
+    {
+        if (value == null || value.isEmpty())
+        {
+            return;
+        }
+        if (!needsQuotes(value))
+        {
+            csv.append(value);
+            return;
+        }
+        csv.append(QUOTE);
+        for (int index = 0; index < value.length(); index++)
+        {
+            char character = value.charAt(index);
+            if (character == QUOTE)
+            {
+                csv.append(QUOTE);
+            }
+            csv.append(character);
+        }
+        csv.append(QUOTE);
+    }
+
+    private static boolean needsQuotes(String value)
+    {
+        if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length()-1)))
+        {
+            return true;
+        }
+        for (int index = 0; index < value.length(); index++)
+        {
+            char character = value.charAt(index);
+            if (character == SEPARATOR || character == QUOTE || character == '\n' || character == '\r')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseCSVReader.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * The class <code>QuickBaseCSVReader</code> reads comma-separated values as defined by RFC 4180.
+ * Values may be quoted (with doubled quotes inside quoted values) and may contain line breaks if
+ * they are quoted; lines may end with CR LF or with a single LF. Unquoted values are created
+ * directly from the read buffer, so that most values are copied only once.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseCSVReader
+{
+    private final static char SEPARATOR = ',';
+    private final static char QUOTE = '"';
+    private final static char CR = '\r';
+    private final static char LF = '\n';
+    private final static char BYTE_ORDER_MARK = '\uFEFF';
+    private final static int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder value = new StringBuilder();
+    private int position;
+    private int limit;
+    private boolean eof;
+    private boolean started;
+
+    /**
+     * Creates a new <code>QuickBaseCSVReader</code>.
+     *
+     * @param reader the {@link Reader} that provides the comma-separated values
+     */
+    QuickBaseCSVReader(Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @param row the {@link List} that receives the values of the row (it is cleared first)
+     * @return <code>true</code> if a row was read, <code>false</code> if the end of the input was
+     * reached
+     * @throws IOException if the input could not be read or is not valid CSV
+     */
+    boolean readRow(List<String> row) throws IOException
+    {
+        row.clear();
+        if (position == limit && !fill())
+        {
+            return false;
+        }
+        while (true)
+        {
+            row.add(buffer[position] == QUOTE ? readQuoted() : readUnquoted());
+            if (position == limit && !fill())
+            {
+                return true;
+            }
+            char character = buffer[position++];
+            if (character == LF)
+            {
+                return true;
+            }
+            if (character == CR)
+            {
+                if ((position < limit || fill()) && buffer[position] == LF)
+                {
+                    position++;
+                }
+                return true;
+            }
+            if (position == limit && !fill())
+            {
+                // A separator at the very end of the input is followed by an empty value
+                row.add(""); //$NON-NLS-1$
+                return true;
+            }
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private String readUnquoted() throws IOException
+    {
+        int start = position;
+        boolean spilled = false;
+        while (true)
+        {
+            while (position < limit)
+            {
+                char character = buffer[position];
+                if (character == SEPARATOR || character == CR || character == LF)
+                {
+                    if (!spilled)
+                    {
+                        return new String(buffer, start, position-start);
+                    }
+                    return value.append(buffer, start, position-start).toString();
+                }
+                position++;
+            }
+
+            // The value continues beyond the end of the buffer
+            if (!spilled)
+            {
+                value.setLength(0);
+                spilled = true;
+            }
+            value.append(buffer, start, position-start);
+            if (!fill())
+            {
+                return value.toString();
+            }
+            start = position;
+        }
+    }
+
+    private String readQuoted() throws IOException
+    {
+        position++;
+        value.setLength(0);
+        while (true)
+        {
+            int start = position;
+            while (position < limit && buffer[position] != QUOTE)
+            {
+                position++;
+            }
+            value.append(buffer, start, position-start);
+            if (position == limit)
+            {
+                if (!fill())
+                {
+                    throw new IOException("Unterminated quoted value"); //$NON-NLS-1$
+                }
+                continue;
+            }
+            position++;
+            if (position == limit && !fill())
+            {
+                return value.toString();
+            }
+            char next = buffer[position];
+            if (next == QUOTE)
+            {
+                value.append(QUOTE);
+                position++;
+            }
+            else if (next == SEPARATOR || next == CR || next == LF)
+            {
+                return value.toString();
+            }
+            else
+            {
+                throw new IOException("Unexpected character after quoted value: " + next); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private boolean fill() throws IOException
+    {
+        if (eof)
+        {
+            return false;
+        }
+        int count;
+        do
+        {
+            count = reader.read(buffer, 0, buffer.length);
+        }
+        while (count == 0);
+        if (count < 0)
+        {
+            eof = true;
+            position = limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = count;
+        if (!started)
+        {
+            started = true;
+            if (buffer[0] == BYTE_ORDER_MARK && ++position == limit)
+            {
+                return fill();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseCallContext.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * The class {@link QuickBaseCallContext} defines a deadline and a socket timeout for a unit of
+ * work that consists of one or more QuickBase calls, and serves as a handle for cancelling that
+ * work. The context applies to all requests that are sent while the work runs, including ticket
+ * renewals, retries, hedges, and the parallel requests of bulk operations:
+ * <small><pre>
+ * final QuickBaseCallContext context = new QuickBaseCallContext(30000, 10000);
+ * List&lt;QuickBaseRecord&gt; records = context.call(new Callable&lt;List&lt;QuickBaseRecord&gt;&gt;()
+ * {
+ *     public List&lt;QuickBaseRecord&gt; call() throws QuickBaseException
+ *     {
+ *         return table.doQuery(query, clist);
+ *     }
+ * });
+ * </pre></small>
+ * Calling {@link #cancel()} (from any thread) aborts all requests of the context that are in
+ * flight, which releases their connections immediately, and makes all further requests fail.
+ * When the deadline has passed, in-flight requests are aborted in the same way.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseCallContext
+{
+    private final static ThreadLocal<QuickBaseCallContext> CURRENT = new ThreadLocal<QuickBaseCallContext>();
+
+    /** The longest time that a waiting call goes without checking its context. **/
+    private final static long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final long deadlineNanos;
+    private final int socketTimeoutMillis;
+    private final Set<HttpMethod> requests = new HashSet<HttpMethod>();
+    private boolean cancelled;
+
+    /**
+     * Creates a new {@link QuickBaseCallContext}. The deadline starts when the context is created.
+     *
+     * @param timeoutMillis the overall time (in milliseconds) that the work may take
+     * @param socketTimeoutMillis the maximum time (in milliseconds) that a request may wait for
+     * data from QuickBase, or <code>0</code> to use the connection's socket timeout
+     */
+    public QuickBaseCallContext(long timeoutMillis, int socketTimeoutMillis)
+    {
+        if (timeoutMillis <= 0 || socketTimeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid timeouts"); //$NON-NLS-1$
+        }
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    /**
+     * Runs a task within this context.
+     *
+     * @param <$ResultType> the result type of the task
+     * @param task the task that calls QuickBase
+     * @return the result of the task
+     * @throws QuickBaseException if the task failed (for example, because the deadline passed or
+     * the context was cancelled)
+     */
+    public <$ResultType> $ResultType call(Callable<$ResultType> task) throws QuickBaseException
+    {
+        QuickBaseCallContext previous = attach(this);
+        try
+        {
+            return task.call();
+        }
+        catch (QuickBaseException exception)
+        {
+            throw exception;
+        }
+        catch (RuntimeException exception)
+        {
+            throw exception;
+        }
+        catch (Exception exception)
+        {
+            throw new QuickBaseException(exception);
+        }
+        finally
+        {
+            attach(previous);
+        }
+    }
+
+    /**
+     * Cancels the work of this context. All requests that are in flight are aborted.
+     */
+    public void cancel()
+    {
+        HttpMethod[] active;
+        synchronized (this)
+        {
+            cancelled = true;
+            active = requests.toArray(new HttpMethod[requests.size()]);
+        }
+        for (HttpMethod request: active)
+        {
+            request.abort();
+        }
+    }
+
+    /**
+     * Determines whether this context was cancelled.
+     *
+     * @return <code>true</code> if {@link #cancel()} was called
+     */
+    public synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Gets the time that remains until the deadline.
+     *
+     * @return the remaining time in milliseconds (<code>0</code> if the deadline has passed)
+     */
+    public long getRemainingMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, getRemainingNanos()));
+    }
+
+    //----------------------------------- PACKAGE-PRIVATE SECTION ----------------------------------//
+
+    /**
+     * Gets the context of the current thread.
+     *
+     * @return the current {@link QuickBaseCallContext}, or <code>null</code> if the current thread
+     * does not run within a context
+     */
+    static QuickBaseCallContext current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes a context the context of the current thread.
+     *
+     * @param context the {@link QuickBaseCallContext}, or <code>null</code> for none
+     * @return the previous context of the current thread, or <code>null</code>
+     */
+    static QuickBaseCallContext attach(QuickBaseCallContext context)
+    {
+        QuickBaseCallContext previous = CURRENT.get();
+        if (context == null)
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Limits the time that a call waits before it is sent (for example, for a rate limiter or for
+     * an identical request), so that the call fails in time when its context is cancelled or its
+     * deadline passes. Waiting calls are not notified of a cancellation, so the returned time is
+     * also limited to a short interval after which the caller must check the context again.
+     *
+     * @param context the {@link QuickBaseCallContext} of the call, or <code>null</code>
+     * @param nanos the time that the call intends to wait in nanoseconds
+     * @return the time that the call may wait in nanoseconds
+     * @throws QuickBaseException if the context was cancelled or the deadline has passed
+     */
+    static long limitWait(QuickBaseCallContext context, long nanos) throws QuickBaseException
+    {
+        if (context == null)
+        {
+            return nanos;
+        }
+        context.check();
+        return Math.max(1, Math.min(nanos, Math.min(context.getRemainingNanos(), CHECK_INTERVAL_NANOS)));
+    }
+
+    long getRemainingNanos()
+    {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * Checks that the context is neither cancelled nor expired.
+     *
+     * @throws QuickBaseException if the context was cancelled or the deadline has passed
+     */
+    void check() throws QuickBaseException
+    {
+        if (isCancelled())
+        {
+            throw new QuickBaseException("Call was cancelled"); //$NON-NLS-1$
+        }
+        if (getRemainingNanos() <= 0)
+        {
+            throw new QuickBaseException("Call deadline exceeded"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Registers a request that is about to be sent and applies the socket timeout to it (limited
+     * by the remaining time).
+     *
+     * @param request the {@link HttpMethod}
+     * @throws QuickBaseException if the context was cancelled or the deadline has passed
+     */
+    void begin(HttpMethod request) throws QuickBaseException
+    {
+        synchronized (this)
+        {
+            check();
+            requests.add(request);
+        }
+        long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(getRemainingNanos()));
+        if (socketTimeoutMillis > 0)
+        {
+            remaining = Math.min(remaining, socketTimeoutMillis);
+        }
+        request.getParams().setSoTimeout((int)Math.min(Integer.MAX_VALUE, remaining));
+    }
+
+    /**
+     * Unregisters a request after it was completed or aborted.
+     *
+     * @param request the {@link HttpMethod}
+     */
+    synchronized void end(HttpMethod request)
+    {
+        requests.remove(request);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseChangeHandler.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The interface {@link QuickBaseChangeHandler} receives the changes that are detected by an
+ * incremental synchronization (see
+ * {@link QuickBaseDatabase#sync(com.intuit.quickbase.api.query.CList, QuickBaseSyncState, boolean, QuickBaseChangeHandler)}).
+ * Changes are delivered at least once: a record may be reported again by a later
+ * synchronization, so handlers should apply changes idempotently (for example, by replacing the
+ * local copy of a record by its record ID).
+ *
+ * @version $Revision$
+ */
+public interface QuickBaseChangeHandler
+{
+    /**
+     * Receives a record that was added or modified.
+     *
+     * @param record the current state of the {@link QuickBaseRecord}
+     * @throws QuickBaseException if the change could not be processed (the synchronization is
+     * aborted)
+     */
+    public abstract void recordChanged(QuickBaseRecord record) throws QuickBaseException;
+
+    /**
+     * Receives the record ID of a record that was deleted.
+     *
+     * @param rid the record ID
+     * @throws QuickBaseException if the change could not be processed (the synchronization is
+     * aborted)
+     */
+    public abstract void recordDeleted(int rid) throws QuickBaseException;
+}
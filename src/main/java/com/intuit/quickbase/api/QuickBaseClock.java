@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseClock.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interface {@link QuickBaseClock} abstracts the passing of time for time-based components
+ * such as the {@link QuickBaseRateLimiter}. Client code normally uses {@link #SYSTEM}; a custom
+ * implementation allows such components to be simulated deterministically.
+ *
+ * @version $Revision$
+ */
+public interface QuickBaseClock
+{
+    /** The {@link QuickBaseClock} based on {@link System#nanoTime()}. **/
+    public final static QuickBaseClock SYSTEM = new QuickBaseClock()
+    {
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        public void sleep(long nanos) throws InterruptedException
+        {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    /**
+     * Returns the current value of the clock.
+     *
+     * @return the current time in nanoseconds (relative to an arbitrary origin)
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Waits until the clock has advanced by the specified amount of time.
+     *
+     * @param nanos the time to wait in nanoseconds
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public abstract void sleep(long nanos) throws InterruptedException;
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseConcurrencyLimiter.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The class {@link QuickBaseConcurrencyLimiter} adapts the number of requests that a
+ * {@link QuickBaseConnection} sends to QuickBase at the same time. The limit grows additively
+ * while the observed latencies stay close to the lowest recently observed latency of the same
+ * {@link QuickBaseAPICall} (a large DoQuery naturally takes much longer than a GetDBInfo), and shrinks
+ * multiplicatively when latencies rise or when QuickBase reports throttling or overload errors
+ * (see {@link QuickBaseErrorCode#isOverload()}). Requests beyond the current limit wait in a
+ * queue rather than failing.
+ *
+ * @see QuickBaseConnection#setConcurrencyLimiter(QuickBaseConcurrencyLimiter)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseConcurrencyLimiter
+{
+    private final static double LATENCY_TOLERANCE = 2.0;
+    private final static double LATENCY_BACKOFF = 0.9;
+    private final static double OVERLOAD_BACKOFF = 0.5;
+    private final static double BASELINE_DRIFT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private final Map<QuickBaseAPICall, Long> baselines = new EnumMap<QuickBaseAPICall, Long>(QuickBaseAPICall.class);
+    private long lastDecrease;
+
+    /**
+     * Creates a new {@link QuickBaseConcurrencyLimiter}.
+     *
+     * @param initialLimit the initial number of concurrent requests
+     * @param minLimit the minimum number of concurrent requests
+     * @param maxLimit the maximum number of concurrent requests
+     */
+    public QuickBaseConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit)
+    {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit)
+        {
+            throw new IllegalArgumentException("Invalid concurrency limits"); //$NON-NLS-1$
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Gets the current limit of concurrent requests.
+     *
+     * @return the current limit
+     */
+    public int getLimit()
+    {
+        lock.lock();
+        try
+        {
+            return (int)limit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests that are currently in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlight()
+    {
+        lock.lock();
+        try
+        {
+            return inFlight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests that are waiting for the limit.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth()
+    {
+        lock.lock();
+        try
+        {
+            return queued;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Converts the {@link QuickBaseConcurrencyLimiter} to a string.
+     *
+     * @return a string representation of the limiter state
+     */
+    public String toString()
+    {
+        lock.lock();
+        try
+        {
+            return getClass().getSimpleName() + "[limit=" + (int)limit + ", inFlight=" + inFlight //$NON-NLS-1$ //$NON-NLS-2$
+            + ", queued=" + queued + ']'; //$NON-NLS-1$
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until another request may be sent.
+     *
+     * @throws QuickBaseException if the current thread was interrupted while waiting, or if the
+     * {@link QuickBaseCallContext} of the current thread was cancelled or its deadline passed
+     */
+    void acquire() throws QuickBaseException
+    {
+        QuickBaseCallContext context = QuickBaseCallContext.current();
+        lock.lock();
+        try
+        {
+            queued++;
+            try
+            {
+                while (inFlight >= (int)limit)
+                {
+                    if (context == null)
+                    {
+                        available.await();
+                    }
+                    else
+                    {
+                        available.awaitNanos(QuickBaseCallContext.limitWait(context, Long.MAX_VALUE));
+                    }
+                }
+            }
+            finally
+            {
+                queued--;
+            }
+            inFlight++;
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+            throw new QuickBaseException(interruptedException);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot for another request if one is available, without waiting.
+     *
+     * @return <code>true</code> if the request may be sent, <code>false</code> if the limit is
+     * reached
+     */
+    boolean tryAcquire()
+    {
+        lock.lock();
+        try
+        {
+            if (inFlight >= (int)limit)
+            {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the outcome of a request that was started after {@link #acquire()} (or a successful
+     * {@link #tryAcquire()}) and adjusts the
+     * limit accordingly.
+     *
+     * @param call the {@link QuickBaseAPICall} of the request
+     * @param latencyNanos the latency of the request in nanoseconds
+     * @param overload <code>true</code> if the request failed with a throttling or overload error
+     * (or a transport error), <code>false</code> otherwise
+     */
+    void release(QuickBaseAPICall call, long latencyNanos, boolean overload)
+    {
+        lock.lock();
+        try
+        {
+            boolean saturated = inFlight >= (int)limit;
+            inFlight--;
+            long now = System.nanoTime();
+            Long baseline = baselines.get(call);
+            if (overload)
+            {
+                decrease(now, OVERLOAD_BACKOFF, baseline);
+            }
+            else
+            {
+                long baselineNanos = baseline == null ? latencyNanos
+                : Math.min(latencyNanos, baseline + (long)((latencyNanos - baseline)*BASELINE_DRIFT));
+                baselines.put(call, baselineNanos);
+                if (latencyNanos > LATENCY_TOLERANCE*baselineNanos)
+                {
+                    decrease(now, LATENCY_BACKOFF, baselineNanos);
+                }
+                else if (saturated)
+                {
+                    // Additive increase: the limit grows by about one per round of requests
+                    //
+                    limit = Math.min(maxLimit, limit + 1/limit);
+                }
+            }
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a request that was started after {@link #acquire()} without adjusting the limit.
+     * This is used for requests whose outcome says nothing about the load of QuickBase, for
+     * example, requests that were cancelled by the client or whose response handler failed, and
+     * successful streamed requests, whose latency includes the time of their consumer.
+     */
+    void abandon()
+    {
+        lock.lock();
+        try
+        {
+            inFlight--;
+            available.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private void decrease(long now, double factor, Long baseline)
+    {
+        // Decrease at most once per baseline latency, so that a burst of failures of requests that
+        // were all sent under the old limit does not collapse the limit:
+        //
+        long interval = baseline == null ? 0 : baseline;
+        if (now - lastDecrease >= interval)
+        {
+            limit = Math.max(minLimit, limit*factor);
+            lastDecrease = now;
+        }
+    }
+}
@@ -15,36 +15,85 @@ package com.intuit.quickbase.api;
 
 import static com.intuit.quickbase.api.QuickBaseAPICall.API_Authenticate;
 import static com.intuit.quickbase.api.QuickBaseAPICall.API_FindDBByName;
+import static com.intuit.quickbase.api.QuickBaseAPICall.API_GetRecordInfo;
 import static com.intuit.quickbase.api.QuickBaseAPICall.API_SignOut;
+import static com.intuit.quickbase.api.QuickBaseAPICall.API_UploadFile;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.PasswordAuthentication;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HeaderElement;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * The class {@link QuickBaseConnection} represents an HTTP connection to a QuickBase server.
@@ -72,15 +121,89 @@ public class QuickBaseConnection
     private final static String PASSWORD = "password"; //$NON-NLS-1$
     private static final String HOURS = "hours"; //$NON-NLS-1$
     private final static String DBNAME = "dbname"; //$NON-NLS-1$
+    private final static String RID = "rid"; //$NON-NLS-1$
+    private final static char KEY_SEPARATOR = '\u0000';
+    private final static String MAIN = "main"; //$NON-NLS-1$
+    private final static String UTF_8 = "UTF-8"; //$NON-NLS-1$
+    private final static String XML_CONTENT_TYPE = "application/xml; charset=UTF-8"; //$NON-NLS-1$
+    private final static String CONTENT_TYPE = "Content-Type"; //$NON-NLS-1$
+    private final static String CHARSET = "charset"; //$NON-NLS-1$
+    private final static String XML = "xml"; //$NON-NLS-1$
+    private final static String QDBAPI = "qdbapi"; //$NON-NLS-1$
+    private final static String ERRCODE = "errcode"; //$NON-NLS-1$
+    private final static String ERRTEXT = "errtext"; //$NON-NLS-1$
+    private final static String ACCEPT_ENCODING = "Accept-Encoding"; //$NON-NLS-1$
+    private final static String CONTENT_ENCODING = "Content-Encoding"; //$NON-NLS-1$
+    private final static String GZIP = "gzip"; //$NON-NLS-1$
+    private final static String X_GZIP = "x-gzip"; //$NON-NLS-1$
+    private final static String DEFLATE = "deflate"; //$NON-NLS-1$
+    private final static int INFLATE_BUFFER = 8192;
+    private final static int MIN_COMPRESSED_REQUEST = 1024;
+    private final static long TICKET_EXPIRY_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    private final static ThreadLocal<CharsetEncoder> ENCODER = new ThreadLocal<CharsetEncoder>() {
+        @Override
+        protected CharsetEncoder initialValue() {
+            return Charset.forName(UTF_8).newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
+    private final static ThreadLocal<SAXParser> SAX_PARSER = new ThreadLocal<SAXParser>() {
+        @Override
+        protected SAXParser initialValue() {
+            try {
+                return SAXParserFactory.newInstance().newSAXParser();
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final static ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            try {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /** The maximum number of pooled HTTP connections (per host and in total). **/
+    final static int MAX_CONNECTIONS = 20;
 
     private HttpClient httpClient;
-    private String ticket;
+    // The cookies of this connection (the HttpClient may be shared with other connections)
+    private final HttpState httpState = new HttpState();
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+    private final QuickBaseSingleFlight singleFlight = new QuickBaseSingleFlight();
+    private volatile boolean requestCoalescing = true;
+    private volatile QuickBaseHedgingPolicy hedgingPolicy;
+    private volatile QuickBaseConcurrencyLimiter concurrencyLimiter;
+    private volatile QuickBaseRateLimiter rateLimiter;
+    private volatile QuickBaseRetryPolicy retryPolicy;
+    private volatile boolean responseCompression = true;
+    private volatile boolean requestCompression;
+    private final AtomicLong wireBytesSent = new AtomicLong();
+    private final AtomicLong uncompressedBytesSent = new AtomicLong();
+    private final AtomicLong wireBytesReceived = new AtomicLong();
+    private final AtomicLong uncompressedBytesReceived = new AtomicLong();
 
     private String qbMainUrl = ""; //$NON-NLS-1$
     private String qbUrl = ""; //$NON-NLS-1$
+    private String qbDownloadUrl = ""; //$NON-NLS-1$
+    private String realm;
     private Integer authHours = null;
 
-    private PasswordAuthentication credentials;
+    private QuickBaseSession primary;
+    private final List<QuickBaseSession> sessions = new CopyOnWriteArrayList<QuickBaseSession>();
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private QuickBaseTicketStore ticketStore;
+    private final QuickBaseBufferPool bufferPool = new QuickBaseBufferPool(MAX_CONNECTIONS*4);
     
     
 
@@ -111,6 +234,68 @@ public class QuickBaseConnection
      * @throws QuickBaseException
      */
     public QuickBaseConnection(PasswordAuthentication credentials, String qbDomain, String httpProtocol, Integer authHours) throws QuickBaseException 
+    {
+        this(credentials, qbDomain, httpProtocol, authHours, true);
+    }
+    
+    /**
+     * Creates a connection to QuickBase. If <code>authenticate</code> is <code>false</code>,
+     * the connection authenticates lazily when the first request is sent (for example, by
+     * {@link #warmUp(Collection, Collection)}), so that the constructor does not block.
+     * 
+     * @param credentials
+     * @param qbDomain
+     * @param httpProtocol
+     * @param authHours
+     * @param authenticate <code>true</code> to authenticate immediately
+     * @throws QuickBaseException
+     */
+    public QuickBaseConnection(PasswordAuthentication credentials, String qbDomain, String httpProtocol, Integer authHours,
+            boolean authenticate) throws QuickBaseException 
+    {
+        this(credentials, qbDomain, httpProtocol, authHours, authenticate, null, null);
+    }
+    
+    /**
+     * Creates an authenticated connection to QuickBase that reuses tickets from a
+     * {@link QuickBaseTicketStore}. A stored ticket for the same realm and user is used as long as
+     * it has not expired; new tickets are saved to the store. If QuickBase rejects a stored ticket,
+     * the connection authenticates again.
+     * 
+     * @param credentials
+     * @param qbDomain
+     * @param httpProtocol
+     * @param authHours
+     * @param ticketStore the {@link QuickBaseTicketStore}
+     * @throws QuickBaseException
+     */
+    public QuickBaseConnection(PasswordAuthentication credentials, String qbDomain, String httpProtocol, Integer authHours,
+            QuickBaseTicketStore ticketStore) throws QuickBaseException 
+    {
+        this(credentials, qbDomain, httpProtocol, authHours, true, ticketStore, null);
+    }
+    
+    /**
+     * Creates a connection to QuickBase that sends its requests through a shared
+     * {@link HttpClient} (see {@link QuickBaseConnectionRegistry}). The connection authenticates
+     * lazily.
+     * 
+     * @param credentials
+     * @param qbDomain
+     * @param httpProtocol
+     * @param authHours
+     * @param ticketStore the {@link QuickBaseTicketStore}, or <code>null</code>
+     * @param httpClient the shared {@link HttpClient}
+     * @throws QuickBaseException
+     */
+    QuickBaseConnection(PasswordAuthentication credentials, String qbDomain, String httpProtocol, Integer authHours,
+            QuickBaseTicketStore ticketStore, HttpClient httpClient) throws QuickBaseException 
+    {
+        this(credentials, qbDomain, httpProtocol, authHours, false, ticketStore, httpClient);
+    }
+    
+    private QuickBaseConnection(PasswordAuthentication credentials, String qbDomain, String httpProtocol, Integer authHours,
+            boolean authenticate, QuickBaseTicketStore ticketStore, HttpClient httpClient) throws QuickBaseException 
     {
         if (authHours == null || authHours <= 0) {
             throw new QuickBaseException("Invalid authHours parameter: [" + authHours + "]");
@@ -119,22 +304,44 @@ public class QuickBaseConnection
         try {
             this.qbMainUrl  = new URL(httpProtocol, qbDomain, -1, "/db/main?").toString();
             this.qbUrl      = new URL(httpProtocol, qbDomain, -1, "/db/").toString();
+            this.qbDownloadUrl = new URL(httpProtocol, qbDomain, -1, "/up/").toString();
         } catch (MalformedURLException e) {
             throw new QuickBaseException("Authentication failed. Incorrect format of URL to connect to quickbase", e);
         }
         
-        this.credentials = credentials;
+        this.realm = qbDomain;
+        this.primary = new QuickBaseSession(credentials);
+        this.sessions.add(primary);
         this.authHours = authHours;
+        this.ticketStore = ticketStore;
         
-        this.httpClient = new HttpClient();
+        this.httpClient = httpClient != null ? httpClient : createHttpClient(MAX_CONNECTIONS, MAX_CONNECTIONS);
         
         // Authenticate connection
-        retrieveNewTicket();
+        if (authenticate) {
+            obtainTicket(primary);
+        }
     }
     
     public String getTicket() 
     {
-        return ticket;
+        return primary.getTicket();
+    }
+
+    /**
+     * Adds the credentials of another user to this connection. Read-only requests (see
+     * {@link QuickBaseAPICall#isReadOnly()}) are distributed across all users of the connection,
+     * each request going to the user with the fewest outstanding requests, which multiplies the
+     * throughput that QuickBase's per-user limits allow. Users that QuickBase is throttling (or
+     * whose requests fail) are avoided for a while. Requests that modify data are always sent
+     * with the credentials that the connection was created with. The new user authenticates when
+     * its first request is sent.
+     * 
+     * @param credentials the credentials of the additional user
+     */
+    public void addCredentials(PasswordAuthentication credentials) 
+    {
+        sessions.add(new QuickBaseSession(credentials));
     }
 
     /**
@@ -161,10 +368,10 @@ public class QuickBaseConnection
      */
     public List<QuickBaseDatabase> findDBsByName(final String databaseName) throws QuickBaseException 
     {
-        Document response = executeRequest(new RequestBuilder() {
+        Document response = execute(MAIN, API_FindDBByName, requestKey(null, API_FindDBByName, databaseName), true, new RequestBuilder() {
             @Override
-            public HttpMethod getRequestMethod() {
-                return method(API_FindDBByName, dbname(databaseName));
+            public HttpMethod getRequestMethod(String ticket) {
+                return method(API_FindDBByName, ticket(ticket), dbname(databaseName));
             };
         });
         
@@ -186,6 +393,47 @@ public class QuickBaseConnection
         return databases;
     }
 
+    /**
+     * Prepares this connection for serving requests. The given applications are resolved to their
+     * database IDs and their schemas are retrieved, all in parallel (after authenticating, if the
+     * connection was created without authentication). The parallel requests leave up to
+     * {@link #MAX_CONNECTIONS} keep-alive connections in the connection pool for later requests.
+     * <p/>
+     * Application names and database IDs are passed separately, because an application name
+     * cannot be told apart from a database ID by its form. Each application name may resolve to
+     * several databases.
+     * 
+     * @param appNames the names of the applications (may be empty)
+     * @param dbids the database IDs of further applications or tables (may be empty)
+     * @return a {@link QuickBaseFuture} that completes with the schemas of all resolved databases
+     * (keyed by database ID) when the connection is ready
+     */
+    public QuickBaseFuture<Map<String, QuickBaseSchema>> warmUp(Collection<String> appNames, Collection<String> dbids) 
+    {
+        final List<String> names = new ArrayList<String>(appNames);
+        final List<String> ids = new ArrayList<String>(dbids);
+        final QuickBaseFuture<Map<String, QuickBaseSchema>> future = new QuickBaseFuture<Map<String, QuickBaseSchema>>();
+        final QuickBasePriority priority = QuickBasePriority.current();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                priority.makeCurrent();
+                try {
+                    future.complete(warmUp(names, ids));
+                } catch (QuickBaseException e) {
+                    log.warn("Warm-up failed", e);
+                    future.fail(e);
+                } catch (RuntimeException e) {
+                    log.warn("Warm-up failed", e);
+                    future.fail(new QuickBaseException(e));
+                } finally {
+                    QuickBasePriority.INTERACTIVE.makeCurrent();
+                }
+            }
+        });
+        return future;
+    }
+
     /**
      * Executes a {@link QuickBaseAPICall} for a certain database and returns
      * the database response as a SAX {@link InputSource}. Uses the Http GET
@@ -199,9 +447,14 @@ public class QuickBaseConnection
      */
     public Document execute(final String dbid, final QuickBaseAPICall call, final NameValuePair... parameters) throws QuickBaseException 
     {
-        return executeRequest(new RequestBuilder() {
+        String[] normalized = new String[parameters.length];
+        for (int index = 0; index < parameters.length; index++) {
+            normalized[index] = parameters[index].getName() + '=' + parameters[index].getValue();
+        }
+        Arrays.sort(normalized);
+        return execute(dbid, call, requestKey(dbid, call, normalized), call.isReadOnly(), new RequestBuilder() {
             @Override
-            public HttpMethod getRequestMethod() {
+            public HttpMethod getRequestMethod(String ticket) {
                 HttpMethod method = new GetMethod(qbUrl + dbid + QUERY);
                 NameValuePair[] query = new NameValuePair[parameters.length + 2];
                 query[FIRST] = act(call);
@@ -224,233 +477,1392 @@ public class QuickBaseConnection
      * @return a SAX {@link InputSource} that contains the server's response
      * @throws QuickBaseException if the execution was unsuccessful
      */
-    public Document executeXml(final String qbid, final QuickBaseAPICall call, final String... elements) throws QuickBaseException 
+    public Document executeXml(String qbid, QuickBaseAPICall call, String... elements) throws QuickBaseException 
     {
-        return executeRequest(new RequestBuilder() {
-            @Override
-            public HttpMethod getRequestMethod() throws QuickBaseException {
-
-                StringBuilder xml = new StringBuilder();
-                xml.append("<qdbapi>\n");
-
-                xml.append("<ticket>");
-                xml.append(getTicket());
-                xml.append("</ticket>\n");
-
-                for (String element : elements) {
-                    xml.append(element);
-                    xml.append("\n");
-                }
-                
-                xml.append("</qdbapi>\n");
-                
-                String payload = xml.toString();
-                
-                log.debug("executeXml payload: {}", payload);
+        return executeXml(qbid, call, call.isReadOnly(), elements);
+    }
 
-                StringRequestEntity formEntity;
-                try {
-                    formEntity = new StringRequestEntity(payload, "application/xml", "UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                    log.error("Cannot create a string request", e);
-                    throw new QuickBaseException("Cannot create string request entity", e);
-                }
-                
-                PostMethod method = new PostMethod(qbUrl + qbid);
-                method.setRequestEntity(formEntity);
-                method.addRequestHeader(QB_ACTION_HEADER, call.toString());
-                return method;
-            }
-        });
+    /**
+     * Executes a {@link QuickBaseAPICall} as an XML payload. Requests that are marked as
+     * idempotent may be retried according to the {@link QuickBaseRetryPolicy}; this is the case
+     * for read-only calls and for modifications that are guarded against being applied twice.
+     * 
+     * @param qbid The id of the object the call is acting upon
+     * @param call {@link QuickBaseAPICall} to be executed
+     * @param idempotent <code>true</code> if the request may safely be sent more than once
+     * @param elements the XML elements to put into the payload
+     * @return the response document
+     * @throws QuickBaseException if the execution was unsuccessful
+     */
+    Document executeXml(final String qbid, final QuickBaseAPICall call, boolean idempotent, final String... elements) throws QuickBaseException 
+    {
+        return execute(qbid, call, requestKey(qbid, call, elements), idempotent, new XmlRequestBuilder(qbid, call, elements));
     }
 
     /**
-     * Executes a {@link QuickBaseAPICall} without additional parameters for a
-     * certain database and returns the database response as a SAX
-     * {@link InputSource}. Uses the Http Get Method
+     * Executes a read-only {@link QuickBaseAPICall} as an XML payload and passes the response body
+     * to a {@link ResponseStream} while it is received. The response is never held in memory as a
+     * whole. Streamed requests are neither coalesced nor hedged, and they are not retried once
+     * the {@link ResponseStream} has started reading, because part of the response may already
+     * have been processed. Error responses (which are always XML) are handled as usual.
      * 
-     * @param dbid the database ID
-     * @param call the {@link QuickBaseAPICall} to be executed
-     * @return a SAX {@link InputSource} that contains the server's response
+     * @param qbid The id of the object the call is acting upon
+     * @param call {@link QuickBaseAPICall} to be executed
+     * @param stream the {@link ResponseStream} that processes the response
+     * @param elements the XML elements to put into the payload
      * @throws QuickBaseException if the execution was unsuccessful
      */
-    public Document execute(String dbid, QuickBaseAPICall call) throws QuickBaseException 
+    void executeXml(String qbid, QuickBaseAPICall call, ResponseStream stream, String... elements) throws QuickBaseException 
     {
-        return execute(dbid, call, NO_PARAMETERS);
+        executeStreaming(qbid, call, streamReader(stream), elements);
     }
 
     /**
-     * Logs off from QuickBase by invalidating the token.
+     * Executes a read-only {@link QuickBaseAPICall} as an XML payload and parses the response with
+     * SAX while it is received, passing all parser events except <code>endDocument</code> to a
+     * {@link ContentHandler}. The response is never held in memory as a whole. The same
+     * restrictions as for streamed responses apply (see
+     * {@link #executeXml(String, QuickBaseAPICall, ResponseStream, String...)}); the
+     * {@link ContentHandler} may receive the events of error responses, which never contain
+     * records, before a request is retried.
      * 
-     * @return document from QuickBase with the result.
-     * @throws QuickBaseException
+     * @param qbid The id of the object the call is acting upon
+     * @param call {@link QuickBaseAPICall} to be executed
+     * @param handler the {@link ContentHandler} that receives the parser events
+     * @param elements the XML elements to put into the payload
+     * @throws QuickBaseException if the execution was unsuccessful
      */
-    public Document logOff() throws QuickBaseException 
+    void executeXml(String qbid, QuickBaseAPICall call, ContentHandler handler, String... elements) throws QuickBaseException 
     {
-        Document docResponse;
-        try {
-            docResponse = executeRequest(new RequestBuilder() {
-                @Override
-                public HttpMethod getRequestMethod() {
-                    HttpMethod method = signOut();
-                    return method;
-                }
-            });
-        } catch (QuickBaseException e) {
-            throw new QuickBaseException("Log off failed.", e);
-        }
-        
-        return docResponse;
+        executeStreaming(qbid, call, saxReader(handler), elements);
     }
 
-    // ------------------------------------- PRIVATE SECTION BELOW
+    private void executeStreaming(String qbid, QuickBaseAPICall call, final ResponseReader<Document> reader, String... elements)
+    throws QuickBaseException 
+    {
+        final XmlRequestBuilder requestBuilder = new XmlRequestBuilder(qbid, call, elements);
+        executeRequest(null, qbid, call, call.isReadOnly(), new StreamingRequestBuilder() {
+            @Override
+            public HttpMethod getRequestMethod(String ticket) throws QuickBaseException {
+                return requestBuilder.getRequestMethod(ticket);
+            }
+
+            @Override
+            public ResponseReader<Document> getResponseReader() {
+                return reader;
+            }
+        });
+    }
 
     /**
-     * Executes any HTTP Get request. checks for basic error codes in response
-     * document. returns the response document
+     * Uploads a file into a file attachment field using {@link QuickBaseAPICall#API_UploadFile}.
+     * The file is Base64 encoded while it is streamed from disk, so that files of any size can be
+     * uploaded with a constant amount of memory. Uploads are never retried, as every upload
+     * creates a new revision of the attachment.
      * 
-     * @param requestBuilder
-     * @return
-     * @throws QuickBaseException
+     * @param tableId the ID of the table
+     * @param rid the record ID
+     * @param fieldId the ID of the file attachment field
+     * @param file the {@link Path} of the file
+     * @return the response document
+     * @throws QuickBaseException if the file could not be read or uploaded
      */
-    private Document executeRequest(RequestBuilder requestBuilder) throws QuickBaseException 
+    Document uploadFile(final String tableId, final int rid, final int fieldId, final Path file) throws QuickBaseException 
     {
-        log.debug(">>> >>> >>> Execute request with ticket: {}", ticket);
-        
+        final long fileSize;
         try {
+            fileSize = Files.size(file);
+        } catch (IOException e) {
+            throw new QuickBaseException("Cannot read file " + file, e);
+        }
+        return execute(tableId, API_UploadFile, null, false, new RequestBuilder() {
+            @Override
+            public HttpMethod getRequestMethod(String ticket) throws QuickBaseException {
+                StringBuilder prefix = new StringBuilder("<qdbapi>\n");
+                prefix.append(QuickBaseXml.element(TICKET, ticket)).append('\n');
+                prefix.append(QuickBaseXml.element(RID, rid)).append('\n');
+                prefix.append("<field fid=\"").append(fieldId).append("\" filename=\"");
+                prefix.append(StringEscapeUtils.escapeXml(String.valueOf(file.getFileName()))).append("\">");
+                Charset utf8 = Charset.forName(UTF_8);
+                QuickBaseUploadEntity entity = new QuickBaseUploadEntity(prefix.toString().getBytes(utf8), file, fileSize,
+                        "</field>\n</qdbapi>\n".getBytes(utf8), XML_CONTENT_TYPE, bufferPool);
+                uncompressedBytesSent.addAndGet(entity.getContentLength());
+                wireBytesSent.addAndGet(entity.getContentLength());
 
-            // Get the ticket before building the request method.
-            String oldTicket = ticket;
-            HttpMethod request = requestBuilder.getRequestMethod();
+                PostMethod method = new PostMethod(qbUrl + tableId);
+                method.setRequestEntity(entity);
+                method.addRequestHeader(QB_ACTION_HEADER, API_UploadFile.toString());
+                return method;
+            }
+        });
+    }
 
-            httpClient.executeMethod(request);
-            Document docResponse = getResponse(request);
-            QuickBaseErrorCode errorCode = parseErrorCode(docResponse);
-            
-            if (errorCode == QuickBaseErrorCode.OK) {
-                return docResponse;
+    /**
+     * Downloads a file attachment and writes it directly to a file, so that attachments of any
+     * size can be downloaded with a constant amount of memory. The download passes through the
+     * same rate limiting, ticket renewal and retries as the API calls (it is accounted as a
+     * {@link QuickBaseAPICall#API_GetRecordInfo} call); QuickBase redirects requests with an
+     * expired ticket to its sign-in page or rejects them, in which case the ticket is renewed and
+     * the download is sent again. The attachment is written to a temporary file in the directory
+     * of the target, which is moved onto the target only when the download is complete, so that
+     * an existing file is never replaced by a partial download.
+     * 
+     * @param tableId the ID of the table
+     * @param rid the record ID
+     * @param fieldId the ID of the file attachment field
+     * @param version the version of the attachment, or <code>0</code> for the latest version
+     * @param target the {@link Path} of the file to be written (an existing file is replaced)
+     * @return the number of bytes that were written
+     * @throws QuickBaseException if the attachment could not be downloaded or written
+     */
+    long downloadAttachment(final String tableId, final int rid, final int fieldId, final int version, Path target)
+    throws QuickBaseException 
+    {
+        Path directory = target.toAbsolutePath().getParent();
+        final Path temporary;
+        try {
+            temporary = Files.createTempFile(directory, "." + target.getFileName(), ".download");
+        } catch (IOException e) {
+            throw new QuickBaseException("Cannot create file in " + directory, e);
+        }
+        final AtomicLong size = new AtomicLong();
+        final ResponseReader<Document> reader = new ResponseReader<Document>() {
+            @Override
+            public Document read(HttpMethod method) throws IOException, QuickBaseException {
+                int status = method.getStatusCode();
+                if (status == HttpStatus.SC_UNAUTHORIZED || (status >= HttpStatus.SC_MULTIPLE_CHOICES && status < HttpStatus.SC_BAD_REQUEST)) {
+                    return statusDocument(String.valueOf(QuickBaseErrorCode.INVALID_TICKET.getCode()), String.valueOf(method.getStatusLine()));
+                }
+                if (status != HttpStatus.SC_OK) {
+                    throw new QuickBaseException("Download failed: " + method.getStatusLine());
+                }
+                size.set(transfer(method, temporary));
+                return statusDocument(String.valueOf(QuickBaseErrorCode.OK.getCode()), null);
             }
-            
-            log.warn("Got QuickBase error code: {}", errorCode);
-            
-            if (errorCode == QuickBaseErrorCode.INVALID_TICKET) {
-                log.warn("Ticked might have expired. Trying to renew ticket and execute again.");
-                
-                synchronized (this) {
-                    if (oldTicket.equals(ticket)) {
-                        retrieveNewTicket();
-                    }
+        };
+        boolean moved = false;
+        try {
+            executeRequest(null, tableId, API_GetRecordInfo, true, new StreamingRequestBuilder() {
+                @Override
+                public HttpMethod getRequestMethod(String ticket) {
+                    GetMethod method = new GetMethod(qbDownloadUrl + tableId + "/a/r" + rid + "/e" + fieldId + "/v" + version);
+                    method.setQueryString(new NameValuePair[] {ticket(ticket)});
+                    method.setFollowRedirects(false);
+                    return method;
                 }
-                
-                log.debug(">>> >>> >>> Re execute request with ticket: {}", ticket);
-                
-                // Rebuild the request with the new ticket
-                request = requestBuilder.getRequestMethod();
-                
-                httpClient.executeMethod(request);
-                docResponse = getResponse(request);
-                errorCode = parseErrorCode(docResponse);
 
-                if (errorCode == QuickBaseErrorCode.OK) {
-                    return docResponse;
+                @Override
+                public ResponseReader<Document> getResponseReader() {
+                    return reader;
+                }
+            });
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new QuickBaseException("Cannot write file " + target, e);
+            }
+            moved = true;
+            return size.get();
+        } finally {
+            if (!moved) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    log.warn("Cannot delete incomplete download {}", temporary);
                 }
-                
-                log.info("After re-login got error code: {}", errorCode);
             }
-
-            String errorText = QuickBaseXPath.QDBAPI_ERRTEXT.evaluate(docResponse);
-            errorText += " (error code " + errorCode + ')'; //$NON-NLS-1$
-            throw new QuickBaseException(errorText);
-            
-        } catch (IOException | SAXException | XPathExpressionException | ParserConfigurationException e ) {
-            throw new QuickBaseException(e);
         }
     }
 
-    private QuickBaseErrorCode parseErrorCode(Document docResponse) throws QuickBaseException 
+    /**
+     * Writes the body of a download to a file, replacing the contents of a previous attempt.
+     * Failures to read the response are {@link IOException}s (which may be retried), while
+     * failures to write the file are {@link QuickBaseException}s.
+     * 
+     * @return the number of bytes that were written
+     */
+    private long transfer(HttpMethod method, Path file) throws IOException, QuickBaseException 
     {
-        try {
-            int code = Integer.parseInt(QuickBaseXPath.QDBAPI_ERRCODE.evaluate(docResponse));
-            QuickBaseErrorCode errorCode = QuickBaseErrorCode.valueOf(code);
-            if (QuickBaseErrorCode.ERROR_CODE_NOT_RECOGNIZED == errorCode) {
-                log.warn("Error code not recognized [{}]. Please update enum QuickBaseErrorCode (from https://www.quickbase.com/api-guide/whnjs.htm)", code);
+        byte[] buffer = bufferPool.acquire();
+        try (InputStream body = openResponse(method)) {
+            FileChannel output;
+            try {
+                output = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                throw new QuickBaseException("Cannot write file " + file, e);
             }
-            return errorCode;
-        } catch (XPathExpressionException e) {
-            throw new QuickBaseException("Cannot retrieve error code.", e);
+            try {
+                long position = 0;
+                for (int count; (count = body.read(buffer)) >= 0;) {
+                    try {
+                        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+                        while (chunk.hasRemaining()) {
+                            output.write(chunk);
+                        }
+                    } catch (IOException e) {
+                        throw new QuickBaseException("Cannot write file " + file, e);
+                    }
+                    position += count;
+                }
+                return position;
+            } finally {
+                output.close();
+            }
+        } finally {
+            bufferPool.release(buffer);
         }
     }
 
-    private Document getResponse(HttpMethod method) throws IOException, SAXException, ParserConfigurationException 
+    /**
+     * Executes a {@link QuickBaseAPICall} without additional parameters for a
+     * certain database and returns the database response as a SAX
+     * {@link InputSource}. Uses the Http Get Method
+     * 
+     * @param dbid the database ID
+     * @param call the {@link QuickBaseAPICall} to be executed
+     * @return a SAX {@link InputSource} that contains the server's response
+     * @throws QuickBaseException if the execution was unsuccessful
+     */
+    public Document execute(String dbid, QuickBaseAPICall call) throws QuickBaseException 
     {
-        // String response = method.getResponseBodyAsString();
-        InputSource inputSource = new InputSource(method.getResponseBodyAsStream());
-        DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        return documentBuilder.parse(inputSource);
+        return execute(dbid, call, NO_PARAMETERS);
     }
 
-    // A session is having a valid ticket from QuickBase
-    private void retrieveNewTicket() throws QuickBaseException 
+    /**
+     * Logs off from QuickBase by invalidating the token. If the connection uses several
+     * credentials, every session is signed out with its own ticket.
+     * 
+     * @return document from QuickBase with the result (for the primary credentials).
+     * @throws QuickBaseException if a session could not be signed out; all sessions are
+     * attempted nevertheless
+     */
+    public Document logOff() throws QuickBaseException 
     {
-        Document docResponse;
-        try {
-            docResponse = executeRequest(new RequestBuilder() {
-                @Override
-                public HttpMethod getRequestMethod() {
-                    HttpMethod method = authenticate(credentials.getUserName(), credentials.getPassword());
-                    return method;
+        Document docResponse = null;
+        QuickBaseException failure = null;
+        for (QuickBaseSession session : sessions) {
+            Document sessionResponse;
+            try {
+                sessionResponse = signOut(session);
+            } catch (QuickBaseException e) {
+                if (failure == null) {
+                    failure = e;
                 }
-            });
-        } catch (QuickBaseException e) {
-            throw new QuickBaseException("Authentication failed.", e);
+                continue;
+            }
+            if (session == primary) {
+                docResponse = sessionResponse;
+            }
+            
+            // The ticket is no longer valid (a session without a ticket did not sign out anything)
+            if (sessionResponse != null && ticketStore != null) {
+                try {
+                    ticketStore.remove(realm, session.getUserName());
+                } catch (QuickBaseException e) {
+                    log.warn("Could not remove ticket from ticket store", e);
+                }
+            }
         }
-
-        String ticket = null;
-        try {
-            ticket = QuickBaseXPath.QDBAPI_TICKET.evaluate(docResponse);
-        } catch (XPathExpressionException e) {
-            throw new QuickBaseException("Could not retrieve ticket.", e);
+        if (failure != null) {
+            throw failure;
         }
-        
-        if (StringUtils.stripToNull(ticket) == null) {
-            throw new QuickBaseException("Authentication failed. No ticket found in response.");
+        if (docResponse == null) {
+            // Never authenticated, so there is nothing to invalidate
+            docResponse = statusDocument(String.valueOf(QuickBaseErrorCode.OK.getCode()), null);
         }
-
-        this.ticket = ticket;
+        return docResponse;
     }
 
-    private HttpMethod method(QuickBaseAPICall call, NameValuePair... parameters) 
+    /**
+     * Enables or disables request coalescing. If coalescing is enabled (which is the default),
+     * identical read-only requests (see {@link QuickBaseAPICall#isReadOnly()}) that are issued
+     * concurrently share a single HTTP request and its response. Requests that modify data are
+     * never coalesced.
+     * 
+     * @param requestCoalescing <code>true</code> to enable coalescing, <code>false</code> to
+     * disable it
+     */
+    public void setRequestCoalescing(boolean requestCoalescing) 
     {
-        HttpMethod method = new GetMethod(qbMainUrl);
-        NameValuePair[] query = new NameValuePair[parameters.length + 1];
-        System.arraycopy(parameters, 0, query, 1, parameters.length);
-        query[FIRST] = act(call);
-        method.setQueryString(query);
-        return method;
+        this.requestCoalescing = requestCoalescing;
     }
 
-    private HttpMethod authenticate(String username, char[] password) 
+    /**
+     * Sets the {@link QuickBaseHedgingPolicy} for read-only requests. Hedging is disabled by
+     * default.
+     * 
+     * @param hedgingPolicy the {@link QuickBaseHedgingPolicy}, or <code>null</code> to disable
+     * hedging
+     */
+    public void setHedgingPolicy(QuickBaseHedgingPolicy hedgingPolicy) 
     {
-        GetMethod authenticate = new GetMethod(qbMainUrl);
-        return authHours != null ? 
-                query(authenticate, act(API_Authenticate), username(username), password(password), hours(authHours)) : 
-                query(authenticate, act(API_Authenticate), username(username), password(password)); // default QuickBase
+        this.hedgingPolicy = hedgingPolicy;
     }
 
-    private HttpMethod signOut() 
+    /**
+     * Sets the {@link QuickBaseConcurrencyLimiter} that adapts the number of concurrent requests
+     * to the observed latencies and errors. Requests beyond the limit wait until other requests
+     * have finished. No limiter is used by default (apart from the fixed size of the connection
+     * pool).
+     * 
+     * @param concurrencyLimiter the {@link QuickBaseConcurrencyLimiter}, or <code>null</code> to
+     * disable adaptive limiting
+     */
+    public void setConcurrencyLimiter(QuickBaseConcurrencyLimiter concurrencyLimiter) 
     {
-        GetMethod signOut = new GetMethod(qbMainUrl);
-        return query(signOut, act(API_SignOut));
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
-    private HttpMethod query(HttpMethod method, NameValuePair... parameters) 
+    /**
+     * Returns the {@link QuickBaseConcurrencyLimiter} of this connection, or <code>null</code>
+     * if adaptive limiting is disabled.
+     */
+    public QuickBaseConcurrencyLimiter getConcurrencyLimiter() 
     {
-        method.setQueryString(parameters);
-        return method;
+        return concurrencyLimiter;
     }
 
-    private NameValuePair act(QuickBaseAPICall action) {
-        return new NameValuePair(ACT, action.toString());
+    /**
+     * Sets the {@link QuickBaseRateLimiter} that limits the request rate per realm and database.
+     * Requests are scheduled with the {@link QuickBasePriority} of the calling thread. No rate
+     * limiter is used by default.
+     * 
+     * @param rateLimiter the {@link QuickBaseRateLimiter}, or <code>null</code> to disable rate
+     * limiting
+     */
+    public void setRateLimiter(QuickBaseRateLimiter rateLimiter) 
+    {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the {@link QuickBaseRateLimiter} of this connection, or <code>null</code> if rate
+     * limiting is disabled.
+     */
+    public QuickBaseRateLimiter getRateLimiter() 
+    {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the {@link QuickBaseRetryPolicy} for transient failures. Without a retry policy (which
+     * is the default), requests are only sent again after an expired ticket was renewed.
+     * 
+     * @param retryPolicy the {@link QuickBaseRetryPolicy}, or <code>null</code> to disable retries
+     */
+    public void setRetryPolicy(QuickBaseRetryPolicy retryPolicy) 
+    {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Enables or disables compressed responses. If enabled (which is the default), requests
+     * announce that gzip and deflate encoded responses are accepted; compressed responses are
+     * decompressed while they are parsed.
+     * 
+     * @param responseCompression <code>true</code> to accept compressed responses
+     */
+    public void setResponseCompression(boolean responseCompression) 
+    {
+        this.responseCompression = responseCompression;
+    }
+
+    /**
+     * Enables or disables compressed request bodies. If enabled, XML payloads (for example, of
+     * {@link QuickBaseAPICall#API_ImportFromCSV}) of at least 1 KB are sent gzip encoded. This
+     * is disabled by default and should only be enabled if the QuickBase server accepts
+     * compressed requests.
+     * 
+     * @param requestCompression <code>true</code> to compress request bodies
+     */
+    public void setRequestCompression(boolean requestCompression) 
+    {
+        this.requestCompression = requestCompression;
+    }
+
+    /**
+     * Returns the number of request body bytes that were sent over the network.
+     */
+    public long getWireBytesSent() 
+    {
+        return wireBytesSent.get();
+    }
+
+    /**
+     * Returns the number of request body bytes before compression.
+     */
+    public long getUncompressedBytesSent() 
+    {
+        return uncompressedBytesSent.get();
+    }
+
+    /**
+     * Returns the number of response body bytes that were received over the network.
+     */
+    public long getWireBytesReceived() 
+    {
+        return wireBytesReceived.get();
+    }
+
+    /**
+     * Returns the number of response body bytes after decompression.
+     */
+    public long getUncompressedBytesReceived() 
+    {
+        return uncompressedBytesReceived.get();
+    }
+
+    /**
+     * Returns the {@link QuickBaseBufferPool} that provides the buffers for request bodies.
+     */
+    public QuickBaseBufferPool getBufferPool() 
+    {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the number of requests that were not sent to QuickBase because an identical
+     * concurrent request was already in flight.
+     * 
+     * @return the number of coalesced requests
+     */
+    public long getCoalescedRequests() 
+    {
+        return singleFlight.getCoalescedRequests();
+    }
+
+    /**
+     * Returns the {@link ExecutorService} that is used for running parallel requests (for example,
+     * the chunks of bulk operations). The executor uses daemon threads and is created on demand.
+     */
+    synchronized ExecutorService getExecutor() 
+    {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "QuickBase-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the default timeouts of all requests. A {@link QuickBaseCallContext} may restrict the
+     * socket timeout of individual calls further. By default, no timeouts are used. If the
+     * connection shares its connection pool with other connections (see
+     * {@link QuickBaseConnectionRegistry}), the timeouts apply to all of them.
+     * 
+     * @param connectTimeoutMillis the maximum time (in milliseconds) for establishing a connection
+     * or obtaining a pooled connection, or <code>0</code> for no timeout
+     * @param socketTimeoutMillis the maximum time (in milliseconds) that a request may wait for
+     * data from QuickBase, or <code>0</code> for no timeout
+     */
+    public void setTimeouts(int connectTimeoutMillis, int socketTimeoutMillis) 
+    {
+        HttpConnectionManagerParams params = httpClient.getHttpConnectionManager().getParams();
+        params.setConnectionTimeout(connectTimeoutMillis);
+        params.setSoTimeout(socketTimeoutMillis);
+        httpClient.getParams().setConnectionManagerTimeout(connectTimeoutMillis);
+    }
+
+    /**
+     * Creates an {@link HttpClient} with a pool of keep-alive connections.
+     * 
+     * @param maxConnectionsPerHost the maximum number of pooled connections per host
+     * @param maxTotalConnections the maximum number of pooled connections
+     * @return the new {@link HttpClient}
+     */
+    static HttpClient createHttpClient(int maxConnectionsPerHost, int maxTotalConnections) 
+    {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        connectionManager.getParams().setMaxTotalConnections(maxTotalConnections);
+        return new HttpClient(connectionManager);
+    }
+
+    /**
+     * Returns the realm (domain) of this connection.
+     */
+    String getRealm() 
+    {
+        return realm;
+    }
+
+    /**
+     * Stops the threads of this connection: the thread that aborts requests whose deadline has
+     * passed and the threads that run parallel requests. Requests that are in progress complete
+     * normally. The connection is not signed out (see {@link #logOff()}); if it is used again,
+     * the threads are started again on demand.
+     */
+    void close() 
+    {
+        ExecutorService executor;
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            executor = this.executor;
+            scheduler = this.scheduler;
+            this.executor = null;
+            this.scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Checks whether this connection was created with certain credentials (the credentials of
+     * additional users are not considered).
+     * 
+     * @param credentials the credentials
+     * @return <code>true</code> if the user name and the password match the primary credentials
+     */
+    boolean hasCredentials(PasswordAuthentication credentials) 
+    {
+        PasswordAuthentication own = primary.getCredentials();
+        return own.getUserName().equals(credentials.getUserName()) && Arrays.equals(own.getPassword(), credentials.getPassword());
+    }
+
+    // ------------------------------------- PRIVATE SECTION BELOW
+
+    private Map<String, QuickBaseSchema> warmUp(List<String> appNames, List<String> knownDbids) throws QuickBaseException 
+    {
+        List<Callable<Void>> logins = new ArrayList<Callable<Void>>();
+        for (final QuickBaseSession session : sessions) {
+            logins.add(new Callable<Void>() {
+                @Override
+                public Void call() throws QuickBaseException {
+                    obtainTicket(session);
+                    return null;
+                }
+            });
+        }
+        QuickBaseTasks.invokeAll(getExecutor(), logins, MAX_CONNECTIONS);
+
+        List<Callable<List<String>>> lookups = new ArrayList<Callable<List<String>>>();
+        for (final String appName : appNames) {
+            lookups.add(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws QuickBaseException {
+                    List<String> dbids = new ArrayList<String>();
+                    for (QuickBaseDatabase database : findDBsByName(appName)) {
+                        dbids.add(database.getDBID());
+                    }
+                    return dbids;
+                }
+            });
+        }
+        Set<String> dbids = new LinkedHashSet<String>(knownDbids);
+        for (List<String> resolved : QuickBaseTasks.invokeAll(getExecutor(), lookups, MAX_CONNECTIONS)) {
+            dbids.addAll(resolved);
+        }
+
+        List<Callable<QuickBaseSchema>> schemas = new ArrayList<Callable<QuickBaseSchema>>();
+        for (final String dbid : dbids) {
+            schemas.add(new Callable<QuickBaseSchema>() {
+                @Override
+                public QuickBaseSchema call() throws QuickBaseException {
+                    return new QuickBaseDatabase(QuickBaseConnection.this, dbid).getSchema();
+                }
+            });
+        }
+        Map<String, QuickBaseSchema> result = new LinkedHashMap<String, QuickBaseSchema>();
+        Iterator<String> dbid = dbids.iterator();
+        for (QuickBaseSchema schema : QuickBaseTasks.invokeAll(getExecutor(), schemas, MAX_CONNECTIONS)) {
+            result.put(dbid.next(), schema);
+        }
+        log.info("Warmed up {} database(s)", result.size());
+        return result;
+    }
+
+    /**
+     * Returns the {@link ScheduledExecutorService} that aborts requests whose deadline has passed.
+     */
+    private synchronized ScheduledExecutorService getScheduler() 
+    {
+        if (scheduler == null) {
+            ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "QuickBase-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            // Requests that complete cancel their watchdogs, which would otherwise remain queued
+            // (and keep the thread alive after a shutdown) until their deadline
+            deadlines.setRemoveOnCancelPolicy(true);
+            scheduler = deadlines;
+        }
+        return scheduler;
+    }
+
+    /**
+     * Executes a request, coalescing it with identical concurrent requests if the API call is
+     * read-only.
+     * 
+     * @param qbid the database ID of the request
+     * @param call the {@link QuickBaseAPICall} that is executed
+     * @param key the key that identifies the request (see {@link #requestKey(String, QuickBaseAPICall, String...)})
+     * @param idempotent <code>true</code> if the request may safely be sent more than once
+     * @param requestBuilder the {@link RequestBuilder} for the request
+     * @return the response document
+     * @throws QuickBaseException
+     */
+    private Document execute(final String qbid, final QuickBaseAPICall call, String key, final boolean idempotent,
+            final RequestBuilder requestBuilder) throws QuickBaseException 
+    {
+        if (!requestCoalescing || !call.isReadOnly()) {
+            return executeRequest(null, qbid, call, idempotent, requestBuilder);
+        }
+        return singleFlight.execute(key, new QuickBaseSingleFlight.Request() {
+            @Override
+            public Document execute() throws QuickBaseException {
+                return executeRequest(null, qbid, call, idempotent, requestBuilder);
+            }
+        });
+    }
+
+    /**
+     * Builds the key that identifies identical requests. The ticket is not part of the key.
+     */
+    private static String requestKey(String qbid, QuickBaseAPICall call, String... parameters) 
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(qbid).append(KEY_SEPARATOR).append(call);
+        for (String parameter : parameters) {
+            key.append(KEY_SEPARATOR).append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Executes any HTTP Get request. checks for basic error codes in response
+     * document. returns the response document. If the ticket has expired, a new
+     * ticket is retrieved and the request is sent again. Transient failures are
+     * retried according to the {@link QuickBaseRetryPolicy} (if any), provided
+     * that the request is idempotent.
+     * 
+     * @param fixedSession the {@link QuickBaseSession} that must send the request, or
+     * <code>null</code> to select a session for each attempt
+     * @param qbid the database ID of the request
+     * @param call the {@link QuickBaseAPICall} that is executed
+     * @param idempotent <code>true</code> if the request may safely be sent more than once
+     * @param requestBuilder
+     * @return
+     * @throws QuickBaseException
+     */
+    private Document executeRequest(QuickBaseSession fixedSession, String qbid, QuickBaseAPICall call, boolean idempotent,
+            RequestBuilder requestBuilder) throws QuickBaseException 
+    {
+        QuickBaseCallContext context = QuickBaseCallContext.current();
+        QuickBaseRetryPolicy retryPolicy = idempotent ? this.retryPolicy : null;
+        if (retryPolicy != null) {
+            retryPolicy.startRequest();
+        }
+        // Read-only requests may be retried with another session, each of which may need a new ticket
+        Set<QuickBaseSession> renewedSessions = new HashSet<QuickBaseSession>();
+        int retry = 0;
+        
+        try {
+            while (true) {
+                if (context != null) {
+                    context.check();
+                }
+                QuickBaseSession session = fixedSession != null ? fixedSession : selectSession(call);
+                if (session.getTicket() == null && call != API_Authenticate) {
+                    obtainTicket(session);
+                }
+
+                // Get the ticket before building the request method.
+                String oldTicket = session.getTicket();
+                log.debug(">>> >>> >>> Execute request with ticket: {}", oldTicket);
+                HttpMethod request = requestBuilder.getRequestMethod(oldTicket);
+
+                Document docResponse;
+                session.begin();
+                try {
+                    docResponse = limitedSend(qbid, call, requestBuilder, oldTicket, request);
+                } catch (IOException e) {
+                    session.throttled();
+                    if (retryPolicy != null && retryPolicy.isRetryable(e) && retryPolicy.awaitRetry(retry++, remainingNanos(context))) {
+                        log.warn("Retrying {} after I/O error: {}", call, e.toString());
+                        continue;
+                    }
+                    throw e;
+                } finally {
+                    session.end();
+                }
+                QuickBaseErrorCode errorCode = parseErrorCode(docResponse);
+                
+                if (errorCode == QuickBaseErrorCode.OK) {
+                    session.succeeded();
+                    return docResponse;
+                }
+                if (errorCode.isOverload()) {
+                    session.throttled();
+                }
+                
+                log.warn("Got QuickBase error code: {}", errorCode);
+                
+                if (errorCode == QuickBaseErrorCode.INVALID_TICKET && renewedSessions.add(session)) {
+                    log.warn("Ticked might have expired. Trying to renew ticket and execute again.");
+                    
+                    synchronized (session) {
+                        if (StringUtils.equals(oldTicket, session.getTicket())) {
+                            retrieveNewTicket(session);
+                        }
+                    }
+                    
+                    // The request is rebuilt with the new ticket
+                    continue;
+                }
+
+                if (retryPolicy != null && retryPolicy.isRetryable(errorCode) && retryPolicy.awaitRetry(retry++, remainingNanos(context))) {
+                    log.warn("Retrying {} after error code {}", call, errorCode);
+                    continue;
+                }
+
+                String errorText = QuickBaseXPath.QDBAPI_ERRTEXT.evaluate(docResponse);
+                errorText += " (error code " + errorCode + ')'; //$NON-NLS-1$
+                throw new QuickBaseException(errorText);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QuickBaseException(e);
+        } catch (IOException | SAXException | XPathExpressionException | ParserConfigurationException e ) {
+            throw new QuickBaseException(e);
+        }
+    }
+
+    /**
+     * Selects the session for a request. Requests that modify data always use the primary session;
+     * read-only requests use the session with the fewest outstanding requests among the sessions
+     * that are not throttled (or among all sessions if all of them are throttled).
+     */
+    private QuickBaseSession selectSession(QuickBaseAPICall call) 
+    {
+        int count = sessions.size();
+        if (count == 1 || !call.isReadOnly()) {
+            return primary;
+        }
+        long now = System.nanoTime();
+        int start = Math.abs(nextSession.getAndIncrement() % count);
+        QuickBaseSession best = null;
+        boolean bestThrottled = true;
+        for (int offset = 0; offset < count; offset++) {
+            QuickBaseSession session = sessions.get((start + offset) % count);
+            boolean throttled = session.isThrottled(now);
+            if (best == null || (bestThrottled && !throttled)
+                    || (bestThrottled == throttled && session.getOutstanding() < best.getOutstanding())) {
+                best = session;
+                bestThrottled = throttled;
+            }
+        }
+        return best;
+    }
+
+    private static long remainingNanos(QuickBaseCallContext context) 
+    {
+        return context != null ? context.getRemainingNanos() : Long.MAX_VALUE;
+    }
+
+    private QuickBaseErrorCode parseErrorCode(Document docResponse) throws QuickBaseException 
+    {
+        try {
+            int code = Integer.parseInt(QuickBaseXPath.QDBAPI_ERRCODE.evaluate(docResponse));
+            QuickBaseErrorCode errorCode = QuickBaseErrorCode.valueOf(code);
+            if (QuickBaseErrorCode.ERROR_CODE_NOT_RECOGNIZED == errorCode) {
+                log.warn("Error code not recognized [{}]. Please update enum QuickBaseErrorCode (from https://www.quickbase.com/api-guide/whnjs.htm)", code);
+            }
+            return errorCode;
+        } catch (XPathExpressionException e) {
+            throw new QuickBaseException("Cannot retrieve error code.", e);
+        }
+    }
+
+    /**
+     * Sends a request, waiting for the {@link QuickBaseRateLimiter} and the
+     * {@link QuickBaseConcurrencyLimiter} (if any) first and reporting the request's latency and
+     * outcome to the concurrency limiter afterwards. The latency of a streamed request includes
+     * the time of its consumer and of the transfer of a large response, so it says nothing about
+     * the load of QuickBase; streamed requests only report overload.
+     */
+    private Document limitedSend(String qbid, QuickBaseAPICall call, RequestBuilder requestBuilder, String ticket, HttpMethod request)
+    throws IOException, SAXException, ParserConfigurationException, QuickBaseException 
+    {
+        QuickBaseRateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null) {
+            QuickBaseCallContext context = QuickBaseCallContext.current();
+            try {
+                rateLimiter.acquire(realm, qbid, QuickBasePriority.current(), context);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QuickBaseException(e);
+            }
+            if (context != null) {
+                context.check();
+            }
+        }
+        QuickBaseConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter == null) {
+            return send(qbid, call, requestBuilder, ticket, request);
+        }
+        limiter.acquire();
+        long start = System.nanoTime();
+        boolean streamed = requestBuilder instanceof StreamingRequestBuilder;
+        Boolean overload = null; // null if the outcome says nothing about the load of QuickBase
+        try {
+            Document docResponse = send(qbid, call, requestBuilder, ticket, request);
+            overload = parseErrorCode(docResponse).isOverload();
+            return docResponse;
+        } catch (IOException e) {
+            // Timeouts and refused or reset connections; requests that were aborted because of a
+            // deadline or a cancellation fail with a QuickBaseException instead
+            overload = true;
+            throw e;
+        } finally {
+            if (overload != null && (overload || !streamed)) {
+                limiter.release(call, System.nanoTime() - start, overload);
+            } else {
+                limiter.abandon();
+            }
+        }
+    }
+
+    /**
+     * Sends a request and parses the response. If a {@link QuickBaseHedgingPolicy} is set and the
+     * call is read-only, a duplicate request is sent when no response has arrived after the
+     * policy's delay; the first response wins and the other request is aborted. A hedge needs its
+     * own token from the {@link QuickBaseRateLimiter} and its own slot in the
+     * {@link QuickBaseConcurrencyLimiter}; if either is not available right away, no hedge is sent.
+     */
+    private Document send(String qbid, final QuickBaseAPICall call, RequestBuilder requestBuilder, String ticket, HttpMethod request)
+    throws IOException, SAXException, ParserConfigurationException, QuickBaseException 
+    {
+        QuickBaseCallContext context = QuickBaseCallContext.current();
+        if (requestBuilder instanceof StreamingRequestBuilder) {
+            return send(context, request, ((StreamingRequestBuilder) requestBuilder).getResponseReader());
+        }
+        QuickBaseHedgingPolicy policy = hedgingPolicy;
+        long delay = policy != null && call.isReadOnly() ? policy.startRequest(call) : -1;
+        if (delay < 0) {
+            long start = System.nanoTime();
+            Document response = send(context, request);
+            if (policy != null && call.isReadOnly()) {
+                policy.recordLatency(call, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            return response;
+        }
+
+        CompletionService<Document> completion = new ExecutorCompletionService<Document>(getExecutor());
+        List<HttpMethod> requests = new ArrayList<HttpMethod>(2);
+        List<Future<Document>> futures = new ArrayList<Future<Document>>(2);
+        Future<Document> winner = null;
+        long start = System.nanoTime();
+        requests.add(request);
+        futures.add(completion.submit(sender(context, request)));
+        try {
+            Future<Document> first = completion.poll(delay, TimeUnit.MILLISECONDS);
+            QuickBaseConcurrencyLimiter limiter = concurrencyLimiter;
+            if (first == null && acquireHedge(qbid, policy, limiter)) {
+                log.debug("No response for {} after {} ms, sending hedged request", call, delay);
+                HttpMethod hedge;
+                try {
+                    hedge = requestBuilder.getRequestMethod(ticket);
+                } catch (QuickBaseException | RuntimeException e) {
+                    releaseHedge(limiter);
+                    throw e;
+                }
+                requests.add(hedge);
+                futures.add(completion.submit(hedgeSender(context, hedge, limiter)));
+            }
+            ExecutionException failure = null;
+            for (int remaining = futures.size(); remaining > 0; remaining--) {
+                Future<Document> done = first != null ? first : completion.take();
+                first = null;
+                try {
+                    Document response = done.get();
+                    winner = done;
+                    return response;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            throw rethrow(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QuickBaseException(e);
+        } finally {
+            Future<Document> original = futures.get(0);
+            if (winner != null && (winner == original || !original.isDone())) {
+                // If the hedge won, the original request is still running and the time so far is
+                // a lower bound of its latency; leaving it out would hide the slow requests and
+                // make hedging more and more aggressive
+                policy.recordLatency(call, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            if (winner != null && winner != original) {
+                policy.recordHedgeWin();
+            }
+            for (int index = 0; index < futures.size(); index++) {
+                if (!futures.get(index).isDone()) {
+                    requests.get(index).abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a hedge from the budget of the {@link QuickBaseHedgingPolicy}, a token from the
+     * {@link QuickBaseRateLimiter}, and a slot from the {@link QuickBaseConcurrencyLimiter}.
+     * 
+     * @return <code>true</code> if a hedge may be sent, <code>false</code> otherwise
+     */
+    private boolean acquireHedge(String qbid, QuickBaseHedgingPolicy policy, QuickBaseConcurrencyLimiter limiter) 
+    {
+        if (!policy.acquireHedge()) {
+            return false;
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            policy.cancelHedge();
+            return false;
+        }
+        QuickBaseRateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter != null && rateLimiter.tryAcquire(realm, qbid, QuickBasePriority.current()) > 0) {
+            policy.cancelHedge();
+            releaseHedge(limiter);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the concurrency slot of a hedge. The outcome of a hedge is not reported to the
+     * {@link QuickBaseConcurrencyLimiter}, as most hedges that do not win are aborted.
+     */
+    private static void releaseHedge(QuickBaseConcurrencyLimiter limiter) 
+    {
+        if (limiter != null) {
+            limiter.abandon();
+        }
+    }
+
+    private Callable<Document> sender(final QuickBaseCallContext context, final HttpMethod request) 
+    {
+        return new Callable<Document>() {
+            @Override
+            public Document call() throws Exception {
+                return send(context, request);
+            }
+        };
+    }
+
+    private Callable<Document> hedgeSender(final QuickBaseCallContext context, final HttpMethod hedge,
+            final QuickBaseConcurrencyLimiter limiter) 
+    {
+        return new Callable<Document>() {
+            @Override
+            public Document call() throws Exception {
+                try {
+                    return send(context, hedge);
+                } finally {
+                    releaseHedge(limiter);
+                }
+            }
+        };
+    }
+
+    private static QuickBaseException rethrow(ExecutionException failure)
+    throws IOException, SAXException, ParserConfigurationException 
+    {
+        Throwable cause = failure.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        if (cause instanceof SAXException) {
+            throw (SAXException) cause;
+        }
+        if (cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof QuickBaseException) {
+            return (QuickBaseException) cause;
+        }
+        return new QuickBaseException(failure);
+    }
+
+    /**
+     * Sends a request and parses the response. The connection is always released back to the
+     * connection pool. If the request belongs to a {@link QuickBaseCallContext}, the request is
+     * aborted when the context is cancelled or its deadline passes.
+     */
+    private Document send(QuickBaseCallContext context, HttpMethod request)
+    throws IOException, SAXException, ParserConfigurationException, QuickBaseException 
+    {
+        return send(context, request, new ResponseReader<Document>() {
+            @Override
+            public Document read(HttpMethod method) throws IOException, SAXException, ParserConfigurationException {
+                return getResponse(method);
+            }
+        });
+    }
+
+    /**
+     * Sends a request and reads the response with a {@link ResponseReader}.
+     * 
+     * @see #send(QuickBaseCallContext, HttpMethod)
+     */
+    private <$ResultType> $ResultType send(QuickBaseCallContext context, HttpMethod request, ResponseReader<$ResultType> reader)
+    throws IOException, SAXException, ParserConfigurationException, QuickBaseException 
+    {
+        if (responseCompression) {
+            request.setRequestHeader(ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+        }
+        if (context == null) {
+            try {
+                httpClient.executeMethod(null, request, httpState);
+                return reader.read(request);
+            } finally {
+                request.releaseConnection();
+                releaseBody(request);
+            }
+        }
+        context.begin(request);
+        ScheduledFuture<?> watchdog = getScheduler().schedule(abort(request), context.getRemainingNanos(), TimeUnit.NANOSECONDS);
+        try {
+            httpClient.executeMethod(null, request, httpState);
+            return reader.read(request);
+        } catch (IOException e) {
+            // Report an aborted request as such rather than as an I/O error that might be retried
+            context.check();
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+            context.end(request);
+            request.releaseConnection();
+            releaseBody(request);
+        }
+    }
+
+    private static Runnable abort(final HttpMethod request) 
+    {
+        return new Runnable() {
+            @Override
+            public void run() {
+                request.abort();
+            }
+        };
+    }
+
+    /**
+     * Parses the response, decompressing it on the fly if it was compressed. The response is
+     * never inflated into a buffer as a whole.
+     */
+    private Document getResponse(HttpMethod method) throws IOException, SAXException, ParserConfigurationException 
+    {
+        // String response = method.getResponseBodyAsString();
+        InputStream body = openResponse(method);
+        try {
+            DocumentBuilder documentBuilder = DOCUMENT_BUILDER.get();
+            documentBuilder.reset();
+            return documentBuilder.parse(new InputSource(body));
+        } finally {
+            // Releases the native memory of the decompressor right away
+            body.close();
+        }
+    }
+
+    /**
+     * Creates a {@link ResponseReader} that passes a successful response to a
+     * {@link ResponseStream}. The reader returns a minimal response document that only contains
+     * the error code, so that streamed responses pass through the same error handling as regular
+     * responses.
+     */
+    private ResponseReader<Document> streamReader(final ResponseStream stream) 
+    {
+        return new ResponseReader<Document>() {
+            @Override
+            public Document read(HttpMethod method) throws IOException, SAXException, ParserConfigurationException, QuickBaseException {
+                Header contentType = method.getResponseHeader(CONTENT_TYPE);
+                if (method.getStatusCode() != HttpStatus.SC_OK || contentType == null || contentType.getValue().contains(XML)) {
+                    return getResponse(method);
+                }
+                String charset = UTF_8;
+                HeaderElement[] values = contentType.getElements();
+                if (values.length > 0 && values[0].getParameterByName(CHARSET) != null) {
+                    charset = values[0].getParameterByName(CHARSET).getValue();
+                }
+                InputStream body = openResponse(method);
+                try {
+                    stream.read(body, Charset.forName(charset));
+                } catch (IOException e) {
+                    throw streamFailed(e);
+                } finally {
+                    body.close();
+                }
+                return statusDocument(String.valueOf(QuickBaseErrorCode.OK.getCode()), null);
+            }
+        };
+    }
+
+    /**
+     * Creates a {@link ResponseReader} that parses an XML response with SAX and passes the parser
+     * events to a {@link ContentHandler}. The reader returns a minimal response document that
+     * only contains the error code and error text of the response.
+     */
+    private ResponseReader<Document> saxReader(final ContentHandler handler) 
+    {
+        return new ResponseReader<Document>() {
+            @Override
+            public Document read(HttpMethod method) throws IOException, SAXException, ParserConfigurationException, QuickBaseException {
+                if (method.getStatusCode() != HttpStatus.SC_OK) {
+                    return getResponse(method);
+                }
+                StatusFilter filter = new StatusFilter(handler);
+                InputStream body = openResponse(method);
+                try {
+                    SAXParser parser = SAX_PARSER.get();
+                    parser.reset();
+                    parser.parse(new InputSource(body), filter);
+                } catch (IOException e) {
+                    throw streamFailed(e);
+                } finally {
+                    body.close();
+                }
+                return statusDocument(filter.errorCode.toString().trim(), filter.errorText.toString().trim());
+            }
+        };
+    }
+
+    /**
+     * Converts a failure that occurred while a streamed response was processed. Part of the
+     * response may already have been processed, so the request must not be retried.
+     */
+    private static QuickBaseException streamFailed(IOException exception) throws QuickBaseException 
+    {
+        QuickBaseCallContext context = QuickBaseCallContext.current();
+        if (context != null) {
+            context.check();
+        }
+        return new QuickBaseException("Cannot read streamed response.", exception);
+    }
+
+    private static Document statusDocument(String errorCode, String errorText) 
+    {
+        Document document = DOCUMENT_BUILDER.get().newDocument();
+        Element qdbapi = document.createElement(QDBAPI);
+        Element errcode = document.createElement(ERRCODE);
+        errcode.setTextContent(errorCode);
+        qdbapi.appendChild(errcode);
+        if (errorText != null) {
+            Element errtext = document.createElement(ERRTEXT);
+            errtext.setTextContent(errorText);
+            qdbapi.appendChild(errtext);
+        }
+        document.appendChild(qdbapi);
+        return document;
+    }
+
+    /**
+     * Opens the body of a response, decompressing it on the fly if necessary. The decompressor
+     * borrows its input buffer from the {@link QuickBaseBufferPool} and its {@link java.util.zip.Inflater}
+     * from a pool, so that reading a response allocates (almost) nothing in a steady state.
+     */
+    private InputStream openResponse(HttpMethod method) throws IOException 
+    {
+        InputStream body = method.getResponseBodyAsStream();
+        if (body == null) {
+            throw new IOException("Empty response for " + method.getPath());
+        }
+        Header contentEncoding = method.getResponseHeader(CONTENT_ENCODING);
+        String encoding = contentEncoding != null ? contentEncoding.getValue().trim() : null;
+        if (GZIP.equalsIgnoreCase(encoding) || X_GZIP.equalsIgnoreCase(encoding)) {
+            return new QuickBaseInflaterInputStream(body, QuickBaseInflaterInputStream.Format.GZIP, bufferPool,
+                    wireBytesReceived, uncompressedBytesReceived);
+        }
+        if (DEFLATE.equalsIgnoreCase(encoding)) {
+            return new QuickBaseInflaterInputStream(body, QuickBaseInflaterInputStream.Format.DEFLATE, bufferPool,
+                    wireBytesReceived, uncompressedBytesReceived);
+        }
+        return new QuickBaseCountingInputStream(body, wireBytesReceived, uncompressedBytesReceived);
+    }
+
+    private QuickBasePooledOutputStream gzip(QuickBasePooledOutputStream body) throws QuickBaseException 
+    {
+        QuickBasePooledOutputStream compressed = new QuickBasePooledOutputStream(bufferPool);
+        try (GZIPOutputStream output = new GZIPOutputStream(compressed, INFLATE_BUFFER)) {
+            body.writeTo(output);
+        } catch (IOException e) {
+            compressed.release();
+            throw new QuickBaseException("Cannot compress request", e);
+        } finally {
+            body.release();
+        }
+        return compressed;
+    }
+
+    /**
+     * Returns the pooled buffers of a request body (if any) to the buffer pool.
+     */
+    private static void releaseBody(HttpMethod request) 
+    {
+        if (request instanceof EntityEnclosingMethod) {
+            RequestEntity entity = ((EntityEnclosingMethod) request).getRequestEntity();
+            if (entity instanceof QuickBasePooledRequestEntity) {
+                ((QuickBasePooledRequestEntity) entity).release();
+            }
+        }
+    }
+
+    /**
+     * Makes sure that the connection has a ticket, preferably by reusing a ticket from the
+     * {@link QuickBaseTicketStore}. A problem with the store is logged and results in a new
+     * authentication.
+     */
+    private void obtainTicket(QuickBaseSession session) throws QuickBaseException 
+    {
+        synchronized (session) {
+            if (session.getTicket() != null) {
+                return;
+            }
+            if (ticketStore != null) {
+                try {
+                    session.setTicket(ticketStore.load(realm, session.getUserName()));
+                } catch (QuickBaseException e) {
+                    log.warn("Could not load ticket from ticket store", e);
+                }
+                if (session.getTicket() != null) {
+                    log.debug("Reusing stored ticket for {}", session.getUserName());
+                    return;
+                }
+            }
+            retrieveNewTicket(session);
+        }
+    }
+
+    // A session is having a valid ticket from QuickBase
+    private void retrieveNewTicket(final QuickBaseSession session) throws QuickBaseException 
+    {
+        Document docResponse;
+        try {
+            docResponse = executeRequest(session, MAIN, API_Authenticate, true, new RequestBuilder() {
+                @Override
+                public HttpMethod getRequestMethod(String ticket) {
+                    PasswordAuthentication credentials = session.getCredentials();
+                    HttpMethod method = authenticate(credentials.getUserName(), credentials.getPassword());
+                    return method;
+                }
+            });
+        } catch (QuickBaseException e) {
+            throw new QuickBaseException("Authentication failed.", e);
+        }
+
+        String ticket = null;
+        try {
+            ticket = QuickBaseXPath.QDBAPI_TICKET.evaluate(docResponse);
+        } catch (XPathExpressionException e) {
+            throw new QuickBaseException("Could not retrieve ticket.", e);
+        }
+        
+        if (StringUtils.stripToNull(ticket) == null) {
+            throw new QuickBaseException("Authentication failed. No ticket found in response.");
+        }
+
+        session.setTicket(ticket);
+
+        if (ticketStore != null) {
+            long expiresAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(authHours) - TICKET_EXPIRY_MARGIN;
+            try {
+                ticketStore.store(realm, session.getUserName(), ticket, expiresAt);
+            } catch (QuickBaseException e) {
+                log.warn("Could not save ticket to ticket store", e);
+            }
+        }
+    }
+
+    private HttpMethod method(QuickBaseAPICall call, NameValuePair... parameters) 
+    {
+        HttpMethod method = new GetMethod(qbMainUrl);
+        NameValuePair[] query = new NameValuePair[parameters.length + 1];
+        System.arraycopy(parameters, 0, query, 1, parameters.length);
+        query[FIRST] = act(call);
+        method.setQueryString(query);
+        return method;
+    }
+
+    private HttpMethod authenticate(String username, char[] password) 
+    {
+        GetMethod authenticate = new GetMethod(qbMainUrl);
+        return authHours != null ? 
+                query(authenticate, act(API_Authenticate), username(username), password(password), hours(authHours)) : 
+                query(authenticate, act(API_Authenticate), username(username), password(password)); // default QuickBase
+    }
+
+    /**
+     * Signs out a session with its own ticket and removes the ticket from the session. The ticket
+     * is sent explicitly rather than relying on the ticket cookie, which might belong to another
+     * session.
+     * 
+     * @return the response document, or <code>null</code> if the session has no ticket
+     */
+    private Document signOut(QuickBaseSession session) throws QuickBaseException 
+    {
+        final String ticket = session.getTicket();
+        if (ticket == null) {
+            return null;
+        }
+        try {
+            RequestBuilder requestBuilder = new RequestBuilder() {
+                @Override
+                public HttpMethod getRequestMethod(String unused) {
+                    return signOut(ticket);
+                }
+            };
+            Document docResponse = limitedSend(MAIN, API_SignOut, requestBuilder, ticket, signOut(ticket));
+            QuickBaseErrorCode errorCode = parseErrorCode(docResponse);
+            if (errorCode != QuickBaseErrorCode.OK && errorCode != QuickBaseErrorCode.INVALID_TICKET) {
+                throw new QuickBaseException(QuickBaseXPath.QDBAPI_ERRTEXT.evaluate(docResponse) + " (error code " + errorCode + ')');
+            }
+            return docResponse;
+        } catch (IOException | SAXException | XPathExpressionException | ParserConfigurationException | QuickBaseException e) {
+            throw new QuickBaseException("Log off failed.", e);
+        } finally {
+            synchronized (session) {
+                if (ticket.equals(session.getTicket())) {
+                    session.setTicket(null);
+                }
+            }
+        }
+    }
+
+    private HttpMethod signOut(String ticket) 
+    {
+        GetMethod signOut = new GetMethod(qbMainUrl);
+        return query(signOut, act(API_SignOut), ticket(ticket));
+    }
+
+    private HttpMethod query(HttpMethod method, NameValuePair... parameters) 
+    {
+        method.setQueryString(parameters);
+        return method;
+    }
+
+    private NameValuePair act(QuickBaseAPICall action) {
+        return new NameValuePair(ACT, action.toString());
     }
 
     private NameValuePair ticket(String ticket) {
@@ -473,6 +1885,127 @@ public class QuickBaseConnection
         return new NameValuePair(DBNAME, dbname);
     }
 
+    /**
+     * Reads the response of a request while the connection is still open, so that the response
+     * can be processed without being held in memory as a whole.
+     */
+    private interface ResponseReader<$ResultType> {
+        /**
+         * Reads the response of an executed request.
+         * 
+         * @param method the executed {@link HttpMethod}
+         * @return the result
+         */
+        public $ResultType read(HttpMethod method) throws IOException, SAXException, ParserConfigurationException, QuickBaseException;
+    }
+
+    /**
+     * Builds the requests of {@link QuickBaseConnection#executeXml(String, QuickBaseAPICall, String...)}.
+     */
+    private class XmlRequestBuilder implements RequestBuilder {
+        private final String qbid;
+        private final QuickBaseAPICall call;
+        private final String[] elements;
+
+        XmlRequestBuilder(String qbid, QuickBaseAPICall call, String[] elements) {
+            this.qbid = qbid;
+            this.call = call;
+            this.elements = elements;
+        }
+
+        @Override
+        public HttpMethod getRequestMethod(String ticket) throws QuickBaseException {
+            if (log.isDebugEnabled()) {
+                log.debug("executeXml payload: {}", Arrays.toString(elements));
+            }
+
+            // The payload is encoded directly into pooled buffers, which are returned to the
+            // pool after the request was sent
+            CharsetEncoder encoder = ENCODER.get();
+            QuickBasePooledOutputStream body = new QuickBasePooledOutputStream(bufferPool);
+            body.write("<qdbapi>\n<ticket>", encoder);
+            body.write(ticket, encoder);
+            body.write("</ticket>\n", encoder);
+            for (String element : elements) {
+                body.write(element, encoder);
+                body.write("\n", encoder);
+            }
+            body.write("</qdbapi>\n", encoder);
+            
+            PostMethod method = new PostMethod(qbUrl + qbid);
+            uncompressedBytesSent.addAndGet(body.size());
+            if (requestCompression && body.size() >= MIN_COMPRESSED_REQUEST) {
+                body = gzip(body);
+                method.addRequestHeader(CONTENT_ENCODING, GZIP);
+            }
+            wireBytesSent.addAndGet(body.size());
+            method.setRequestEntity(new QuickBasePooledRequestEntity(body, XML_CONTENT_TYPE));
+            method.addRequestHeader(QB_ACTION_HEADER, call.toString());
+            return method;
+        }
+    }
+
+    /**
+     * Passes SAX events to another {@link ContentHandler} and records the error code and error
+     * text of the response on the way. The <code>endDocument</code> event is not passed on.
+     */
+    private static class StatusFilter extends DefaultHandler {
+        private final ContentHandler handler;
+        private final StringBuilder errorCode = new StringBuilder();
+        private final StringBuilder errorText = new StringBuilder();
+        private StringBuilder current;
+        private int depth;
+
+        StatusFilter(ContentHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+            depth++;
+            if (depth == 2 && ERRCODE.equals(name)) {
+                current = errorCode;
+            } else if (depth == 2 && ERRTEXT.equals(name)) {
+                current = errorText;
+            }
+            handler.startElement(uri, localName, name, attributes);
+        }
+
+        @Override
+        public void characters(char[] characters, int start, int length) throws SAXException {
+            if (current != null) {
+                current.append(characters, start, length);
+            }
+            handler.characters(characters, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String name) throws SAXException {
+            current = null;
+            depth--;
+            handler.endElement(uri, localName, name);
+        }
+    }
+
+    interface ResponseStream {
+        /**
+         * Processes the body of a successful response while it is received.
+         * 
+         * @param body the (decompressed) response body
+         * @param charset the {@link Charset} of the response
+         * @throws IOException if the response could not be read
+         * @throws QuickBaseException if the response could not be processed
+         */
+        public void read(InputStream body, Charset charset) throws IOException, QuickBaseException;
+    }
+
+    private interface StreamingRequestBuilder extends RequestBuilder {
+        /**
+         * Returns the {@link ResponseReader} that processes the response while it is received.
+         */
+        public ResponseReader<Document> getResponseReader();
+    }
+
     /**
      * Helper method which delegates the actual construction of the request method so
      * that it can be re constructed with new ticket when authentication fails due to
@@ -483,12 +2016,13 @@ public class QuickBaseConnection
      */
     interface RequestBuilder {
         /**
-         * Builds a new request method using the current authenticated ticket.
+         * Builds a new request method using the given authenticated ticket.
          * 
-         * @return A HTTP request method build with the current authenticated ticket.
+         * @param ticket the ticket of the session that sends the request
+         * @return A HTTP request method build with the given authenticated ticket.
          * @throws QuickBaseException In case the request cannot be build for some reason.
          */
-        public HttpMethod getRequestMethod() throws QuickBaseException;
+        public HttpMethod getRequestMethod(String ticket) throws QuickBaseException;
     }
     
 }
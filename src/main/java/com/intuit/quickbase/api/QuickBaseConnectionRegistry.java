@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseConnectionRegistry.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.Closeable;
+import java.net.PasswordAuthentication;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class {@link QuickBaseConnectionRegistry} manages the {@link QuickBaseConnection}s of a
+ * multi-tenant application that accesses QuickBase on behalf of many realm/user combinations.
+ * All connections of a registry share a single pool of keep-alive HTTP connections, while each
+ * connection keeps its own ticket. Connections are looked up by realm and user name; a new
+ * connection is created (and authenticates on its first request) if none exists yet. A connection
+ * is only handed out for the credentials it was created with: if the password differs (for
+ * example, because it was changed), the existing connection is signed out and replaced by a new
+ * one, and a stored ticket of the user is discarded, so that the new connection has to
+ * authenticate with the new password.
+ * <p/>
+ * The registry keeps at most a given number of connections. When that number is exceeded, the
+ * least recently used connection is removed from the registry, signed out, and closed (which
+ * stops its threads). Closing the registry signs out and closes all connections and shuts down
+ * the shared connection pool.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseConnectionRegistry implements Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(QuickBaseConnectionRegistry.class);
+
+    private final static char KEY_SEPARATOR = ' ';
+
+    private final String httpProtocol;
+    private final int authHours;
+    private final QuickBaseTicketStore ticketStore;
+    private final HttpClient httpClient;
+    private final Map<String, QuickBaseConnection> connections;
+    private final List<QuickBaseConnection> evicted = new ArrayList<QuickBaseConnection>();
+    private boolean closed;
+
+    /**
+     * Creates a new {@link QuickBaseConnectionRegistry}.
+     *
+     * @param httpProtocol the HTTP protocol to use (http or https)
+     * @param authHours the number of hours for which tickets are valid
+     * @param maxSessions the maximum number of connections that are kept
+     * @param maxConnections the maximum number of pooled HTTP connections (per host and in total)
+     * @param ticketStore a {@link QuickBaseTicketStore} that is shared by all connections, or
+     * <code>null</code>
+     */
+    public QuickBaseConnectionRegistry(String httpProtocol, int authHours, final int maxSessions, int maxConnections,
+    QuickBaseTicketStore ticketStore)
+    {
+        if (authHours <= 0 || maxSessions < 1 || maxConnections < 1)
+        {
+            throw new IllegalArgumentException("Invalid registry parameters"); //$NON-NLS-1$
+        }
+        this.httpProtocol = httpProtocol;
+        this.authHours = authHours;
+        this.ticketStore = ticketStore;
+        this.httpClient = QuickBaseConnection.createHttpClient(maxConnections, maxConnections);
+        this.connections = new LinkedHashMap<String, QuickBaseConnection>(16, 0.75F, true)
+        {
+            private static final long serialVersionUID = 4185730618240263452L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, QuickBaseConnection> eldest)
+            {
+                if (size() > maxSessions)
+                {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the connection for a realm and user, creating it if necessary. A new connection does
+     * not authenticate until it sends its first request. An existing connection that was created
+     * with a different password is replaced.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param credentials the credentials of the user
+     * @return the {@link QuickBaseConnection}
+     * @throws QuickBaseException if the connection could not be created, or if the stored ticket
+     * of a replaced connection could not be removed
+     */
+    public QuickBaseConnection getConnection(String realm, PasswordAuthentication credentials) throws QuickBaseException
+    {
+        QuickBaseConnection connection;
+        QuickBaseConnection replaced = null;
+        List<QuickBaseConnection> signOut;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("Registry was closed"); //$NON-NLS-1$
+            }
+            String key = key(realm, credentials.getUserName());
+            connection = connections.get(key);
+            if (connection != null && !connection.hasCredentials(credentials))
+            {
+                replaced = connections.remove(key);
+                connection = null;
+            }
+            if (connection == null)
+            {
+                connection = new QuickBaseConnection(credentials, realm, httpProtocol, authHours, ticketStore, httpClient);
+                connections.put(key, connection);
+            }
+            signOut = drainEvicted();
+        }
+        if (replaced != null)
+        {
+            log.info("Credentials for " + credentials.getUserName() + " in " + realm + " changed, replacing connection"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            signOut.add(replaced);
+        }
+        signOut(signOut);
+        if (replaced != null && ticketStore != null)
+        {
+            // The stored ticket was obtained with the old credentials; the new connection must not
+            // be used if it could pick up that ticket:
+            //
+            try
+            {
+                ticketStore.remove(realm, credentials.getUserName());
+            }
+            catch (QuickBaseException exception)
+            {
+                synchronized (this)
+                {
+                    String key = key(realm, credentials.getUserName());
+                    if (connections.get(key) == connection)
+                    {
+                        connections.remove(key);
+                    }
+                }
+                throw exception;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Looks up an existing connection for a realm and user.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param user the user name
+     * @return the {@link QuickBaseConnection}, or <code>null</code> if the registry does not
+     * contain a connection for the realm and user
+     */
+    public synchronized QuickBaseConnection findConnection(String realm, String user)
+    {
+        return connections.get(key(realm, user));
+    }
+
+    /**
+     * Removes the connection for a realm and user from the registry, signs it out, and closes it.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param user the user name
+     * @return <code>true</code> if a connection was removed
+     */
+    public boolean removeConnection(String realm, String user)
+    {
+        QuickBaseConnection connection;
+        synchronized (this)
+        {
+            connection = connections.remove(key(realm, user));
+        }
+        if (connection != null)
+        {
+            List<QuickBaseConnection> signOut = new ArrayList<QuickBaseConnection>(1);
+            signOut.add(connection);
+            signOut(signOut);
+        }
+        return connection != null;
+    }
+
+    /**
+     * Gets the number of connections in the registry.
+     *
+     * @return the number of connections
+     */
+    public synchronized int size()
+    {
+        return connections.size();
+    }
+
+    /**
+     * Signs out and closes all connections and shuts down the shared connection pool.
+     */
+    public void close()
+    {
+        List<QuickBaseConnection> signOut;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            signOut = new ArrayList<QuickBaseConnection>(connections.values());
+            connections.clear();
+        }
+        signOut(signOut);
+        ((MultiThreadedHttpConnectionManager)httpClient.getHttpConnectionManager()).shutdown();
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static String key(String realm, String user)
+    {
+        return realm + KEY_SEPARATOR + user;
+    }
+
+    private List<QuickBaseConnection> drainEvicted()
+    {
+        List<QuickBaseConnection> drained = new ArrayList<QuickBaseConnection>(evicted);
+        evicted.clear();
+        return drained;
+    }
+
+    /**
+     * Signs out connections (outside of the registry's lock, as signing out requires a request)
+     * and stops their threads. Connections that never authenticated are not signed out.
+     */
+    private static void signOut(List<QuickBaseConnection> signOut)
+    {
+        for (QuickBaseConnection connection: signOut)
+        {
+            try
+            {
+                if (connection.getTicket() != null)
+                {
+                    connection.logOff();
+                }
+            }
+            catch (QuickBaseException exception)
+            {
+                log.warn("Could not sign out connection for " + connection.getRealm(), exception); //$NON-NLS-1$
+            }
+            finally
+            {
+                connection.close();
+            }
+        }
+    }
+}
@@ -33,11 +33,18 @@ class QuickBaseContentHandler extends DefaultHandler
     private final static String RECORD = "record"; //$NON-NLS-1$
     private final static String ID = "id"; //$NON-NLS-1$
     private final static String F = "f"; //$NON-NLS-1$
+    private final static String RID = "rid"; //$NON-NLS-1$
+    private final static String UPDATE_ID = "update_id"; //$NON-NLS-1$
+    private final static String OK = "0"; //$NON-NLS-1$
 
     private QuickBaseResultHandler resultHandler;
     private QuickBaseRecord currentRecord;
     private StringBuffer currentField;
+    private StringBuffer currentUpdateID;
     private StringBuffer error;
+    private StringBuffer errorCode;
+    private String failedErrorCode;
+    private boolean inError;
     private int currentFieldID;
 
     QuickBaseContentHandler(QuickBaseResultHandler resultHandler)
@@ -63,15 +70,33 @@ class QuickBaseContentHandler extends DefaultHandler
         if (RECORD.equals(name))
         {
             currentRecord = new QuickBaseRecord();
+            String rid = attributes.getValue(RID);
+            if (rid != null)
+            {
+                currentRecord.setRecordID(Integer.parseInt(rid));
+            }
+            currentRecord.setUpdateID(attributes.getValue(UPDATE_ID));
         }
         else if (F.equals(name))
         {
             currentField = new StringBuffer();
             currentFieldID = Integer.parseInt(attributes.getValue(ID));
         }
-        else if (ERRCODE.equals(name) || ERRTEXT.equals(name) || ERRDETAIL.equals(name))
+        else if (UPDATE_ID.equals(name) && currentRecord != null && currentField == null)
+        {
+            currentUpdateID = new StringBuffer();
+        }
+        else if (ERRCODE.equals(name))
+        {
+            errorCode = new StringBuffer();
+        }
+        else if (ERRTEXT.equals(name) || ERRDETAIL.equals(name))
         {
-            error = new StringBuffer();
+            if (error == null)
+            {
+                error = new StringBuffer();
+            }
+            inError = true;
         }
         else if (currentField != null)
         {
@@ -97,7 +122,15 @@ class QuickBaseContentHandler extends DefaultHandler
         {
             currentField.append(characters, start, length);
         }
-        if (error != null)
+        if (currentUpdateID != null)
+        {
+            currentUpdateID.append(characters, start, length);
+        }
+        if (errorCode != null)
+        {
+            errorCode.append(characters, start, length);
+        }
+        if (inError)
         {
             if (error.length() > 0)
             {
@@ -130,6 +163,24 @@ class QuickBaseContentHandler extends DefaultHandler
             currentRecord.setField(currentFieldID, currentField.toString());
             currentField = null;
         }
+        else if (currentUpdateID != null && UPDATE_ID.equals(name))
+        {
+            currentRecord.setUpdateID(currentUpdateID.toString().trim());
+            currentUpdateID = null;
+        }
+        else if (ERRCODE.equals(name) && errorCode != null)
+        {
+            String code = errorCode.toString().trim();
+            errorCode = null;
+            if (!OK.equals(code))
+            {
+                failedErrorCode = code;
+            }
+        }
+        else if (ERRTEXT.equals(name) || ERRDETAIL.equals(name))
+        {
+            inError = false;
+        }
         else if (currentField != null)
         {
             // Some <f id="..."> elements may contain additional nested elements such as <url> or
@@ -147,9 +198,11 @@ class QuickBaseContentHandler extends DefaultHandler
      */
     public void endDocument() throws SAXException
     {
-        if (error != null)
+        if (failedErrorCode != null)
         {
-            resultHandler.handleException(new QuickBaseException(error.toString()));
+            String errorText = error != null ? error.toString() + ' ' : ""; //$NON-NLS-1$
+            errorText += "(error code " + failedErrorCode + ')'; //$NON-NLS-1$
+            resultHandler.handleException(new QuickBaseException(errorText));
         }
         resultHandler.done();
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseCountingInputStream.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class <code>QuickBaseCountingInputStream</code> adds the number of bytes that are read
+ * through it to one or two counters.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseCountingInputStream extends FilterInputStream
+{
+    private final AtomicLong counter;
+    private final AtomicLong secondCounter;
+
+    QuickBaseCountingInputStream(InputStream input, AtomicLong counter, AtomicLong secondCounter)
+    {
+        super(input);
+        this.counter = counter;
+        this.secondCounter = secondCounter;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int read = super.read();
+        if (read >= 0)
+        {
+            count(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        int read = super.read(buffer, offset, length);
+        if (read > 0)
+        {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long length) throws IOException
+    {
+        long skipped = super.skip(length);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private void count(long bytes)
+    {
+        counter.addAndGet(bytes);
+        if (secondCounter != null)
+        {
+            secondCounter.addAndGet(bytes);
+        }
+    }
+}
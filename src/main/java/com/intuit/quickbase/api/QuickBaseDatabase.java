@@ -13,10 +13,28 @@
 
 package com.intuit.quickbase.api;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
@@ -25,6 +43,8 @@ import com.intuit.quickbase.api.query.CList;
 import com.intuit.quickbase.api.query.QueryExecutionMode;
 
 import static com.intuit.quickbase.api.QuickBaseAPICall.API_DoQuery;
+import static com.intuit.quickbase.api.QuickBaseAPICall.API_GenResultsTable;
+import static com.intuit.quickbase.api.QuickBaseAPICall.API_GetDBInfo;
 import static com.intuit.quickbase.api.QuickBaseAPICall.API_GetSchema;
 
 /**
@@ -47,10 +67,24 @@ public class QuickBaseDatabase
     private final static String EMPTY = ""; //$NON-NLS-1$
     private final static String FMT = "fmt"; //$NON-NLS-1$
     private final static String STRUCTURED = "structured"; //$NON-NLS-1$
+    private final static String INCLUDE_RIDS = "includeRids"; //$NON-NLS-1$
+    private final static String OPTIONS = "options"; //$NON-NLS-1$
+    private final static String CSV = "csv"; //$NON-NLS-1$
+    private final static char OPTION_SEPARATOR = '.';
+    private final static String SLIST = "slist"; //$NON-NLS-1$
+    private final static int SYNC_PAGE_SIZE = 5000;
+    private final static int RID_PAGE_SIZE = 50000;
+    private final static String NUM = "num-"; //$NON-NLS-1$
+    private final static String SORTORDER_ASCENDING = "sortorder-A"; //$NON-NLS-1$
+    private final static String SORTORDER_DESCENDING = "sortorder-D"; //$NON-NLS-1$
     private final static NameValuePair FMT_STRUCTURED = new NameValuePair(FMT, STRUCTURED);
 
+    private final static char SEPARATOR = '\n';
+    private final static char STAMP_SEPARATOR = '/';
+
     private QuickBaseConnection connection;
     private String dbid;
+    private volatile QuickBaseQueryCache queryCache;
 
     /**
      * Creates a new {@link QuickBaseDatabase}. The mere act of creating the
@@ -161,12 +195,559 @@ public class QuickBaseDatabase
  *   }
  */
 
+    /**
+     * Performs a query that returns matching records from the database and waits for the complete
+     * result set. The query is sent as an XML POST request, so the length of the query string is
+     * not limited by the maximum URL length. The records include their record ID and update ID.
+     *
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist a {@link CList} that specifies which fields are included in the results
+     * @return the list of matching {@link QuickBaseRecord}s
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    public List<QuickBaseRecord> doQuery(String query, CList clist) throws QuickBaseException
+    {
+        return doQuery(dbid, query, clist, null);
+    }
+
+    /**
+     * Reads all records that match a query and passes them to a {@link QuickBaseResultHandler}.
+     * This is intended for full exports of large tables: the response is parsed while it is
+     * received, so only one record is held in memory at a time. With
+     * {@link QuickBaseResultFormat#CSV} the records are requested through
+     * {@link QuickBaseAPICall#API_GenResultsTable}, which is considerably more compact and faster
+     * to parse than the structured XML of {@link QuickBaseResultFormat#XML}. Both formats produce
+     * the same {@link QuickBaseRecord}s (including their record IDs), but CSV field values are
+     * formatted for display; see {@link QuickBaseResultFormat} for details. The query result
+     * cache is not used.
+     *
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist a {@link CList} that specifies which fields are included in the results
+     * @param format the {@link QuickBaseResultFormat} of the response
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    public void bulkRead(String query, CList clist, QuickBaseResultFormat format, QuickBaseResultHandler resultHandler)
+    throws QuickBaseException
+    {
+        bulkRead(dbid, query, clist, null, format, resultHandler);
+    }
+
+    /**
+     * Reports the records that were added, modified, or deleted since the previous
+     * synchronization with the same {@link QuickBaseSyncState}. Changed records are found by
+     * their "Date Modified" field (field 2): the synchronization queries all records that were
+     * modified on or after the watermark of the state, skipping records that were already
+     * reported with exactly the watermark as their time stamp, and reads them in pages ordered by
+     * record ID. Deleted records are found (optionally) by a second pass that only reads the
+     * record IDs of all records and compares them with the records that are known from previous
+     * synchronizations.
+     * <p/>
+     * The state is only advanced when the synchronization completes successfully; a failed
+     * synchronization is repeated completely by the next call. Records that are modified while
+     * a synchronization runs are reported again by the next synchronization. The records always
+     * include fields 2 and 3 in addition to the fields of the {@link CList}.
+     *
+     * @param clist a {@link CList} that specifies which fields are included in the records
+     * @param state the {@link QuickBaseSyncState} (which is updated)
+     * @param reconcileDeletions <code>true</code> if deleted records should be detected
+     * @param changeHandler the {@link QuickBaseChangeHandler} that receives the changes
+     * @return the {@link QuickBaseSyncResult}
+     * @throws QuickBaseException if a problem occurred while communicating with the database or
+     * the {@link QuickBaseChangeHandler} failed
+     */
+    public QuickBaseSyncResult sync(CList clist, QuickBaseSyncState state, boolean reconcileDeletions,
+        QuickBaseChangeHandler changeHandler) throws QuickBaseException
+    {
+        return sync(dbid, clist, state, reconcileDeletions, changeHandler);
+    }
+
+    /**
+     * Sets the {@link QuickBaseQueryCache} that is used by all queries of this database and its
+     * tables. Cached results are revalidated using {@link QuickBaseAPICall#API_GetDBInfo} before
+     * they are returned.
+     *
+     * @param queryCache the {@link QuickBaseQueryCache}, or <code>null</code> to disable caching
+     */
+    public void setQueryCache(QuickBaseQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * Returns the {@link QuickBaseQueryCache} of this database, or <code>null</code> if caching
+     * is disabled.
+     */
+    public QuickBaseQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Returns the database ID.
+     */
+    public String getDBID() {
+        return dbid;
+    }
+
     QuickBaseConnection getConnection() {
         return connection;
     }
+
+    /**
+     * Performs a query against an arbitrary QuickBase object (usually a table that belongs to this
+     * database) and waits for the complete result set.
+     *
+     * @param qbid the ID of the table (or database) to query
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist the {@link CList} of fields to be included
+     * @param options additional DoQuery options (for example, <code>sortorder-A.num-100</code>),
+     * or <code>null</code>
+     * @return the list of matching {@link QuickBaseRecord}s
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    List<QuickBaseRecord> doQuery(String qbid, String query, CList clist, String options) throws QuickBaseException {
+        QuickBaseQueryCache cache = queryCache;
+        if (cache == null) {
+            return executeQuery(qbid, query, clist, options);
+        }
+
+        // The modification stamp must be retrieved before the query is executed; otherwise, a
+        // change that happens while the query is running could go unnoticed:
+        //
+        String key = qbid + SEPARATOR + query + SEPARATOR + clist + SEPARATOR + options;
+        String stamp = getModificationStamp(qbid);
+        List<QuickBaseRecord> cached = cache.get(key, stamp);
+        if (cached != null) {
+            return cached;
+        }
+        List<QuickBaseRecord> records = executeQuery(qbid, query, clist, options);
+        cache.put(key, stamp, records);
+        return records;
+    }
+
+    /**
+     * Reads all records that match a query from an arbitrary QuickBase object (usually a table
+     * that belongs to this database).
+     *
+     * @param qbid the ID of the table (or database) to query
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist the {@link CList} of fields to be included
+     * @param options additional query options (for example, <code>sortorder-A</code>), or
+     * <code>null</code>
+     * @param format the {@link QuickBaseResultFormat} of the response
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     * @see #bulkRead(String, CList, QuickBaseResultFormat, QuickBaseResultHandler)
+     */
+    void bulkRead(String qbid, String query, CList clist, String options, QuickBaseResultFormat format,
+            final QuickBaseResultHandler resultHandler) throws QuickBaseException {
+        if (format == QuickBaseResultFormat.XML) {
+            connection.executeXml(qbid, API_DoQuery, new QuickBaseContentHandler(resultHandler),
+                    structuredQueryElements(query, clist, options));
+            resultHandler.done();
+            return;
+        }
+
+        // The record ID is always requested, so that CSV records can be edited like XML records
+        final int[] columns = clist.getColumns();
+        int ridIndex = ArrayUtils.indexOf(columns, QuickBaseTable.RECORD_ID_FIELD);
+        final boolean ridRequested = ridIndex >= 0;
+        final int[] fieldIDs = ridRequested ? columns : ArrayUtils.add(columns, QuickBaseTable.RECORD_ID_FIELD);
+        final int ridColumn = ridRequested ? ridIndex : columns.length;
+        options = options != null ? CSV + OPTION_SEPARATOR + options : CSV;
+        connection.executeXml(qbid, API_GenResultsTable, new QuickBaseConnection.ResponseStream() {
+            @Override
+            public void read(InputStream body, Charset charset) throws IOException {
+                handleCSVRecords(new InputStreamReader(body, charset), fieldIDs, ridColumn, ridRequested, resultHandler);
+            }
+        }, queryElements(query, new CList(fieldIDs), options));
+        resultHandler.done();
+    }
+
+    /**
+     * Streams one page of the records that match a query, in ascending order of record IDs and
+     * starting after a given record ID. The response is parsed while it is received, so only one
+     * record is held in memory at a time. Paging by record ID (rather than skipping records) is
+     * not affected by records that are added or deleted between pages. The
+     * {@link QuickBaseResultHandler#done()} method is not called.
+     *
+     * @param qbid the ID of the table (or database) to query
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist the {@link CList} of fields to be included
+     * @param afterRid the record ID after which the page starts (<code>0</code> for the first page)
+     * @param pageSize the maximum number of records in the page
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @return the number of records in the page; a page with fewer than <code>pageSize</code>
+     * records is the last page
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    int streamPage(String qbid, String query, CList clist, int afterRid, int pageSize, final QuickBaseResultHandler resultHandler)
+    throws QuickBaseException {
+        final int[] count = new int[1];
+        QuickBaseResultHandler counter = new QuickBaseResultHandler() {
+            @Override
+            public void handleRecord(QuickBaseRecord record) {
+                count[0]++;
+                resultHandler.handleRecord(record);
+            }
+
+            @Override
+            public void handleException(QuickBaseException exception) {
+                resultHandler.handleException(exception);
+            }
+
+            @Override
+            public void done() {
+                // Pages never complete the result set
+            }
+        };
+        query = QuickBaseQuery.and(QuickBaseQuery.greaterThan(QuickBaseTable.RECORD_ID_FIELD, afterRid), query);
+        String[] elements = recordIdOrderElements(query, clist, NUM + pageSize + OPTION_SEPARATOR + SORTORDER_ASCENDING);
+        connection.executeXml(qbid, API_DoQuery, new QuickBaseContentHandler(counter), elements);
+        return count[0];
+    }
+
+    /**
+     * Gets the highest record ID of the records that match a query.
+     *
+     * @param qbid the ID of the table (or database) to query
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @return the highest record ID, or <code>0</code> if no records match
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    int getLastRecordID(String qbid, String query) throws QuickBaseException {
+        CList clist = new CList(QuickBaseTable.RECORD_ID_FIELD);
+        String[] elements = recordIdOrderElements(query, clist, NUM + 1 + OPTION_SEPARATOR + SORTORDER_DESCENDING);
+        QuickBaseSimpleResultHandler resultHandler = new QuickBaseSimpleResultHandler();
+        handleRecords(connection.executeXml(qbid, API_DoQuery, elements), resultHandler);
+        if (resultHandler.getException() != null) {
+            throw resultHandler.getException();
+        }
+        List<QuickBaseRecord> records = resultHandler.getRecords();
+        return records.isEmpty() ? 0 : records.get(0).getRecordID();
+    }
+
+    /**
+     * Performs an incremental synchronization of an arbitrary QuickBase object (usually a table
+     * that belongs to this database).
+     *
+     * @see #sync(CList, QuickBaseSyncState, boolean, QuickBaseChangeHandler)
+     */
+    QuickBaseSyncResult sync(String qbid, CList clist, QuickBaseSyncState state, boolean reconcileDeletions,
+            final QuickBaseChangeHandler changeHandler) throws QuickBaseException {
+
+        // Records that are modified while the synchronization runs may have been skipped by pages
+        // that were already read, so the new watermark must not be later than the most recent
+        // modification before the synchronization started:
+        //
+        long watermark = state.getWatermark();
+        long limit = Math.max(watermark, getLastRecordModificationTime(qbid));
+        Set<Integer> columns = new LinkedHashSet<Integer>();
+        for (int column : clist.getColumns()) {
+            columns.add(column);
+        }
+        columns.add(QuickBaseTable.DATE_MODIFIED_FIELD);
+        columns.add(QuickBaseTable.RECORD_ID_FIELD);
+        CList syncList = new CList(ArrayUtils.toPrimitive(columns.toArray(new Integer[columns.size()])));
+        String query = watermark > 0 ? QuickBaseQuery.onOrAfter(QuickBaseTable.DATE_MODIFIED_FIELD, watermark) : null;
+
+        ChangeCollector collector = new ChangeCollector(state, limit, changeHandler);
+        RecordIdCollector recordIds = new RecordIdCollector();
+        try {
+            for (int afterRid = 0, count = SYNC_PAGE_SIZE; count == SYNC_PAGE_SIZE; afterRid = collector.lastRid) {
+                count = streamPage(qbid, query, syncList, afterRid, SYNC_PAGE_SIZE, collector);
+            }
+            int deleted = 0;
+            if (reconcileDeletions) {
+                CList ridList = new CList(QuickBaseTable.RECORD_ID_FIELD);
+                for (int afterRid = 0, count = RID_PAGE_SIZE; count == RID_PAGE_SIZE; afterRid = recordIds.lastRid) {
+                    count = streamPage(qbid, null, ridList, afterRid, RID_PAGE_SIZE, recordIds);
+                }
+                BitSet known = state.getKnownRids();
+                BitSet missing = (BitSet) known.clone();
+                missing.andNot(recordIds.rids);
+                for (int rid = missing.nextSetBit(0); rid >= 0; rid = missing.nextSetBit(rid + 1)) {
+                    changeHandler.recordDeleted(rid);
+                    known.clear(rid);
+                    deleted++;
+                }
+            }
+            long newWatermark = collector.newWatermark;
+            int[] newWatermarkRids = ArrayUtils.toPrimitive(collector.newWatermarkRids.toArray(new Integer[0]));
+            if (collector.maxModified > limit && newWatermark < limit) {
+                newWatermark = limit;
+                newWatermarkRids = new int[0];
+            }
+            state.advance(newWatermark, newWatermarkRids);
+            return new QuickBaseSyncResult(collector.changed, deleted, newWatermark);
+        } catch (HandlerFailure failure) {
+            throw failure.exception;
+        }
+    }
+
+    private List<QuickBaseRecord> executeQuery(String qbid, String query, CList clist, String options) throws QuickBaseException {
+        Document response = connection.executeXml(qbid, API_DoQuery, structuredQueryElements(query, clist, options));
+        QuickBaseSimpleResultHandler resultHandler = new QuickBaseSimpleResultHandler();
+        handleRecords(response, resultHandler);
+        if (resultHandler.getException() != null) {
+            throw resultHandler.getException();
+        }
+        return resultHandler.getRecords();
+    }
+
+    /**
+     * Retrieves the time of the latest modification of a record (the <code>lastRecModTime</code>
+     * of {@link QuickBaseAPICall#API_GetDBInfo}). Schema changes do not affect this time.
+     *
+     * @param qbid the ID of the table (or database)
+     * @return the time of the latest record modification, in milliseconds since the epoch
+     * @throws QuickBaseException if a problem occurred while communicating with the database or
+     * the time could not be parsed
+     */
+    private long getLastRecordModificationTime(String qbid) throws QuickBaseException {
+        Document response = connection.execute(qbid, API_GetDBInfo);
+        try {
+            return Long.parseLong(QuickBaseXPath.QDBAPI_LAST_REC_MOD_TIME.evaluate(response).trim());
+        } catch (XPathExpressionException | NumberFormatException exception) {
+            throw new QuickBaseException("Cannot retrieve last modification time.", exception);
+        }
+    }
+
+    /**
+     * Retrieves a stamp that changes whenever records or the schema of a table are modified.
+     *
+     * @param qbid the ID of the table (or database)
+     * @return the modification stamp
+     * @throws QuickBaseException if a problem occurred while communicating with the database
+     */
+    private String getModificationStamp(String qbid) throws QuickBaseException {
+        Document response = connection.execute(qbid, API_GetDBInfo);
+        try {
+            return QuickBaseXPath.QDBAPI_LAST_REC_MOD_TIME.evaluate(response).trim() + STAMP_SEPARATOR
+                    + QuickBaseXPath.QDBAPI_LAST_MODIFIED_TIME.evaluate(response).trim();
+        } catch (XPathExpressionException xpathException) {
+            throw new QuickBaseException(xpathException);
+        }
+    }
+
+    /**
+     * Sends all records of a parsed QuickBase response to a {@link QuickBaseResultHandler}. The
+     * response document is replayed through a <code>QuickBaseContentHandler</code>, so records
+     * are extracted exactly the same way as for streamed responses.
+     *
+     * @param response the response {@link Document}
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @throws QuickBaseException if the response could not be processed
+     */
+    static void handleRecords(Document response, QuickBaseResultHandler resultHandler) throws QuickBaseException {
+        try {
+            SAXResult result = new SAXResult(new QuickBaseContentHandler(resultHandler));
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(response), result);
+        } catch (TransformerException e) {
+            throw new QuickBaseException("Cannot process query response.", e);
+        }
+    }
     
+    /**
+     * Sends all records of a CSV response of {@link QuickBaseAPICall#API_GenResultsTable} to a
+     * {@link QuickBaseResultHandler} while the response is read. The first row, which contains
+     * the field labels, is skipped.
+     *
+     * @param csv the {@link Reader} of the CSV response
+     * @param fieldIDs the IDs of the fields in the order of the columns
+     * @param ridColumn the index of the column that contains the record ID
+     * @param ridRequested <code>true</code> if the record ID is also set as a field
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @throws IOException if the response could not be read or contains an invalid record ID
+     */
+    static void handleCSVRecords(Reader csv, int[] fieldIDs, int ridColumn, boolean ridRequested,
+            QuickBaseResultHandler resultHandler) throws IOException {
+        QuickBaseCSVReader reader = new QuickBaseCSVReader(csv);
+        List<String> row = new ArrayList<String>(fieldIDs.length);
+
+        // The first row contains the field labels
+        reader.readRow(row);
+        while (reader.readRow(row)) {
+            QuickBaseRecord record = new QuickBaseRecord();
+            for (int index = 0; index < row.size() && index < fieldIDs.length; index++) {
+                String value = row.get(index);
+                if (index == ridColumn) {
+                    record.setRecordID(parseRecordID(value));
+                    if (!ridRequested) {
+                        continue;
+                    }
+                }
+                record.setField(fieldIDs[index], value);
+            }
+            resultHandler.handleRecord(record);
+        }
+    }
+
     //-------------------------------------- PRIVATE SECTION -------------------------------------//
 
+    /**
+     * Reports the records of a synchronization to a {@link QuickBaseChangeHandler} and keeps
+     * track of the new watermark.
+     */
+    private static class ChangeCollector implements QuickBaseResultHandler
+    {
+        private final QuickBaseSyncState state;
+        private final long limit;
+        private final QuickBaseChangeHandler changeHandler;
+        final Set<Integer> newWatermarkRids = new LinkedHashSet<Integer>();
+        long newWatermark;
+        long maxModified;
+        int lastRid;
+        int changed;
+
+        ChangeCollector(QuickBaseSyncState state, long limit, QuickBaseChangeHandler changeHandler)
+        {
+            this.state = state;
+            this.limit = limit;
+            this.changeHandler = changeHandler;
+            this.newWatermark = state.getWatermark();
+            this.maxModified = newWatermark;
+        }
+
+        @Override
+        public void handleRecord(QuickBaseRecord record)
+        {
+            int rid = record.getRecordID();
+            lastRid = rid;
+            long modified;
+            try
+            {
+                modified = Long.parseLong(record.getFieldValue(QuickBaseTable.DATE_MODIFIED_FIELD));
+            }
+            catch (NumberFormatException invalid)
+            {
+                throw new HandlerFailure(new QuickBaseException("Invalid modification time of record " + rid, invalid)); //$NON-NLS-1$
+            }
+            state.getKnownRids().set(rid);
+            if (!state.isReported(modified, rid))
+            {
+                try
+                {
+                    changeHandler.recordChanged(record);
+                }
+                catch (QuickBaseException exception)
+                {
+                    throw new HandlerFailure(exception);
+                }
+                changed++;
+            }
+            maxModified = Math.max(maxModified, modified);
+            if (modified <= limit && modified >= newWatermark)
+            {
+                if (modified > newWatermark)
+                {
+                    newWatermark = modified;
+                    newWatermarkRids.clear();
+                }
+                newWatermarkRids.add(rid);
+            }
+        }
+
+        @Override
+        public void handleException(QuickBaseException exception)
+        {
+            // Errors are reported by the connection
+        }
+
+        @Override
+        public void done()
+        {
+            // Pages never complete the result set
+        }
+    }
+
+    /**
+     * Collects the record IDs of all records.
+     */
+    private static class RecordIdCollector implements QuickBaseResultHandler
+    {
+        final BitSet rids = new BitSet();
+        int lastRid;
+
+        @Override
+        public void handleRecord(QuickBaseRecord record)
+        {
+            lastRid = record.getRecordID();
+            rids.set(lastRid);
+        }
+
+        @Override
+        public void handleException(QuickBaseException exception)
+        {
+            // Errors are reported by the connection
+        }
+
+        @Override
+        public void done()
+        {
+            // Pages never complete the result set
+        }
+    }
+
+    /**
+     * Carries a {@link QuickBaseException} out of a {@link QuickBaseResultHandler}, which cannot
+     * throw checked exceptions.
+     */
+    private static class HandlerFailure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final QuickBaseException exception;
+
+        HandlerFailure(QuickBaseException exception)
+        {
+            super(exception);
+            this.exception = exception;
+        }
+    }
+
+    private static String[] queryElements(String query, CList clist, String options)
+    {
+        List<String> elements = new ArrayList<String>();
+        if (query != null && !query.isEmpty()) {
+            elements.add(QuickBaseXml.element(QUERY, query));
+        }
+        elements.add(QuickBaseXml.element(CLIST, clist));
+        if (options != null) {
+            elements.add(QuickBaseXml.element(OPTIONS, options));
+        }
+        return elements.toArray(new String[elements.size()]);
+    }
+
+    private static String[] structuredQueryElements(String query, CList clist, String options)
+    {
+        String[] elements = queryElements(query, clist, options);
+        String[] structured = Arrays.copyOf(elements, elements.length + 2);
+        structured[elements.length] = QuickBaseXml.element(FMT, STRUCTURED);
+        structured[elements.length + 1] = QuickBaseXml.element(INCLUDE_RIDS, 1);
+        return structured;
+    }
+
+    private static String[] recordIdOrderElements(String query, CList clist, String options)
+    {
+        String[] elements = structuredQueryElements(query, clist, options);
+        elements = Arrays.copyOf(elements, elements.length + 1);
+        elements[elements.length - 1] = QuickBaseXml.element(SLIST, QuickBaseTable.RECORD_ID_FIELD);
+        return elements;
+    }
+
+    private static int parseRecordID(String value) throws IOException
+    {
+        try
+        {
+            // Numbers in CSV output may be formatted with thousands separators
+            return Integer.parseInt(StringUtils.remove(value, ','));
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            throw new IOException("Invalid record ID: " + value, numberFormatException); //$NON-NLS-1$
+        }
+    }
+
     private static NameValuePair query(String query)
     {
         return new NameValuePair(QUERY, query);
@@ -108,6 +108,26 @@ public enum QuickBaseErrorCode
         return code;
     }
     
+    /**
+     * Checks whether the error code indicates that QuickBase is throttling requests or is
+     * overloaded, i.e., whether clients should reduce the load they put on the server.
+     * 
+     * @return <code>true</code> for throttling and overload errors
+     */
+    public boolean isOverload() {
+        switch (this) {
+            case REQUEST_LIMIT:
+            case TIMEOUT:
+            case TRY_LATER:
+            case TEMPORARILY_UNAVAILABLE:
+            case HEAVY_TRAFFIC:
+            case TECHNICAL_ISSUES:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
     public static QuickBaseErrorCode valueOf(int code) {
         for (QuickBaseErrorCode errorCode : QuickBaseErrorCode.values()) {
             if (errorCode.code == code) {
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseExportCheckpoint.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The class <code>QuickBaseExportCheckpoint</code> keeps the progress of a resumable export in a
+ * local state file. The export is divided into partitions (ranges of record IDs), and each
+ * partition records the last exported record ID together with the number and size of its files
+ * and its row count. The state file is replaced atomically and forced to disk whenever a
+ * partition saves its progress, so it always describes a consistent state of all partitions.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseExportCheckpoint
+{
+    private final static String SIGNATURE = "signature"; //$NON-NLS-1$
+    private final static String PARTITIONS = "partitions"; //$NON-NLS-1$
+    private final static String PARTITION = "partition."; //$NON-NLS-1$
+    private final static String LOW = ".low"; //$NON-NLS-1$
+    private final static String HIGH = ".high"; //$NON-NLS-1$
+    private final static String LAST_RID = ".lastRid"; //$NON-NLS-1$
+    private final static String FILES = ".files"; //$NON-NLS-1$
+    private final static String OFFSET = ".offset"; //$NON-NLS-1$
+    private final static String ROWS = ".rows"; //$NON-NLS-1$
+    private final static String BYTES = ".bytes"; //$NON-NLS-1$
+    private final static String DONE = ".done"; //$NON-NLS-1$
+    private final static String TEMPORARY_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    private final Path file;
+    private final String signature;
+    private final List<Partition> partitions;
+
+    private QuickBaseExportCheckpoint(Path file, String signature, List<Partition> partitions)
+    {
+        this.file = file;
+        this.signature = signature;
+        this.partitions = Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * Creates the state of a new export. The state is not saved before {@link #save()} is called.
+     *
+     * @param file the state file
+     * @param signature a string that identifies the export settings
+     * @param bounds the record ID bounds of the partitions: partition <i>i</i> covers the record
+     * IDs greater than <code>bounds[i]</code> and not greater than <code>bounds[i+1]</code>; the
+     * last partition has no upper bound
+     * @return the new <code>QuickBaseExportCheckpoint</code>
+     */
+    static QuickBaseExportCheckpoint create(Path file, String signature, int[] bounds)
+    {
+        List<Partition> partitions = new ArrayList<Partition>();
+        for (int index = 0; index < bounds.length; index++)
+        {
+            int high = index+1 < bounds.length ? bounds[index+1] : Integer.MAX_VALUE;
+            partitions.add(new Partition(index, bounds[index], high));
+        }
+        return new QuickBaseExportCheckpoint(file, signature, partitions);
+    }
+
+    /**
+     * Loads the state of an interrupted export.
+     *
+     * @param file the state file
+     * @param signature a string that identifies the export settings
+     * @return the <code>QuickBaseExportCheckpoint</code>, or <code>null</code> if there is no
+     * state file
+     * @throws IOException if the state file could not be read or belongs to an export with
+     * different settings
+     */
+    static QuickBaseExportCheckpoint load(Path file, String signature) throws IOException
+    {
+        if (!Files.exists(file))
+        {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream input = Files.newInputStream(file))
+        {
+            state.load(input);
+        }
+        if (!signature.equals(state.getProperty(SIGNATURE)))
+        {
+            throw new IOException("State file " + file + " belongs to an export with different settings"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        try
+        {
+            int count = Integer.parseInt(state.getProperty(PARTITIONS));
+            List<Partition> partitions = new ArrayList<Partition>();
+            for (int index = 0; index < count; index++)
+            {
+                String prefix = PARTITION + index;
+                Partition partition = new Partition(index, Integer.parseInt(state.getProperty(prefix + LOW)),
+                    Integer.parseInt(state.getProperty(prefix + HIGH)));
+                partition.lastRid = Integer.parseInt(state.getProperty(prefix + LAST_RID));
+                partition.files = Integer.parseInt(state.getProperty(prefix + FILES));
+                partition.offset = Long.parseLong(state.getProperty(prefix + OFFSET));
+                partition.rows = Long.parseLong(state.getProperty(prefix + ROWS));
+                partition.bytes = Long.parseLong(state.getProperty(prefix + BYTES));
+                partition.done = Boolean.parseBoolean(state.getProperty(prefix + DONE));
+                partitions.add(partition);
+            }
+            return new QuickBaseExportCheckpoint(file, signature, partitions);
+        }
+        catch (NumberFormatException invalid)
+        {
+            throw new IOException("State file " + file + " is corrupt", invalid); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * Gets the partitions of the export.
+     *
+     * @return an unmodifiable {@link List} of {@link Partition}s
+     */
+    List<Partition> getPartitions()
+    {
+        return partitions;
+    }
+
+    /**
+     * Records the progress of a partition and saves the state of all partitions.
+     *
+     * @param partition the {@link Partition}
+     * @param lastRid the last exported record ID of the partition
+     * @param writer the {@link QuickBaseExportWriter} of the partition (after a durable flush)
+     * @param done <code>true</code> if the partition is complete
+     * @throws IOException if the state file could not be written
+     */
+    synchronized void save(Partition partition, int lastRid, QuickBaseExportWriter writer, boolean done) throws IOException
+    {
+        partition.lastRid = lastRid;
+        partition.files = writer.getFileCount();
+        partition.offset = writer.getFileOffset();
+        partition.rows = writer.getRows();
+        partition.bytes = writer.getBytes();
+        partition.done = done;
+        save();
+    }
+
+    /**
+     * Saves the state of all partitions. The state file is replaced atomically.
+     *
+     * @throws IOException if the state file could not be written
+     */
+    synchronized void save() throws IOException
+    {
+        Properties state = new Properties();
+        state.setProperty(SIGNATURE, signature);
+        state.setProperty(PARTITIONS, String.valueOf(partitions.size()));
+        for (Partition partition: partitions)
+        {
+            String prefix = PARTITION + partition.index;
+            state.setProperty(prefix + LOW, String.valueOf(partition.low));
+            state.setProperty(prefix + HIGH, String.valueOf(partition.high));
+            state.setProperty(prefix + LAST_RID, String.valueOf(partition.lastRid));
+            state.setProperty(prefix + FILES, String.valueOf(partition.files));
+            state.setProperty(prefix + OFFSET, String.valueOf(partition.offset));
+            state.setProperty(prefix + ROWS, String.valueOf(partition.rows));
+            state.setProperty(prefix + BYTES, String.valueOf(partition.bytes));
+            state.setProperty(prefix + DONE, String.valueOf(partition.done));
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), TEMPORARY_SUFFIX);
+        try
+        {
+            try (OutputStream output = Files.newOutputStream(temporary))
+            {
+                state.store(output, null);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+            {
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        }
+        finally
+        {
+            if (temporary != null)
+            {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Deletes the state file.
+     *
+     * @throws IOException if the state file could not be deleted
+     */
+    void delete() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * The class <code>Partition</code> holds the progress of a range of record IDs. The progress
+     * is only changed by {@link QuickBaseExportCheckpoint#save(Partition, int, QuickBaseExportWriter, boolean)}
+     * while the checkpoint is locked.
+     */
+    static final class Partition
+    {
+        final int index;
+        final int low;
+        final int high;
+        int lastRid;
+        int files;
+        long offset;
+        long rows;
+        long bytes;
+        boolean done;
+
+        Partition(int index, int low, int high)
+        {
+            this.index = index;
+            this.low = low;
+            this.high = high;
+            this.lastRid = low;
+        }
+    }
+}
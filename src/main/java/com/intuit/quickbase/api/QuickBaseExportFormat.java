@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseExportFormat.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The enumeration {@link QuickBaseExportFormat} defines the file formats that are supported by
+ * {@link QuickBaseExporter}. All files are written in UTF-8.
+ *
+ * @version $Revision$
+ */
+public enum QuickBaseExportFormat
+{
+    /** Comma-separated values (RFC 4180) with a header line at the start of every file. **/ CSV("csv"), //$NON-NLS-1$
+    /** Newline-delimited JSON with one JSON object per record. **/ NDJSON("ndjson"); //$NON-NLS-1$
+
+    private final String extension;
+
+    private QuickBaseExportFormat(String extension)
+    {
+        this.extension = extension;
+    }
+
+    /**
+     * Gets the file name extension of the format.
+     *
+     * @return the extension (without a leading dot)
+     */
+    public String getExtension()
+    {
+        return extension;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseExportResult.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The class {@link QuickBaseExportResult} reports the outcome of {@link QuickBaseExporter#export()}.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseExportResult
+{
+    private long rows;
+    private long bytes;
+    private List<Path> files;
+
+    QuickBaseExportResult(long rows, long bytes, List<Path> files)
+    {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.files = Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Gets the number of exported records.
+     *
+     * @return the number of rows
+     */
+    public long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Gets the total size of all written files.
+     *
+     * @return the number of bytes
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Gets the written files.
+     *
+     * @return an unmodifiable {@link List} of file {@link Path}s (in the order in which they were
+     * written)
+     */
+    public List<Path> getFiles()
+    {
+        return files;
+    }
+
+    /**
+     * Converts the {@link QuickBaseExportResult} to a string.
+     *
+     * @return a string representation of the result
+     */
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[rows=" + rows + ", bytes=" + bytes + ", files=" + files + ']'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
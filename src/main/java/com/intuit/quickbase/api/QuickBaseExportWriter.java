@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseExportWriter.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The class <code>QuickBaseExportWriter</code> writes the lines of an export into a sequence of
+ * files. Lines are encoded in UTF-8 directly into a pooled buffer, which is written to a
+ * {@link FileChannel} when it is full. A new file is started when the current file has reached
+ * the maximum size; files are named <code>&lt;base name&gt;-00001.&lt;extension&gt;</code>,
+ * <code>&lt;base name&gt;-00002.&lt;extension&gt;</code>, and so on. Every file starts with the
+ * header line (if any).
+ *
+ * @version $Revision$
+ */
+final class QuickBaseExportWriter implements Closeable
+{
+    private final static String FILE_NAME = "%s-%05d.%s"; //$NON-NLS-1$
+    private final static String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+    private final Path directory;
+    private final String baseName;
+    private final String extension;
+    private final long maxFileBytes;
+    private final String header;
+    private final QuickBaseBufferPool pool;
+    private final CharsetEncoder encoder;
+    private final List<Path> files = new ArrayList<Path>();
+    private byte[] array;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long fileBytes; // the written (not buffered) bytes of the last file
+    private long closedBytes; // the bytes of all files before the last file
+    private long rows;
+
+    /**
+     * Creates a new <code>QuickBaseExportWriter</code>. No file is created before the first line
+     * is written.
+     *
+     * @param directory the directory of the files
+     * @param baseName the base name of the files
+     * @param extension the file name extension
+     * @param maxFileBytes the size that completes a file (a file may exceed the size by one line)
+     * @param header the header line of every file (including the line terminator), or
+     * <code>null</code>
+     * @param pool the {@link QuickBaseBufferPool} that provides the write buffer
+     */
+    QuickBaseExportWriter(Path directory, String baseName, String extension, long maxFileBytes, String header,
+        QuickBaseBufferPool pool)
+    {
+        if (maxFileBytes <= 0)
+        {
+            throw new IllegalArgumentException("Maximum file size must be positive"); //$NON-NLS-1$
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.extension = extension;
+        this.maxFileBytes = maxFileBytes;
+        this.header = header;
+        this.pool = pool;
+        this.encoder = Charset.forName(UTF_8).newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.array = pool.acquire();
+        this.buffer = ByteBuffer.wrap(array);
+    }
+
+    /**
+     * Writes a line (which must include the line terminator).
+     *
+     * @param line the line
+     * @throws IOException if the line could not be written
+     */
+    void writeLine(CharSequence line) throws IOException
+    {
+        if (channel == null)
+        {
+            openFile(file(files.size()+1));
+        }
+        encode(line);
+        rows++;
+        if (getFileBytes() >= maxFileBytes)
+        {
+            closeFile();
+        }
+    }
+
+    /**
+     * Continues a previous export from a checkpoint. The files of the checkpoint are taken over,
+     * the last file is truncated to its size at the time of the checkpoint, and any later files
+     * are deleted. Nothing that was written after the checkpoint remains.
+     *
+     * @param fileCount the number of files at the time of the checkpoint
+     * @param fileOffset the size of the last file at the time of the checkpoint
+     * @param rows the number of lines at the time of the checkpoint
+     * @param bytes the total size of all files at the time of the checkpoint
+     * @throws IOException if the files could not be prepared
+     */
+    void resume(int fileCount, long fileOffset, long rows, long bytes) throws IOException
+    {
+        if (channel != null || !files.isEmpty())
+        {
+            throw new IllegalStateException("Writer was already used"); //$NON-NLS-1$
+        }
+        for (int index = 1; index <= fileCount; index++)
+        {
+            files.add(file(index));
+        }
+        for (int index = fileCount+1; Files.deleteIfExists(file(index)); index++)
+        {
+            // Files that were started after the checkpoint are removed
+        }
+        this.rows = rows;
+        if (fileCount == 0)
+        {
+            return;
+        }
+        FileChannel last = FileChannel.open(file(fileCount), StandardOpenOption.WRITE);
+        try
+        {
+            if (last.size() < fileOffset)
+            {
+                throw new IOException("File " + file(fileCount) + " is shorter than its checkpoint"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            last.truncate(fileOffset);
+            last.position(fileOffset);
+            last.force(false);
+        }
+        catch (IOException exception)
+        {
+            last.close();
+            throw exception;
+        }
+        closedBytes = bytes - fileOffset;
+        fileBytes = fileOffset;
+        if (fileOffset < maxFileBytes)
+        {
+            channel = last;
+        }
+        else
+        {
+            last.close();
+        }
+    }
+
+    /**
+     * Writes all buffered data to the current file.
+     *
+     * @param durable <code>true</code> if the data must also be forced to the storage device
+     * @throws IOException if the data could not be written
+     */
+    void flush(boolean durable) throws IOException
+    {
+        if (channel != null)
+        {
+            drain();
+            if (durable)
+            {
+                channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Gets the files that were written so far.
+     *
+     * @return the {@link List} of files (the last file may still be open)
+     */
+    List<Path> getFiles()
+    {
+        return files;
+    }
+
+    /**
+     * Gets the number of files that were written so far.
+     *
+     * @return the number of files
+     */
+    int getFileCount()
+    {
+        return files.size();
+    }
+
+    /**
+     * Gets the size of the last file, including buffered data.
+     *
+     * @return the number of bytes
+     */
+    long getFileOffset()
+    {
+        return getFileBytes();
+    }
+
+    /**
+     * Gets the number of lines that were written (not counting header lines).
+     *
+     * @return the number of lines
+     */
+    long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Gets the total size of all files, including buffered data.
+     *
+     * @return the number of bytes
+     */
+    long getBytes()
+    {
+        return closedBytes + getFileBytes();
+    }
+
+    /**
+     * Closes the current file and returns the write buffer to the pool.
+     *
+     * @throws IOException if the buffered data could not be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (array == null)
+        {
+            return;
+        }
+        try
+        {
+            closeFile();
+        }
+        finally
+        {
+            if (channel != null)
+            {
+                channel.close();
+                channel = null;
+            }
+            pool.release(array);
+            array = null;
+            buffer = null;
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private void openFile(Path file) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        files.add(file);
+        closedBytes += fileBytes;
+        fileBytes = 0;
+        if (header != null)
+        {
+            encode(header);
+        }
+    }
+
+    private void closeFile() throws IOException
+    {
+        if (channel == null)
+        {
+            return;
+        }
+        drain();
+        channel.force(false);
+        channel.close();
+        channel = null;
+    }
+
+    private Path file(int index)
+    {
+        return directory.resolve(String.format(FILE_NAME, baseName, index, extension));
+    }
+
+    private long getFileBytes()
+    {
+        return fileBytes + (buffer != null ? buffer.position() : 0);
+    }
+
+    private void encode(CharSequence text) throws IOException
+    {
+        CharBuffer characters = CharBuffer.wrap(text);
+        encoder.reset();
+        while (encoder.encode(characters, buffer, true).isOverflow())
+        {
+            drain();
+        }
+        while (encoder.flush(buffer).isOverflow())
+        {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            fileBytes += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
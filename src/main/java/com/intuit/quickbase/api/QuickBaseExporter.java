@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseExporter.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+
+import com.intuit.quickbase.api.query.CList;
+
+/**
+ * The class {@link QuickBaseExporter} exports the records of a {@link QuickBaseTable} into CSV
+ * or NDJSON files. Records are requested in pages ordered by record ID, and each page is parsed
+ * while it is received and written straight to the output files, so the memory that an export
+ * uses does not depend on the number of records:
+ * <small><pre>
+ * QuickBaseExporter exporter = table.createExporter(QuickBaseExportFormat.NDJSON, directory, "orders");
+ * exporter.addColumn("id", 3);
+ * exporter.addColumn("amount", AMOUNT);
+ * exporter.addColumn("created", CREATED);
+ * exporter.setMaxFileBytes(512*1024*1024);
+ * QuickBaseExportResult result = exporter.export();
+ * </pre></small>
+ * Columns that are added with a {@link QuickBaseField} are converted to Java objects by the
+ * field's {@link QuickBaseFieldResolver} and formatted according to their type: numbers and
+ * booleans are written as JSON numbers and booleans, dates are written in ISO 8601 format (UTC),
+ * and empty values are written as JSON <code>null</code> (or an empty CSV value). Columns that
+ * are added with a plain field ID are written as strings, exactly as received from QuickBase.
+ *
+ * @see QuickBaseTable#createExporter(QuickBaseExportFormat, Path, String)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseExporter
+{
+    private final static int DEFAULT_PAGE_SIZE = 5000;
+    private final static String PARTITION_NAME = "%s-p%02d"; //$NON-NLS-1$
+    private final static String ISO_8601 = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"; //$NON-NLS-1$
+    private final static String UTC = "UTC"; //$NON-NLS-1$
+    private final static String NULL = "null"; //$NON-NLS-1$
+    private final static String LINE_END = "\n"; //$NON-NLS-1$
+    private final static char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private final QuickBaseTable table;
+    private final QuickBaseExportFormat format;
+    private final Path directory;
+    private final String baseName;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Integer> fieldIDs = new ArrayList<Integer>();
+    private final List<QuickBaseField<?>> fields = new ArrayList<QuickBaseField<?>>();
+    private String query;
+    private long maxFileBytes = Long.MAX_VALUE;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    QuickBaseExporter(QuickBaseTable table, QuickBaseExportFormat format, Path directory, String baseName)
+    {
+        this.table = table;
+        this.format = format;
+        this.directory = directory;
+        this.baseName = baseName;
+    }
+
+    /**
+     * Adds a column whose values are resolved and formatted according to their type.
+     *
+     * @param name the name of the column (the CSV header or JSON property name)
+     * @param field the {@link QuickBaseField}
+     */
+    public void addColumn(String name, QuickBaseField<?> field)
+    {
+        names.add(name);
+        fieldIDs.add(field.getID());
+        fields.add(field);
+    }
+
+    /**
+     * Adds a column whose values are written as strings, exactly as received from QuickBase.
+     *
+     * @param name the name of the column (the CSV header or JSON property name)
+     * @param fieldID the ID of the field
+     */
+    public void addColumn(String name, int fieldID)
+    {
+        names.add(name);
+        fieldIDs.add(fieldID);
+        fields.add(null);
+    }
+
+    /**
+     * Restricts the export to the records that match a query.
+     *
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     */
+    public void setQuery(String query)
+    {
+        this.query = query;
+    }
+
+    /**
+     * Sets the size at which a new output file is started. A file may exceed the size by at most
+     * one record. By default, all records are written into a single file.
+     *
+     * @param maxFileBytes the maximum file size in bytes
+     */
+    public void setMaxFileBytes(long maxFileBytes)
+    {
+        if (maxFileBytes <= 0)
+        {
+            throw new IllegalArgumentException("Maximum file size must be positive"); //$NON-NLS-1$
+        }
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /**
+     * Sets the number of records that are requested from QuickBase at a time.
+     *
+     * @param pageSize the number of records per request
+     */
+    public void setPageSize(int pageSize)
+    {
+        if (pageSize <= 0)
+        {
+            throw new IllegalArgumentException("Page size must be positive"); //$NON-NLS-1$
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Exports all matching records. Existing files with the same names are replaced.
+     *
+     * @return the {@link QuickBaseExportResult}
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase or writing the
+     * files
+     */
+    public QuickBaseExportResult export() throws QuickBaseException
+    {
+        if (names.isEmpty())
+        {
+            throw new IllegalStateException("No columns were added"); //$NON-NLS-1$
+        }
+        try
+        {
+            Files.createDirectories(directory);
+            QuickBaseExportWriter writer = createWriter();
+            try
+            {
+                RecordWriter recordWriter = new RecordWriter(writer);
+                exportPages(recordWriter, query, 0, null);
+                writer.close();
+                return new QuickBaseExportResult(writer.getRows(), writer.getBytes(), writer.getFiles());
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Cannot write export files", exception); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Exports all matching records with checkpoints, so that an interrupted export can be resumed.
+     * The records are divided into partitions by record ID, which are exported in parallel into
+     * separate files (named <code>&lt;base name&gt;-p01-00001.&lt;extension&gt;</code> and so on,
+     * if there is more than one partition). After each page, a partition forces its files to
+     * disk and records its last record ID, file sizes, and row count in the state file.
+     * <p/>
+     * If the state file exists, the export continues from the recorded state: the files of each
+     * partition are truncated to their recorded size, and the export continues after the
+     * recorded record ID, so that the result contains every record exactly once. The number of
+     * partitions is taken from the state file in this case, and the columns, query, and file
+     * settings must be the same as before. The state file is deleted when the export is
+     * complete.
+     *
+     * @param stateFile the state file
+     * @param partitions the number of partitions of a new export
+     * @return the {@link QuickBaseExportResult} for all partitions
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase, writing the
+     * files, or reading the state file
+     */
+    public QuickBaseExportResult export(Path stateFile, int partitions) throws QuickBaseException
+    {
+        if (names.isEmpty())
+        {
+            throw new IllegalStateException("No columns were added"); //$NON-NLS-1$
+        }
+        if (partitions <= 0)
+        {
+            throw new IllegalArgumentException("Number of partitions must be positive"); //$NON-NLS-1$
+        }
+        QuickBaseExportCheckpoint checkpoint;
+        try
+        {
+            Files.createDirectories(directory);
+            checkpoint = QuickBaseExportCheckpoint.load(stateFile, getSignature());
+            if (checkpoint == null)
+            {
+                int lastRid = table.getDatabase().getLastRecordID(table.getTableId(), query);
+                int[] bounds = new int[partitions];
+                for (int index = 0; index < partitions; index++)
+                {
+                    bounds[index] = (int)((long)lastRid * index / partitions);
+                }
+                checkpoint = QuickBaseExportCheckpoint.create(stateFile, getSignature(), bounds);
+                checkpoint.save();
+            }
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Cannot prepare export", exception); //$NON-NLS-1$
+        }
+
+        List<PartitionExport> exports = new ArrayList<PartitionExport>();
+        for (QuickBaseExportCheckpoint.Partition partition: checkpoint.getPartitions())
+        {
+            exports.add(new PartitionExport(checkpoint, partition));
+        }
+        List<QuickBaseExportResult> results = QuickBaseTasks.invokeAll(table.getDatabase().getConnection().getExecutor(),
+            exports, exports.size());
+        long rows = 0;
+        long bytes = 0;
+        List<Path> files = new ArrayList<Path>();
+        for (QuickBaseExportResult result: results)
+        {
+            rows += result.getRows();
+            bytes += result.getBytes();
+            files.addAll(result.getFiles());
+        }
+        try
+        {
+            checkpoint.delete();
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Cannot delete export state " + stateFile, exception); //$NON-NLS-1$
+        }
+        return new QuickBaseExportResult(rows, bytes, files);
+    }
+
+    //--------------------------------------- PACKAGE SECTION --------------------------------------//
+
+    /**
+     * Creates a {@link QuickBaseExportWriter} for the files of this export.
+     *
+     * @return a new {@link QuickBaseExportWriter}
+     */
+    QuickBaseExportWriter createWriter()
+    {
+        return createWriter(baseName);
+    }
+
+    /**
+     * Creates a {@link QuickBaseExportWriter} for files with a given base name.
+     *
+     * @param name the base name of the files
+     * @return a new {@link QuickBaseExportWriter}
+     */
+    QuickBaseExportWriter createWriter(String name)
+    {
+        String header = null;
+        if (format == QuickBaseExportFormat.CSV)
+        {
+            StringBuilder line = new StringBuilder();
+            QuickBaseCSV.appendRow(line, names.toArray(new String[names.size()]));
+            header = line.toString();
+        }
+        QuickBaseBufferPool pool = table.getDatabase().getConnection().getBufferPool();
+        return new QuickBaseExportWriter(directory, name, format.getExtension(), maxFileBytes, header, pool);
+    }
+
+    /**
+     * Exports the matching records in pages, starting after a given record ID.
+     *
+     * @param recordWriter the {@link RecordWriter} that writes the records
+     * @param pageQuery the query string (an empty string or <code>null</code> matches all records)
+     * @param afterRid the record ID after which the export starts
+     * @param pageListener the {@link PageListener} that is notified after each page, or
+     * <code>null</code>
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase or writing the
+     * files
+     */
+    void exportPages(RecordWriter recordWriter, String pageQuery, int afterRid, PageListener pageListener) throws QuickBaseException
+    {
+        int[] columns = new int[fieldIDs.size()];
+        for (int index = 0; index < columns.length; index++)
+        {
+            columns[index] = fieldIDs.get(index);
+        }
+        CList clist = new CList(columns);
+        while (true)
+        {
+            int count;
+            try
+            {
+                count = table.getDatabase().streamPage(table.getTableId(), pageQuery, clist, afterRid, pageSize, recordWriter);
+            }
+            catch (WriteFailure failure)
+            {
+                throw new QuickBaseException(failure.getMessage(), failure.exception);
+            }
+            if (count == 0)
+            {
+                return;
+            }
+            afterRid = recordWriter.lastRid;
+            if (pageListener != null)
+            {
+                pageListener.pageCompleted(afterRid);
+            }
+            if (count < pageSize)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The interface <code>PageListener</code> receives a notification after each exported page.
+     */
+    interface PageListener
+    {
+        /**
+         * Notifies the listener that a page was completely written.
+         *
+         * @param lastRid the record ID of the last record of the page
+         * @throws QuickBaseException if the notification could not be processed
+         */
+        void pageCompleted(int lastRid) throws QuickBaseException;
+    }
+
+    /**
+     * The class <code>RecordWriter</code> formats records and writes them into the export files.
+     */
+    class RecordWriter implements QuickBaseResultHandler
+    {
+        private final QuickBaseExportWriter writer;
+        private final StringBuilder line = new StringBuilder();
+        private final String[] values = new String[names.size()];
+        private final String[] jsonNames = new String[names.size()];
+        private final DateFormat dateFormat = new SimpleDateFormat(ISO_8601);
+        int lastRid;
+
+        RecordWriter(QuickBaseExportWriter writer)
+        {
+            this.writer = writer;
+            this.dateFormat.setTimeZone(TimeZone.getTimeZone(UTC));
+            for (int index = 0; index < jsonNames.length; index++)
+            {
+                StringBuilder name = new StringBuilder();
+                appendJsonString(name, names.get(index));
+                jsonNames[index] = name.append(':').toString();
+            }
+        }
+
+        @Override
+        public void handleRecord(QuickBaseRecord record)
+        {
+            line.setLength(0);
+            if (format == QuickBaseExportFormat.CSV)
+            {
+                for (int index = 0; index < values.length; index++)
+                {
+                    Object value = getValue(record, index);
+                    values[index] = value instanceof Date ? dateFormat.format((Date)value)
+                        : value != null ? value.toString() : null;
+                }
+                QuickBaseCSV.appendRow(line, values);
+            }
+            else
+            {
+                line.append('{');
+                for (int index = 0; index < jsonNames.length; index++)
+                {
+                    if (index > 0)
+                    {
+                        line.append(',');
+                    }
+                    line.append(jsonNames[index]);
+                    appendJsonValue(line, getValue(record, index));
+                }
+                line.append('}').append(LINE_END);
+            }
+            try
+            {
+                writer.writeLine(line);
+            }
+            catch (IOException exception)
+            {
+                throw new WriteFailure("Cannot write export files", exception); //$NON-NLS-1$
+            }
+            lastRid = record.getRecordID();
+        }
+
+        @Override
+        public void handleException(QuickBaseException exception)
+        {
+            // Errors are reported by the connection
+        }
+
+        @Override
+        public void done()
+        {
+            // Pages are handled by exportPages
+        }
+
+        private Object getValue(QuickBaseRecord record, int index)
+        {
+            String value = record.getFieldValue(fieldIDs.get(index));
+            QuickBaseField<?> field = fields.get(index);
+            if (field == null || value == null)
+            {
+                return value;
+            }
+            if (value.isEmpty())
+            {
+                return null;
+            }
+            try
+            {
+                return field.get(value);
+            }
+            catch (RuntimeException exception)
+            {
+                throw new WriteFailure("Cannot resolve field " + field.getID() //$NON-NLS-1$
+                    + " of record " + record.getRecordID() + ": " + value, exception); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        private void appendJsonValue(StringBuilder json, Object value)
+        {
+            if (value == null)
+            {
+                json.append(NULL);
+            }
+            else if (value instanceof Boolean)
+            {
+                json.append(value);
+            }
+            else if (value instanceof BigDecimal)
+            {
+                json.append(((BigDecimal)value).toPlainString());
+            }
+            else if (value instanceof Number && isFinite((Number)value))
+            {
+                json.append(value);
+            }
+            else if (value instanceof Date)
+            {
+                appendJsonString(json, dateFormat.format((Date)value));
+            }
+            else
+            {
+                appendJsonString(json, value.toString());
+            }
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    /**
+     * Identifies the settings that must not change when an export is resumed.
+     */
+    private String getSignature()
+    {
+        StringBuilder signature = new StringBuilder();
+        signature.append(format).append('|').append(baseName).append('|').append(maxFileBytes).append('|').append(query);
+        for (int index = 0; index < names.size(); index++)
+        {
+            signature.append('|').append(names.get(index)).append('=').append(fieldIDs.get(index));
+        }
+        return signature.toString();
+    }
+
+    /**
+     * Exports (or resumes) a single partition of a checkpointed export.
+     */
+    private class PartitionExport implements Callable<QuickBaseExportResult>, PageListener
+    {
+        private final QuickBaseExportCheckpoint checkpoint;
+        private final QuickBaseExportCheckpoint.Partition partition;
+        private QuickBaseExportWriter writer;
+
+        PartitionExport(QuickBaseExportCheckpoint checkpoint, QuickBaseExportCheckpoint.Partition partition)
+        {
+            this.checkpoint = checkpoint;
+            this.partition = partition;
+        }
+
+        @Override
+        public QuickBaseExportResult call() throws QuickBaseException
+        {
+            int partitions = checkpoint.getPartitions().size();
+            writer = createWriter(partitions == 1 ? baseName : String.format(PARTITION_NAME, baseName, partition.index+1));
+            try
+            {
+                writer.resume(partition.files, partition.offset, partition.rows, partition.bytes);
+                if (!partition.done)
+                {
+                    String pageQuery = query;
+                    if (partition.high != Integer.MAX_VALUE)
+                    {
+                        pageQuery = QuickBaseQuery.and(QuickBaseQuery.atMost(QuickBaseTable.RECORD_ID_FIELD, partition.high), query);
+                    }
+                    RecordWriter recordWriter = new RecordWriter(writer);
+                    exportPages(recordWriter, pageQuery, partition.lastRid, this);
+                    writer.flush(true);
+                    checkpoint.save(partition, Math.max(partition.lastRid, recordWriter.lastRid), writer, true);
+                }
+                writer.close();
+                return new QuickBaseExportResult(writer.getRows(), writer.getBytes(), writer.getFiles());
+            }
+            catch (IOException exception)
+            {
+                throw new QuickBaseException("Cannot export partition " + (partition.index+1), exception); //$NON-NLS-1$
+            }
+            finally
+            {
+                try
+                {
+                    writer.close();
+                }
+                catch (IOException ignored)
+                {
+                    // The data after the last checkpoint is discarded when the export is resumed
+                }
+            }
+        }
+
+        @Override
+        public void pageCompleted(int lastRid) throws QuickBaseException
+        {
+            try
+            {
+                writer.flush(true);
+                checkpoint.save(partition, lastRid, writer, false);
+            }
+            catch (IOException exception)
+            {
+                throw new QuickBaseException("Cannot save export checkpoint", exception); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static boolean isFinite(Number number)
+    {
+        if (number instanceof Double || number instanceof Float)
+        {
+            double value = number.doubleValue();
+            return !Double.isNaN(value) && !Double.isInfinite(value);
+        }
+        return true;
+    }
+
+    private static void appendJsonString(StringBuilder json, String value)
+    {
+        json.append('"');
+        for (int index = 0; index < value.length(); index++)
+        {
+            char character = value.charAt(index);
+            switch (character)
+            {
+                case '"':
+                case '\\':
+                    json.append('\\').append(character);
+                    break;
+                case '\n':
+                    json.append("\\n"); //$NON-NLS-1$
+                    break;
+                case '\r':
+                    json.append("\\r"); //$NON-NLS-1$
+                    break;
+                case '\t':
+                    json.append("\\t"); //$NON-NLS-1$
+                    break;
+                default:
+                    if (character < ' ' || character == '\u2028' || character == '\u2029')
+                    {
+                        json.append("\\u").append(HEX[character >> 12]).append(HEX[(character >> 8) & 0xF]) //$NON-NLS-1$
+                            .append(HEX[(character >> 4) & 0xF]).append(HEX[character & 0xF]);
+                    }
+                    else
+                    {
+                        json.append(character);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Carries a failure out of {@link RecordWriter#handleRecord(QuickBaseRecord)}, which cannot
+     * throw checked exceptions.
+     */
+    private static class WriteFailure extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final Exception exception;
+
+        WriteFailure(String message, Exception exception)
+        {
+            super(message, exception);
+            this.exception = exception;
+        }
+    }
+}
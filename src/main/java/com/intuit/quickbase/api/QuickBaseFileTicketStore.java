@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseFileTicketStore.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The class {@link QuickBaseFileTicketStore} is a {@link QuickBaseTicketStore} that keeps tickets
+ * in a properties file. The file (and its directory, if it is created by the store) is only
+ * accessible by the owner on file systems that support POSIX permissions. The file is replaced
+ * atomically on every change, so that concurrent readers (including other processes) never see a
+ * partially written file. If several processes change the file at the same time, the last change
+ * wins, which at worst causes an additional authentication.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseFileTicketStore implements QuickBaseTicketStore
+{
+    private final static String DEFAULT_DIRECTORY = ".quickbase"; //$NON-NLS-1$
+    private final static String DEFAULT_FILE = "tickets.properties"; //$NON-NLS-1$
+    private final static String POSIX = "posix"; //$NON-NLS-1$
+    private final static String TEMPORARY_SUFFIX = ".tmp"; //$NON-NLS-1$
+    private final static char KEY_SEPARATOR = ' ';
+    private final static char VALUE_SEPARATOR = ':';
+
+    private final static Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------"); //$NON-NLS-1$
+    private final static Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------"); //$NON-NLS-1$
+
+    private final Path file;
+
+    /**
+     * Creates a new {@link QuickBaseFileTicketStore} that uses the file
+     * <code>.quickbase/tickets.properties</code> in the user's home directory.
+     */
+    public QuickBaseFileTicketStore()
+    {
+        this(Paths.get(System.getProperty("user.home"), DEFAULT_DIRECTORY, DEFAULT_FILE)); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates a new {@link QuickBaseFileTicketStore}.
+     *
+     * @param file the {@link Path} of the ticket file
+     */
+    public QuickBaseFileTicketStore(Path file)
+    {
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * @see QuickBaseTicketStore#load(String, String)
+     */
+    public synchronized String load(String realm, String user) throws QuickBaseException
+    {
+        // Expired and invalid entries were already removed by read():
+        //
+        String value = read().getProperty(key(realm, user));
+        return value != null ? value.substring(value.indexOf(VALUE_SEPARATOR) + 1) : null;
+    }
+
+    /**
+     * @see QuickBaseTicketStore#store(String, String, String, long)
+     */
+    public synchronized void store(String realm, String user, String ticket, long expiresAtMillis)
+    throws QuickBaseException
+    {
+        Properties tickets = read();
+        tickets.setProperty(key(realm, user), String.valueOf(expiresAtMillis) + VALUE_SEPARATOR + ticket);
+        write(tickets);
+    }
+
+    /**
+     * @see QuickBaseTicketStore#remove(String, String)
+     */
+    public synchronized void remove(String realm, String user) throws QuickBaseException
+    {
+        Properties tickets = read();
+        if (tickets.remove(key(realm, user)) != null)
+        {
+            write(tickets);
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static String key(String realm, String user)
+    {
+        return realm + KEY_SEPARATOR + user;
+    }
+
+    private Properties read() throws QuickBaseException
+    {
+        Properties tickets = new Properties();
+        try (InputStream input = Files.newInputStream(file))
+        {
+            tickets.load(input);
+        }
+        catch (NoSuchFileException noTicketsYet)
+        {
+            // Nothing stored yet
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Could not read ticket store " + file, exception); //$NON-NLS-1$
+        }
+        long now = System.currentTimeMillis();
+        for (String key: tickets.stringPropertyNames())
+        {
+            String value = tickets.getProperty(key);
+            int separator = value.indexOf(VALUE_SEPARATOR);
+            try
+            {
+                if (Long.parseLong(value.substring(0, Math.max(0, separator))) <= now)
+                {
+                    tickets.remove(key);
+                }
+            }
+            catch (NumberFormatException invalidEntry)
+            {
+                tickets.remove(key);
+            }
+        }
+        return tickets;
+    }
+
+    private void write(Properties tickets) throws QuickBaseException
+    {
+        boolean posix = file.getFileSystem().supportedFileAttributeViews().contains(POSIX);
+        Path temporary = null;
+        try
+        {
+            Path directory = file.getParent();
+            if (!Files.isDirectory(directory))
+            {
+                try
+                {
+                    Files.createDirectories(directory, attributes(posix, DIRECTORY_PERMISSIONS));
+                }
+                catch (FileAlreadyExistsException createdConcurrently)
+                {
+                    // Another process created the directory in the meantime
+                }
+            }
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), TEMPORARY_SUFFIX,
+                attributes(posix, FILE_PERMISSIONS));
+            try (OutputStream output = Files.newOutputStream(temporary))
+            {
+                tickets.store(output, null);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        }
+        catch (IOException exception)
+        {
+            deleteQuietly(temporary);
+            throw new QuickBaseException("Could not write ticket store " + file, exception); //$NON-NLS-1$
+        }
+    }
+
+    private static void deleteQuietly(Path temporary)
+    {
+        try
+        {
+            if (temporary != null)
+            {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException ignored)
+        {
+            // The original exception is more relevant
+        }
+    }
+
+    private static FileAttribute<?>[] attributes(boolean posix, Set<PosixFilePermission> permissions)
+    {
+        if (!posix)
+        {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(permissions)};
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseFuture.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The class {@link QuickBaseFuture} represents the result of a QuickBase operation that completes
+ * asynchronously, for example, a buffered write in a {@link QuickBaseWriteBuffer}. The future is
+ * completed by the SDK; client code can only wait for the result or cancel waiting for it.
+ *
+ * @param <$ResultType> the type of the operation's result
+ *
+ * @version $Revision$
+ */
+public class QuickBaseFuture<$ResultType> implements Future<$ResultType>
+{
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private $ResultType result;
+    private QuickBaseException exception;
+    private boolean cancelled;
+
+    QuickBaseFuture()
+    {
+        super();
+    }
+
+    /**
+     * Cancels waiting for the result. Cancelling the future does not necessarily undo or abort the
+     * underlying QuickBase operation.
+     *
+     * @param mayInterruptIfRunning ignored
+     * @return <code>true</code> if the future was cancelled, <code>false</code> if it was
+     * already completed
+     */
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        synchronized (latch)
+        {
+            if (isDone())
+            {
+                return false;
+            }
+            cancelled = true;
+        }
+        latch.countDown();
+        return true;
+    }
+
+    public boolean isCancelled()
+    {
+        synchronized (latch)
+        {
+            return cancelled;
+        }
+    }
+
+    public boolean isDone()
+    {
+        return latch.getCount() == 0;
+    }
+
+    public $ResultType get() throws InterruptedException, ExecutionException
+    {
+        latch.await();
+        return report();
+    }
+
+    public $ResultType get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!latch.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * Waits for the result and reports failures as a {@link QuickBaseException} rather than an
+     * {@link ExecutionException}.
+     *
+     * @return the result of the operation
+     * @throws QuickBaseException if the operation failed
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public $ResultType getResult() throws QuickBaseException, InterruptedException
+    {
+        latch.await();
+        synchronized (latch)
+        {
+            if (cancelled)
+            {
+                throw new CancellationException();
+            }
+            if (exception != null)
+            {
+                throw exception;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Completes the future successfully. Has no effect if the future is already done.
+     *
+     * @param result the result of the operation
+     * @return <code>true</code> if this call completed the future
+     */
+    boolean complete($ResultType result)
+    {
+        synchronized (latch)
+        {
+            if (isDone())
+            {
+                return false;
+            }
+            this.result = result;
+        }
+        latch.countDown();
+        return true;
+    }
+
+    /**
+     * Completes the future with a failure. Has no effect if the future is already done.
+     *
+     * @param exception the {@link QuickBaseException} that caused the operation to fail
+     * @return <code>true</code> if this call completed the future
+     */
+    boolean fail(QuickBaseException exception)
+    {
+        synchronized (latch)
+        {
+            if (isDone())
+            {
+                return false;
+            }
+            this.exception = exception;
+        }
+        latch.countDown();
+        return true;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private $ResultType report() throws ExecutionException
+    {
+        synchronized (latch)
+        {
+            if (cancelled)
+            {
+                throw new CancellationException();
+            }
+            if (exception != null)
+            {
+                throw new ExecutionException(exception);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseHedgingPolicy.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The class {@link QuickBaseHedgingPolicy} configures hedged requests for a
+ * {@link QuickBaseConnection}. If a read-only request (see {@link QuickBaseAPICall#isReadOnly()})
+ * has not been answered after a delay that corresponds to a given percentile of the recently
+ * observed latencies of the same API call, a duplicate request is sent. Whichever request answers
+ * first wins, and the other request is aborted. This reduces the tail latency caused by occasional
+ * slow server responses.
+ * <p/>
+ * To keep the additional load bounded, hedges are limited to a budget that is expressed as a
+ * percentage of all requests. No hedges are sent for an API call until enough latencies of that
+ * call have been observed.
+ *
+ * @see QuickBaseConnection#setHedgingPolicy(QuickBaseHedgingPolicy)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseHedgingPolicy
+{
+    private final static int WINDOW = 256;
+    private final static int MIN_SAMPLES = 20;
+    private final static double MAX_BUDGET = 10;
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final double budgetRatio;
+
+    private final Map<QuickBaseAPICall, Latencies> latencies = new EnumMap<QuickBaseAPICall, Latencies>(QuickBaseAPICall.class);
+    private double budget;
+    private long hedges;
+    private long hedgeWins;
+
+    /**
+     * Creates a new {@link QuickBaseHedgingPolicy}.
+     *
+     * @param percentile the latency percentile (between 0 and 100, exclusively) after which a
+     * hedge is sent, for example, <code>95</code>
+     * @param minDelayMillis the minimum delay (in milliseconds) before a hedge is sent
+     * @param budgetPercent the maximum number of hedges as a percentage of all requests, for
+     * example, <code>5</code>
+     */
+    public QuickBaseHedgingPolicy(double percentile, long minDelayMillis, double budgetPercent)
+    {
+        if (percentile <= 0 || percentile >= 100 || minDelayMillis < 0 || budgetPercent < 0)
+        {
+            throw new IllegalArgumentException("Invalid hedging parameters"); //$NON-NLS-1$
+        }
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.budgetRatio = budgetPercent/100;
+    }
+
+    /**
+     * Gets the number of hedged requests that were sent.
+     *
+     * @return the number of hedges
+     */
+    public synchronized long getHedges()
+    {
+        return hedges;
+    }
+
+    /**
+     * Gets the number of hedged requests that answered before the original request.
+     *
+     * @return the number of successful hedges
+     */
+    public synchronized long getHedgeWins()
+    {
+        return hedgeWins;
+    }
+
+    /**
+     * Gets the current hedging delay for an API call and accounts for a new request in the hedge
+     * budget.
+     *
+     * @param call the {@link QuickBaseAPICall}
+     * @return the delay in milliseconds, or <code>-1</code> if not enough latencies have been
+     * observed yet
+     */
+    synchronized long startRequest(QuickBaseAPICall call)
+    {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+        Latencies observed = latencies.get(call);
+        if (observed == null || observed.count < MIN_SAMPLES)
+        {
+            return -1;
+        }
+        return Math.max(minDelayMillis, observed.percentile(percentile));
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     *
+     * @return <code>true</code> if a hedge may be sent, <code>false</code> if the budget is used up
+     */
+    synchronized boolean acquireHedge()
+    {
+        if (budget < 1)
+        {
+            return false;
+        }
+        budget -= 1;
+        hedges++;
+        return true;
+    }
+
+    /**
+     * Returns a hedge that was taken from the budget but could not be sent.
+     */
+    synchronized void cancelHedge()
+    {
+        budget = Math.min(MAX_BUDGET, budget + 1);
+        hedges--;
+    }
+
+    /**
+     * Counts a hedge whose response was used instead of the response of the original request.
+     */
+    synchronized void recordHedgeWin()
+    {
+        hedgeWins++;
+    }
+
+    /**
+     * Records the latency of an original (not hedged) request. If the request was aborted
+     * because a hedge won, the time until the abort is recorded as a lower bound of the latency,
+     * so that the slow requests are still represented in the latency distribution.
+     *
+     * @param call the {@link QuickBaseAPICall}
+     * @param latencyMillis the latency in milliseconds
+     */
+    synchronized void recordLatency(QuickBaseAPICall call, long latencyMillis)
+    {
+        Latencies observed = latencies.get(call);
+        if (observed == null)
+        {
+            observed = new Latencies();
+            latencies.put(call, observed);
+        }
+        observed.add(latencyMillis);
+    }
+
+    /**
+     * A sliding window of the most recent latencies of an API call.
+     */
+    private static class Latencies
+    {
+        final long[] samples = new long[WINDOW];
+        int count;
+        int next;
+
+        void add(long latency)
+        {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+
+        long percentile(double percentile)
+        {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(percentile/100*count) - 1;
+            return sorted[Math.max(0, Math.min(index, count - 1))];
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseImportResult.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * The class <code>QuickBaseImportResult</code> holds the outcome of an
+ * {@link QuickBaseAPICall#API_ImportFromCSV} call: the number of added and updated records and
+ * the record IDs of all imported lines (in the order of the CSV lines).
+ *
+ * @version $Revision$
+ */
+class QuickBaseImportResult
+{
+    private int added;
+    private int updated;
+    private List<Integer> rids;
+
+    private QuickBaseImportResult(int added, int updated, List<Integer> rids)
+    {
+        this.added = added;
+        this.updated = updated;
+        this.rids = rids;
+    }
+
+    /**
+     * Extracts the import result from a QuickBase response.
+     *
+     * @param response the response {@link Document} of an ImportFromCSV call
+     * @return the corresponding {@link QuickBaseImportResult}
+     * @throws QuickBaseException if the response could not be processed
+     */
+    static QuickBaseImportResult parse(Document response) throws QuickBaseException
+    {
+        try
+        {
+            int added = parseCount(QuickBaseXPath.QDBAPI_NUM_RECS_ADDED.evaluate(response));
+            int updated = parseCount(QuickBaseXPath.QDBAPI_NUM_RECS_UPDATED.evaluate(response));
+            NodeList ridNodes = (NodeList)QuickBaseXPath.QDBAPI_RIDS_RID.evaluate(response, XPathConstants.NODESET);
+            List<Integer> rids = new ArrayList<Integer>(ridNodes.getLength());
+            for (int index = 0; index < ridNodes.getLength(); index++)
+            {
+                String rid = StringUtils.stripToNull(ridNodes.item(index).getTextContent());
+                rids.add(rid != null ? Integer.valueOf(rid) : null);
+            }
+            return new QuickBaseImportResult(added, updated, rids);
+        }
+        catch (XPathExpressionException xpathException)
+        {
+            throw new QuickBaseException(xpathException);
+        }
+    }
+
+    int getAdded()
+    {
+        return added;
+    }
+
+    int getUpdated()
+    {
+        return updated;
+    }
+
+    /**
+     * Gets the record IDs of the imported lines.
+     *
+     * @return the record IDs, in the order of the CSV lines (may be shorter than the number of
+     * lines if QuickBase did not report all record IDs)
+     */
+    List<Integer> getRecordIDs()
+    {
+        return Collections.unmodifiableList(rids);
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static int parseCount(String count)
+    {
+        count = StringUtils.stripToNull(count);
+        return count != null ? Integer.parseInt(count) : 0;
+    }
+}
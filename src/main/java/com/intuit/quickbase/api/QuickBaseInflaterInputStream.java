@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseInflaterInputStream.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The class <code>QuickBaseInflaterInputStream</code> decompresses a gzip or deflate encoded
+ * response body. Unlike {@link java.util.zip.GZIPInputStream} and
+ * {@link java.util.zip.InflaterInputStream}, it does not allocate a new input buffer and a new
+ * {@link Inflater} for every response: the input buffer is borrowed from a
+ * {@link QuickBaseBufferPool}, and the {@link Inflater} (with its checksum) is taken from a
+ * bounded pool and reset when the stream is closed. The gzip and zlib headers and trailers are
+ * processed by the stream itself, so that a single kind of {@link Inflater} (for raw deflate
+ * data) serves all encodings. The stream also counts the compressed and the decompressed bytes,
+ * so that no additional counting streams are needed.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseInflaterInputStream extends InputStream
+{
+    private final static int MAX_IDLE_DECODERS = QuickBaseConnection.MAX_CONNECTIONS*2;
+    private final static BlockingQueue<Decoder> DECODERS = new ArrayBlockingQueue<Decoder>(MAX_IDLE_DECODERS);
+    private final static int GZIP_MAGIC_1 = 0x1F;
+    private final static int GZIP_MAGIC_2 = 0x8B;
+    private final static int METHOD_DEFLATE = 8;
+    private final static int FLAG_HEADER_CRC = 2;
+    private final static int FLAG_EXTRA = 4;
+    private final static int FLAG_NAME = 8;
+    private final static int FLAG_COMMENT = 16;
+    private final static int FLAG_DICTIONARY = 0x20;
+
+    /**
+     * The encodings of compressed response bodies.
+     */
+    enum Format
+    {
+        /** A gzip stream (RFC 1952), possibly consisting of several members. **/
+        GZIP,
+
+        /** A zlib stream (RFC 1950), or raw deflate data (RFC 1951) as sent by some servers. **/
+        DEFLATE
+    }
+
+    private final InputStream input;
+    private final QuickBaseBufferPool pool;
+    private final AtomicLong compressedBytes;
+    private final AtomicLong decompressedBytes;
+    private final boolean gzip;
+    private byte[] buffer;
+    private Decoder decoder;
+    private Checksum checksum; // null for raw deflate data
+    private int position;
+    private int limit;
+    private boolean eof;
+    private final byte[] single = new byte[1];
+
+    /**
+     * Creates a new <code>QuickBaseInflaterInputStream</code> and reads the header of the
+     * compressed data.
+     *
+     * @param input the compressed {@link InputStream}
+     * @param format the {@link Format} of the compressed data
+     * @param pool the {@link QuickBaseBufferPool} that provides the input buffer
+     * @param compressedBytes the counter of compressed bytes
+     * @param decompressedBytes the counter of decompressed bytes
+     * @throws IOException if the header could not be read or is invalid
+     */
+    QuickBaseInflaterInputStream(InputStream input, Format format, QuickBaseBufferPool pool, AtomicLong compressedBytes,
+        AtomicLong decompressedBytes) throws IOException
+    {
+        this.input = input;
+        this.pool = pool;
+        this.compressedBytes = compressedBytes;
+        this.decompressedBytes = decompressedBytes;
+        this.gzip = format == Format.GZIP;
+        this.buffer = pool.acquire();
+        Decoder pooled = DECODERS.poll();
+        this.decoder = pooled != null? pooled:new Decoder();
+        try
+        {
+            if (gzip)
+            {
+                readGzipHeader(readByte());
+            }
+            else
+            {
+                readDeflateHeader();
+            }
+        }
+        catch (IOException exception)
+        {
+            close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return read(single, 0, 1) == 1? single[0] & 0xFF:-1;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException
+    {
+        if (decoder == null)
+        {
+            throw new IOException("Stream closed"); //$NON-NLS-1$
+        }
+        if (length == 0)
+        {
+            return 0;
+        }
+        Inflater inflater = decoder.inflater;
+        while (!eof)
+        {
+            int count;
+            try
+            {
+                count = inflater.inflate(target, offset, length);
+            }
+            catch (DataFormatException exception)
+            {
+                throw new ZipException(exception.getMessage());
+            }
+            if (count > 0)
+            {
+                if (checksum != null)
+                {
+                    checksum.update(target, offset, count);
+                }
+                decompressedBytes.addAndGet(count);
+                return count;
+            }
+            if (inflater.finished())
+            {
+                position = limit - inflater.getRemaining();
+                finishMember();
+            }
+            else if (inflater.needsDictionary())
+            {
+                throw new ZipException("Preset dictionaries are not supported"); //$NON-NLS-1$
+            }
+            else if (inflater.needsInput())
+            {
+                if (position == limit && !fill())
+                {
+                    throw new EOFException("Unexpected end of compressed data"); //$NON-NLS-1$
+                }
+                inflater.setInput(buffer, position, limit - position);
+                position = limit;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the {@link Inflater} and the input buffer to their pools and closes the compressed
+     * {@link InputStream}.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (decoder == null)
+        {
+            return;
+        }
+        decoder.inflater.reset();
+        if (!DECODERS.offer(decoder))
+        {
+            decoder.inflater.end();
+        }
+        decoder = null;
+        pool.release(buffer);
+        buffer = null;
+        input.close();
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    /**
+     * A pooled {@link Inflater} for raw deflate data, together with the checksums of the
+     * surrounding formats.
+     */
+    private static class Decoder
+    {
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc32 = new CRC32();
+        final Adler32 adler32 = new Adler32();
+    }
+
+    private void readGzipHeader(int first) throws IOException
+    {
+        if (first != GZIP_MAGIC_1 || readByte() != GZIP_MAGIC_2)
+        {
+            throw new ZipException("Not in gzip format"); //$NON-NLS-1$
+        }
+        if (readByte() != METHOD_DEFLATE)
+        {
+            throw new ZipException("Unsupported compression method"); //$NON-NLS-1$
+        }
+        int flags = readByte();
+        skip(6); // modification time, extra flags, operating system
+        if ((flags & FLAG_EXTRA) != 0)
+        {
+            skip(readByte() | readByte() << 8);
+        }
+        if ((flags & FLAG_NAME) != 0)
+        {
+            while (readByte() != 0)
+            {
+                // Skip the file name
+            }
+        }
+        if ((flags & FLAG_COMMENT) != 0)
+        {
+            while (readByte() != 0)
+            {
+                // Skip the comment
+            }
+        }
+        if ((flags & FLAG_HEADER_CRC) != 0)
+        {
+            skip(2);
+        }
+        decoder.crc32.reset();
+        checksum = decoder.crc32;
+    }
+
+    /**
+     * Detects whether deflate encoded data has a zlib header (as required by HTTP) or is raw
+     * deflate data (as sent by some servers).
+     */
+    private void readDeflateHeader() throws IOException
+    {
+        while (limit - position < 2 && fill())
+        {
+            // Read the first two bytes
+        }
+        if (limit - position < 2)
+        {
+            return;
+        }
+        int cmf = buffer[position] & 0xFF;
+        int flags = buffer[position + 1] & 0xFF;
+        if ((cmf & 0x0F) == METHOD_DEFLATE && (cmf << 8 | flags) % 31 == 0)
+        {
+            if ((flags & FLAG_DICTIONARY) != 0)
+            {
+                throw new ZipException("Preset dictionaries are not supported"); //$NON-NLS-1$
+            }
+            position += 2;
+            decoder.adler32.reset();
+            checksum = decoder.adler32;
+        }
+    }
+
+    /**
+     * Verifies the trailer of a completed gzip member or zlib stream. A gzip stream may contain
+     * further members, which are decompressed as well.
+     */
+    private void finishMember() throws IOException
+    {
+        if (gzip)
+        {
+            long crc = readByte() | readByte() << 8 | readByte() << 16 | (long)readByte() << 24;
+            skip(4); // uncompressed size (modulo 2^32)
+            if (crc != checksum.getValue())
+            {
+                throw new ZipException("Corrupt gzip data (invalid CRC)"); //$NON-NLS-1$
+            }
+            int next = position < limit || fill()? readByte():-1;
+            if (next < 0)
+            {
+                eof = true;
+                return;
+            }
+            decoder.inflater.reset();
+            readGzipHeader(next);
+            return;
+        }
+        if (checksum != null)
+        {
+            long adler = (long)readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+            if (adler != checksum.getValue())
+            {
+                throw new ZipException("Corrupt deflate data (invalid checksum)"); //$NON-NLS-1$
+            }
+        }
+        eof = true;
+    }
+
+    private int readByte() throws IOException
+    {
+        if (position == limit && !fill())
+        {
+            throw new EOFException("Unexpected end of compressed data"); //$NON-NLS-1$
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private void skip(int count) throws IOException
+    {
+        for (int index = 0; index < count; index++)
+        {
+            readByte();
+        }
+    }
+
+    /**
+     * Reads more compressed data into the buffer (after the unconsumed data, if any).
+     *
+     * @return <code>false</code> if the end of the compressed data was reached
+     */
+    private boolean fill() throws IOException
+    {
+        if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int count = input.read(buffer, limit, buffer.length - limit);
+        if (count <= 0)
+        {
+            return false;
+        }
+        compressedBytes.addAndGet(count);
+        limit += count;
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBasePooledOutputStream.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The class <code>QuickBasePooledOutputStream</code> collects written bytes in buffers that are
+ * borrowed from a {@link QuickBaseBufferPool}. The buffers must be returned by calling
+ * {@link #release()} when the content is no longer needed.
+ *
+ * @version $Revision$
+ */
+final class QuickBasePooledOutputStream extends OutputStream
+{
+    private final QuickBaseBufferPool pool;
+    private final List<byte[]> buffers = new ArrayList<byte[]>(4);
+    private int[] filled = new int[4];
+    private byte[] current;
+    private int position;
+    private long size;
+
+    QuickBasePooledOutputStream(QuickBaseBufferPool pool)
+    {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int data)
+    {
+        if (current == null || position == current.length)
+        {
+            nextBuffer();
+        }
+        current[position++] = (byte)data;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length)
+    {
+        while (length > 0)
+        {
+            if (current == null || position == current.length)
+            {
+                nextBuffer();
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(data, offset, current, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    /**
+     * Encodes characters directly into the pooled buffers.
+     *
+     * @param text the characters
+     * @param encoder the {@link CharsetEncoder} (which must replace malformed input)
+     */
+    void write(CharSequence text, CharsetEncoder encoder)
+    {
+        CharBuffer input = CharBuffer.wrap(text);
+        encoder.reset();
+        boolean flushed = false;
+        boolean overflow = false;
+        while (true)
+        {
+            if (current == null || position == current.length || overflow)
+            {
+                nextBuffer();
+            }
+            ByteBuffer output = ByteBuffer.wrap(current, position, current.length - position);
+            CoderResult result = flushed ? encoder.flush(output) : encoder.encode(input, output, true);
+            size += output.position() - position;
+            position = output.position();
+            overflow = result.isOverflow();
+            if (overflow)
+            {
+                // Continue with the next buffer (the current buffer may not be completely full
+                // if a multi-byte sequence did not fit):
+                //
+                continue;
+            }
+            if (flushed)
+            {
+                return;
+            }
+            flushed = true;
+        }
+    }
+
+    /**
+     * Gets the number of bytes that were written.
+     *
+     * @return the size of the content
+     */
+    long size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes the content to another stream.
+     *
+     * @param output the {@link OutputStream}
+     * @throws IOException if the content could not be written
+     */
+    void writeTo(OutputStream output) throws IOException
+    {
+        int last = buffers.size() - 1;
+        for (int index = 0; index <= last; index++)
+        {
+            output.write(buffers.get(index), 0, index == last ? position : filled[index]);
+        }
+    }
+
+    /**
+     * Returns all buffers to the pool. The content is discarded.
+     */
+    void release()
+    {
+        for (byte[] buffer: buffers)
+        {
+            pool.release(buffer);
+        }
+        buffers.clear();
+        current = null;
+        position = 0;
+        size = 0;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private void nextBuffer()
+    {
+        if (current != null)
+        {
+            int index = buffers.size() - 1;
+            if (index == filled.length)
+            {
+                filled = Arrays.copyOf(filled, index*2);
+            }
+            filled[index] = position;
+        }
+        current = pool.acquire();
+        buffers.add(current);
+        position = 0;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBasePooledRequestEntity.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * The class <code>QuickBasePooledRequestEntity</code> is a {@link RequestEntity} whose content is
+ * held in pooled buffers (see {@link QuickBasePooledOutputStream}). The buffers are returned to
+ * the pool by {@link #release()} after the request was sent.
+ *
+ * @version $Revision$
+ */
+final class QuickBasePooledRequestEntity implements RequestEntity
+{
+    private final QuickBasePooledOutputStream content;
+    private final String contentType;
+
+    QuickBasePooledRequestEntity(QuickBasePooledOutputStream content, String contentType)
+    {
+        this.content = content;
+        this.contentType = contentType;
+    }
+
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    public void writeRequest(OutputStream output) throws IOException
+    {
+        content.writeTo(output);
+    }
+
+    public long getContentLength()
+    {
+        return content.size();
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    void release()
+    {
+        content.release();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBasePriority.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The enumeration {@link QuickBasePriority} defines the priority lanes of a
+ * {@link QuickBaseRateLimiter}. The priority applies to all requests that are issued by the
+ * current thread (and by the parallel requests that it starts, for example, for bulk operations).
+ * Requests are {@link #INTERACTIVE} unless specified otherwise:
+ * <small><pre>
+ * QuickBasePriority previous = QuickBasePriority.BULK.makeCurrent();
+ * try
+ * {
+ *     table.upsert(rows, keyField);
+ * }
+ * finally
+ * {
+ *     previous.makeCurrent();
+ * }
+ * </pre></small>
+ *
+ * @version $Revision$
+ */
+public enum QuickBasePriority
+{
+    /** Requests whose results a user is waiting for. **/ INTERACTIVE,
+    /** Background and batch requests that only use capacity left by interactive requests. **/ BULK;
+
+    private final static ThreadLocal<QuickBasePriority> CURRENT = new ThreadLocal<QuickBasePriority>()
+    {
+        @Override
+        protected QuickBasePriority initialValue()
+        {
+            return INTERACTIVE;
+        }
+    };
+
+    /**
+     * Gets the priority of the current thread.
+     *
+     * @return the current {@link QuickBasePriority}
+     */
+    public static QuickBasePriority current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes this priority the priority of the current thread.
+     *
+     * @return the previous priority of the current thread
+     */
+    public QuickBasePriority makeCurrent()
+    {
+        QuickBasePriority previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+}
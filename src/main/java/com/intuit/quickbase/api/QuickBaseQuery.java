@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseQuery.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The class <code>QuickBaseQuery</code> provides helper methods for composing QuickBase query
+ * strings. In particular, it splits large sets of values into several compact queries of the form
+ * <code>{fid.EX.'value1'}OR{fid.EX.'value2'}OR...</code>, so that each query stays within the
+ * limits that QuickBase imposes on the length and the number of criteria of a query.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseQuery
+{
+    /** The maximum length of a generated query (sent as part of an XML POST request). **/
+    final static int MAX_QUERY_LENGTH = 16000;
+
+    /** The maximum number of criteria in a generated query. **/
+    final static int MAX_CRITERIA = 100;
+
+    private final static String OR = "OR"; //$NON-NLS-1$
+    private final static String AND = "AND"; //$NON-NLS-1$
+    private final static char QUOTE = '\'';
+
+    private QuickBaseQuery()
+    {
+        super();
+    }
+
+    /**
+     * Creates a single criterion of the form <code>{fid.EX.'value'}</code>. Numeric values are
+     * not quoted, which keeps queries for record IDs compact.
+     *
+     * @param fieldID the field ID
+     * @param value the value (must not contain a single quote)
+     * @return the query criterion
+     */
+    static String equalTo(int fieldID, Object value)
+    {
+        if (value instanceof Number)
+        {
+            return "{" + fieldID + ".EX." + value + '}'; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return "{" + fieldID + ".EX." + QUOTE + value + QUOTE + '}'; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Creates a query criterion that matches a field whose value is greater than a number.
+     *
+     * @param fieldID the ID of the field
+     * @param value the number
+     * @return the query criterion
+     */
+    static String greaterThan(int fieldID, long value)
+    {
+        return "{" + fieldID + ".GT." + value + '}'; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Creates a query criterion that matches a field whose value is less than or equal to a
+     * number.
+     *
+     * @param fieldID the ID of the field
+     * @param value the number
+     * @return the query criterion
+     */
+    static String atMost(int fieldID, long value)
+    {
+        return "{" + fieldID + ".LTE." + value + '}'; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Creates a query criterion that matches a date field whose value is on or after a point in
+     * time.
+     *
+     * @param fieldID the ID of the field
+     * @param millis the point in time (milliseconds since the epoch)
+     * @return the query criterion
+     */
+    static String onOrAfter(int fieldID, long millis)
+    {
+        return "{" + fieldID + ".OAF." + millis + '}'; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Combines two queries so that both must match.
+     *
+     * @param first the first query
+     * @param second the second query (may be empty or <code>null</code>)
+     * @return the combined query
+     */
+    static String and(String first, String second)
+    {
+        if (second == null || second.trim().isEmpty())
+        {
+            return first;
+        }
+        return '(' + first + ')' + AND + '(' + second + ')';
+    }
+
+    /**
+     * Checks whether a value can be used in a query criterion. QuickBase does not provide a way of
+     * escaping single quotes inside of a quoted query value.
+     *
+     * @param value the value
+     * @return <code>true</code> if the value can be used in a query
+     */
+    static boolean isQueryable(String value)
+    {
+        return value != null && value.indexOf(QUOTE) < 0;
+    }
+
+    /**
+     * Splits a collection of values into a number of queries that match records whose field
+     * contains any of the values.
+     *
+     * @param fieldID the ID of the field to compare
+     * @param values the values (none of them may contain a single quote)
+     * @return the list of queries (empty if there are no values)
+     */
+    static List<String> anyOf(int fieldID, Collection<?> values)
+    {
+        return anyOf(fieldID, values, MAX_QUERY_LENGTH, MAX_CRITERIA);
+    }
+
+    /**
+     * Splits a collection of values into a number of queries that match records whose field
+     * contains any of the values.
+     *
+     * @param fieldID the ID of the field to compare
+     * @param values the values (none of them may contain a single quote)
+     * @param maxLength the maximum length of each query
+     * @param maxCriteria the maximum number of criteria in each query
+     * @return the list of queries (empty if there are no values)
+     */
+    static List<String> anyOf(int fieldID, Collection<?> values, int maxLength, int maxCriteria)
+    {
+        List<String> queries = new ArrayList<String>();
+        StringBuilder query = new StringBuilder();
+        int criteria = 0;
+        for (Object value: values)
+        {
+            String criterion = equalTo(fieldID, value);
+            if (criteria > 0 && (criteria >= maxCriteria || query.length() + OR.length() + criterion.length() > maxLength))
+            {
+                queries.add(query.toString());
+                query.setLength(0);
+                criteria = 0;
+            }
+            if (criteria > 0)
+            {
+                query.append(OR);
+            }
+            query.append(criterion);
+            criteria++;
+        }
+        if (criteria > 0)
+        {
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+}
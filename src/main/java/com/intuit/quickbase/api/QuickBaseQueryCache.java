@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseQueryCache.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class {@link QuickBaseQueryCache} caches the results of queries that are performed through
+ * a {@link QuickBaseDatabase}. Cached results are not simply trusted for a fixed amount of time;
+ * instead, every cache hit is revalidated by comparing the modification times that QuickBase
+ * reports through {@link QuickBaseAPICall#API_GetDBInfo}. If the table has not changed since the
+ * result was cached, the cached records are returned for the cost of that single, small call.
+ * <p/>
+ * The cache is bounded by the number of cached queries and by the total number of cached records;
+ * the least recently used results are evicted first.
+ *
+ * @see QuickBaseDatabase#setQueryCache(QuickBaseQueryCache)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseQueryCache
+{
+    private final int maxEntries;
+    private final int maxRecords;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int records;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long evictions;
+
+    /**
+     * Creates a new {@link QuickBaseQueryCache}.
+     *
+     * @param maxEntries the maximum number of cached query results
+     * @param maxRecords the maximum number of records in all cached query results
+     */
+    public QuickBaseQueryCache(int maxEntries, int maxRecords)
+    {
+        if (maxEntries <= 0 || maxRecords <= 0)
+        {
+            throw new IllegalArgumentException("Invalid cache limits"); //$NON-NLS-1$
+        }
+        this.maxEntries = maxEntries;
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * Gets the number of queries that were answered from the cache after successful revalidation.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the number of queries that were not cached at all.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Gets the number of queries whose cached result was discarded because the table had changed.
+     *
+     * @return the number of stale cache entries
+     */
+    public synchronized long getStale()
+    {
+        return stale;
+    }
+
+    /**
+     * Gets the number of cached results that were removed to keep the cache within its limits.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void invalidateAll()
+    {
+        entries.clear();
+        records = 0;
+    }
+
+    /**
+     * Converts the {@link QuickBaseQueryCache} to a string.
+     *
+     * @return a string representation of the cache statistics
+     */
+    public synchronized String toString()
+    {
+        return getClass().getSimpleName() + "[size=" + entries.size() + ", records=" + records //$NON-NLS-1$ //$NON-NLS-2$
+        + ", hits=" + hits + ", misses=" + misses + ", stale=" + stale //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + ", evictions=" + evictions + ']'; //$NON-NLS-1$
+    }
+
+    /**
+     * Gets a cached query result if it is still valid.
+     *
+     * @param key the cache key
+     * @param stamp the current modification stamp of the queried table
+     * @return a copy of the cached records, or <code>null</code> if the result is not cached or
+     * is outdated
+     */
+    synchronized List<QuickBaseRecord> get(String key, String stamp)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+        if (!entry.stamp.equals(stamp))
+        {
+            entries.remove(key);
+            records -= entry.records.size();
+            stale++;
+            return null;
+        }
+        hits++;
+        return copy(entry.records);
+    }
+
+    /**
+     * Adds a query result to the cache. Results that exceed the record limit on their own are not
+     * cached.
+     *
+     * @param key the cache key
+     * @param stamp the modification stamp of the queried table (obtained before the query)
+     * @param result the records of the query result
+     */
+    synchronized void put(String key, String stamp, List<QuickBaseRecord> result)
+    {
+        if (result.size() > maxRecords)
+        {
+            return;
+        }
+        Entry previous = entries.remove(key);
+        if (previous != null)
+        {
+            records -= previous.records.size();
+        }
+        entries.put(key, new Entry(stamp, copy(result)));
+        records += result.size();
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || records > maxRecords) && eldest.hasNext())
+        {
+            records -= eldest.next().getValue().records.size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static List<QuickBaseRecord> copy(List<QuickBaseRecord> records)
+    {
+        List<QuickBaseRecord> copy = new ArrayList<QuickBaseRecord>(records.size());
+        for (QuickBaseRecord record: records)
+        {
+            copy.add(record.copy());
+        }
+        return copy;
+    }
+
+    private static class Entry
+    {
+        final String stamp;
+        final List<QuickBaseRecord> records;
+
+        Entry(String stamp, List<QuickBaseRecord> records)
+        {
+            this.stamp = stamp;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseRateLimiter.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class {@link QuickBaseRateLimiter} limits the rate of requests that are sent to QuickBase
+ * using token buckets. QuickBase enforces request limits per realm and per application, so every
+ * request needs a token from the bucket of its realm and from the bucket of its database.
+ * <p/>
+ * Requests are scheduled in two priority lanes (see {@link QuickBasePriority}). An
+ * {@link QuickBasePriority#INTERACTIVE} request takes a token as soon as one is available.
+ * A {@link QuickBasePriority#BULK} request only takes a token if no interactive request is waiting
+ * for the same buckets and if the buckets retain a reserve for interactive bursts afterwards. Bulk
+ * work therefore only consumes capacity that interactive requests are not using. An interactive
+ * request only counts as waiting for the buckets that are actually short of tokens, so that an
+ * interactive backlog of one database does not hold back bulk requests for other databases of the
+ * same realm.
+ *
+ * @see QuickBaseConnection#setRateLimiter(QuickBaseRateLimiter)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseRateLimiter
+{
+    private final static char SEPARATOR = '/';
+    private final static double INTERACTIVE_RESERVE = 0.25;
+
+    private final double realmRate;
+    private final double realmBurst;
+    private final double appRate;
+    private final double appBurst;
+    private final QuickBaseClock clock;
+
+    private final Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+
+    /**
+     * Creates a new {@link QuickBaseRateLimiter} based on the system clock.
+     *
+     * @param realmRequestsPerSecond the sustained request rate per realm
+     * @param realmBurst the maximum number of requests per realm that may be sent at once
+     * @param appRequestsPerSecond the sustained request rate per database
+     * @param appBurst the maximum number of requests per database that may be sent at once
+     */
+    public QuickBaseRateLimiter(double realmRequestsPerSecond, int realmBurst, double appRequestsPerSecond,
+    int appBurst)
+    {
+        this(realmRequestsPerSecond, realmBurst, appRequestsPerSecond, appBurst, QuickBaseClock.SYSTEM);
+    }
+
+    /**
+     * Creates a new {@link QuickBaseRateLimiter}.
+     *
+     * @param realmRequestsPerSecond the sustained request rate per realm
+     * @param realmBurst the maximum number of requests per realm that may be sent at once
+     * @param appRequestsPerSecond the sustained request rate per database
+     * @param appBurst the maximum number of requests per database that may be sent at once
+     * @param clock the {@link QuickBaseClock} used for refilling the buckets
+     */
+    public QuickBaseRateLimiter(double realmRequestsPerSecond, int realmBurst, double appRequestsPerSecond,
+    int appBurst, QuickBaseClock clock)
+    {
+        if (realmRequestsPerSecond <= 0 || realmBurst < 1 || appRequestsPerSecond <= 0 || appBurst < 1)
+        {
+            throw new IllegalArgumentException("Invalid rate limits"); //$NON-NLS-1$
+        }
+        this.realmRate = realmRequestsPerSecond/TimeUnit.SECONDS.toNanos(1);
+        this.realmBurst = realmBurst;
+        this.appRate = appRequestsPerSecond/TimeUnit.SECONDS.toNanos(1);
+        this.appBurst = appBurst;
+        this.clock = clock;
+    }
+
+    /**
+     * Waits until a request may be sent and takes the corresponding tokens.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param dbid the database ID of the request
+     * @param priority the {@link QuickBasePriority} of the request
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public void acquire(String realm, String dbid, QuickBasePriority priority) throws InterruptedException
+    {
+        try
+        {
+            acquire(realm, dbid, priority, null);
+        }
+        catch (QuickBaseException exception)
+        {
+            // Waiting only fails like this for calls that have a context
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Tries to take the tokens for a request without waiting.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param dbid the database ID of the request
+     * @param priority the {@link QuickBasePriority} of the request
+     * @return <code>0</code> if the request may be sent, otherwise the estimated time (in
+     * nanoseconds) until the request should be tried again
+     */
+    public synchronized long tryAcquire(String realm, String dbid, QuickBasePriority priority)
+    {
+        Bucket realmBucket = bucket(realm, realmRate, realmBurst);
+        Bucket appBucket = bucket(realm + SEPARATOR + dbid, appRate, appBurst);
+        return tryAcquire(realmBucket, appBucket, priority == QuickBasePriority.INTERACTIVE, null);
+    }
+
+    /**
+     * Waits until a request may be sent and takes the corresponding tokens. The wait ends early
+     * if the {@link QuickBaseCallContext} of the request is cancelled or its deadline passes.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param dbid the database ID of the request
+     * @param priority the {@link QuickBasePriority} of the request
+     * @param context the {@link QuickBaseCallContext} of the request, or <code>null</code>
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws QuickBaseException if the context was cancelled or its deadline passed
+     */
+    void acquire(String realm, String dbid, QuickBasePriority priority, QuickBaseCallContext context)
+    throws InterruptedException, QuickBaseException
+    {
+        boolean interactive = priority == QuickBasePriority.INTERACTIVE;
+        Bucket realmBucket;
+        Bucket appBucket;
+        synchronized (this)
+        {
+            realmBucket = bucket(realm, realmRate, realmBurst);
+            appBucket = bucket(realm + SEPARATOR + dbid, appRate, appBurst);
+        }
+        Waiter waiter = interactive ? new Waiter() : null;
+        try
+        {
+            long wait;
+            while ((wait = tryAcquire(realmBucket, appBucket, interactive, waiter)) > 0)
+            {
+                clock.sleep(QuickBaseCallContext.limitWait(context, wait));
+            }
+        }
+        finally
+        {
+            if (interactive)
+            {
+                synchronized (this)
+                {
+                    waiter.update(realmBucket, appBucket, false, false);
+                }
+            }
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private Bucket bucket(String key, double rate, double burst)
+    {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null)
+        {
+            bucket = new Bucket(rate, burst, clock.nanoTime());
+            buckets.put(key, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * Takes the tokens for a request if possible. A waiting interactive request is registered
+     * with the buckets that are short of tokens (and only with those).
+     *
+     * @param waiter the {@link Waiter} of a waiting interactive request, or <code>null</code>
+     */
+    private synchronized long tryAcquire(Bucket realmBucket, Bucket appBucket, boolean interactive, Waiter waiter)
+    {
+        long now = clock.nanoTime();
+        realmBucket.refill(now);
+        appBucket.refill(now);
+        long realmWait = realmBucket.waitTime(interactive);
+        long appWait = appBucket.waitTime(interactive);
+        long wait = Math.max(realmWait, appWait);
+        if (waiter != null)
+        {
+            waiter.update(realmBucket, appBucket, realmWait > 0, appWait > 0);
+        }
+        if (wait > 0)
+        {
+            return wait;
+        }
+        realmBucket.tokens -= 1;
+        appBucket.tokens -= 1;
+        return 0;
+    }
+
+    /**
+     * The buckets that a waiting interactive request is registered with.
+     */
+    private static class Waiter
+    {
+        boolean realm;
+        boolean app;
+
+        void update(Bucket realmBucket, Bucket appBucket, boolean realmShort, boolean appShort)
+        {
+            if (realm != realmShort)
+            {
+                realmBucket.interactiveWaiting += realmShort ? 1 : -1;
+                realm = realmShort;
+            }
+            if (app != appShort)
+            {
+                appBucket.interactiveWaiting += appShort ? 1 : -1;
+                app = appShort;
+            }
+        }
+    }
+
+    /**
+     * A token bucket for a realm or a database.
+     */
+    private static class Bucket
+    {
+        final double rate;
+        final double burst;
+        double tokens;
+        long updated;
+        int interactiveWaiting;
+
+        Bucket(double rate, double burst, long now)
+        {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.updated = now;
+        }
+
+        void refill(long now)
+        {
+            tokens = Math.min(burst, tokens + (now - updated)*rate);
+            updated = now;
+        }
+
+        long waitTime(boolean interactive)
+        {
+            double required = 1;
+            if (!interactive)
+            {
+                if (interactiveWaiting > 0)
+                {
+                    // Interactive requests go first; check again after the next token arrives:
+                    //
+                    return Math.max(1, (long)Math.ceil(1/rate));
+                }
+                required += INTERACTIVE_RESERVE*(burst - 1);
+            }
+            return tokens >= required ? 0 : Math.max(1, (long)Math.ceil((required - tokens)/rate));
+        }
+    }
+}
@@ -13,8 +13,11 @@
 
 package com.intuit.quickbase.api;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The class {@link QuickBaseRecord} represents an individual record that was received in response
@@ -22,6 +25,11 @@ import java.util.Map;
  * <code>QuickBaseContentHandler</code>) will create the {@link QuickBaseRecord} and set the
  * individual fields using the {@link #setField(int, String)} method. Client code can access the
  * fields as proper Java objects using the {@link #getField(QuickBaseField)} method.
+ * <p/>
+ * Records can also be modified by client code using {@link #setField(QuickBaseField, Object)}.
+ * The record keeps track of the fields that were changed since it was loaded, so that
+ * {@link QuickBaseTable#editRecord(QuickBaseRecord)} only needs to send those fields back to
+ * QuickBase.
  *
  * @author Mirko Raner
  * @version $Revision: 13 $ $Change: 714052 $
@@ -29,10 +37,14 @@ import java.util.Map;
 public class QuickBaseRecord
 {
     private Map<Integer, String> recordData;
+    private Map<Integer, String> originalData;
+    private int recordID;
+    private String updateID;
 
     protected QuickBaseRecord()
     {
         recordData = new HashMap<Integer, String>();
+        originalData = new LinkedHashMap<Integer, String>();
     }
 
     /**
@@ -58,6 +70,75 @@ public class QuickBaseRecord
         return field.get(recordData.get(field.getID()));
     }
 
+    /**
+     * Changes a field of the record. The change is only recorded locally; it is sent to QuickBase
+     * by {@link QuickBaseTable#editRecord(QuickBaseRecord)}. Setting a field back to the value it
+     * had when the record was loaded removes it from the set of modified fields again.
+     *
+     * @param <$FieldType> the type parameter specifying the type that represents the field in Java
+     * @param field the {@link QuickBaseField} reference that specifies which field to change
+     * @param value the new field value
+     */
+    public <$FieldType> void setField(QuickBaseField<$FieldType> field, $FieldType value)
+    {
+        int fieldID = field.getID();
+        String newValue = value != null ? field.toString(value) : null;
+        String oldValue = recordData.get(fieldID);
+        if (equal(oldValue, newValue))
+        {
+            return;
+        }
+        if (!originalData.containsKey(fieldID))
+        {
+            originalData.put(fieldID, oldValue);
+        }
+        else if (equal(originalData.get(fieldID), newValue))
+        {
+            originalData.remove(fieldID);
+        }
+        recordData.put(fieldID, newValue);
+    }
+
+    /**
+     * Gets the record ID (field 3) of the record.
+     *
+     * @return the record ID, or <code>0</code> if the record ID was not included in the response
+     */
+    public int getRecordID()
+    {
+        return recordID;
+    }
+
+    /**
+     * Gets the update ID that QuickBase uses for detecting conflicting edits of the record.
+     *
+     * @return the update ID, or <code>null</code> if it was not included in the response
+     */
+    public String getUpdateID()
+    {
+        return updateID;
+    }
+
+    /**
+     * Checks whether any fields were changed since the record was loaded (or last saved).
+     *
+     * @return <code>true</code> if the record has unsaved changes, <code>false</code> otherwise
+     */
+    public boolean isModified()
+    {
+        return !originalData.isEmpty();
+    }
+
+    /**
+     * Gets the IDs of all fields that were changed since the record was loaded (or last saved).
+     *
+     * @return an unmodifiable {@link Set} of field IDs (in the order of modification)
+     */
+    public Set<Integer> getModifiedFieldIDs()
+    {
+        return Collections.unmodifiableSet(originalData.keySet());
+    }
+
     /**
      * Converts the {@link QuickBaseRecord} to a string.
      *
@@ -67,4 +148,75 @@ public class QuickBaseRecord
     {
         return getClass().getName() + recordData;
     }
+
+    void setRecordID(int recordID)
+    {
+        this.recordID = recordID;
+    }
+
+    void setUpdateID(String updateID)
+    {
+        this.updateID = updateID;
+    }
+
+    /**
+     * Gets the plain string value of a field.
+     *
+     * @param fieldID the ID of the field
+     * @return the plain string value
+     */
+    String getFieldValue(int fieldID)
+    {
+        return recordData.get(fieldID);
+    }
+
+    /**
+     * Creates a copy of the record's current field values, record ID, and update ID. The copy
+     * does not have any modified fields.
+     *
+     * @return a new {@link QuickBaseRecord}
+     */
+    QuickBaseRecord copy()
+    {
+        QuickBaseRecord copy = new QuickBaseRecord();
+        copy.recordData.putAll(recordData);
+        copy.recordID = recordID;
+        copy.updateID = updateID;
+        return copy;
+    }
+
+    /**
+     * Estimates the memory that is occupied by the record's field values.
+     *
+     * @param fieldOverhead the estimated overhead per field (in bytes)
+     * @return the estimated size in bytes
+     */
+    long estimateSize(int fieldOverhead)
+    {
+        long size = 0;
+        for (String value: recordData.values())
+        {
+            size += fieldOverhead + (value != null ? 2*value.length() : 0);
+        }
+        return size;
+    }
+
+    /**
+     * Marks all modified fields as saved. This is called after the changes were successfully sent
+     * to QuickBase.
+     *
+     * @param updateID the new update ID returned by QuickBase (or <code>null</code> if unknown)
+     */
+    void commit(String updateID)
+    {
+        originalData.clear();
+        this.updateID = updateID;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static boolean equal(String first, String second)
+    {
+        return first == null ? second == null : first.equals(second);
+    }
 }
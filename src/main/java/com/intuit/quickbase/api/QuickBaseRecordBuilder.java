@@ -13,6 +13,8 @@ package com.intuit.quickbase.api;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.commons.httpclient.NameValuePair;
 
@@ -63,6 +65,18 @@ public class QuickBaseRecordBuilder {
         return fieldValues;
     }
 
+    /**
+     * Returns the field values as a map from field ID to value, ordered by field ID. If a field
+     * was added more than once, the last value wins.
+     */
+    SortedMap<Integer, String> getFieldValueMap() {
+        SortedMap<Integer, String> fields = new TreeMap<Integer, String>();
+        for (NameValuePair fieldValue : fieldValues) {
+            fields.put(Integer.valueOf(fieldValue.getName()), fieldValue.getValue());
+        }
+        return fields;
+    }
+
     public QuickBaseTable getTable() {
         return table;
     }
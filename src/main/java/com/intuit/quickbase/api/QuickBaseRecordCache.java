@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseRecordCache.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class {@link QuickBaseRecordCache} is a read-through cache for records that are loaded by
+ * record ID (see {@link QuickBaseTable#getRecord(int, com.intuit.quickbase.api.query.CList)} and
+ * {@link QuickBaseTable#getRecords(int[], com.intuit.quickbase.api.query.CList)}). Entries are
+ * keyed by table ID, record ID, and column list.
+ * <p/>
+ * The cache is bounded by the number of entries and by an estimated size in bytes; the least
+ * recently used entries are evicted first. Changes that are made through this SDK (adding,
+ * editing, importing, and deleting records) invalidate the affected entries. Changes made by
+ * other QuickBase clients are picked up after the configured time-to-live has expired.
+ * <p/>
+ * A record that is loaded while the same record is changed could put the old state of the record
+ * into the cache after the change invalidated it. Every invalidation therefore advances a
+ * generation counter, which the loader reads before it sends its query; a record whose counter
+ * has advanced in the meantime is not cached.
+ * <p/>
+ * A single cache may be shared by several {@link QuickBaseTable}s. Records are copied when they
+ * are put into or taken out of the cache, so callers can modify returned records freely.
+ *
+ * @see QuickBaseTable#setRecordCache(QuickBaseRecordCache)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseRecordCache
+{
+    private final static int ENTRY_OVERHEAD = 64;
+    private final static int FIELD_OVERHEAD = 32;
+    private final static int GENERATION_STRIPES = 256;
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlNanos;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final Map<RecordKey, Set<Key>> recordIndex = new HashMap<RecordKey, Set<Key>>();
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new {@link QuickBaseRecordCache}.
+     *
+     * @param maxEntries the maximum number of cached records
+     * @param maxWeight the maximum estimated size of all cached records (in bytes)
+     * @param ttlMillis the time (in milliseconds) after which a cached record expires, or
+     * <code>0</code> if records should not expire
+     */
+    public QuickBaseRecordCache(int maxEntries, long maxWeight, long ttlMillis)
+    {
+        if (maxEntries <= 0 || maxWeight <= 0 || ttlMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid cache limits"); //$NON-NLS-1$
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * Gets the number of lookups that were answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that had to be answered by QuickBase (including lookups of
+     * expired entries).
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Gets the number of entries that were removed to keep the cache within its limits.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of cached records.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Gets the estimated size of all cached records.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void invalidateAll()
+    {
+        advanceAll();
+        entries.clear();
+        recordIndex.clear();
+        weight = 0;
+    }
+
+    /**
+     * Converts the {@link QuickBaseRecordCache} to a string.
+     *
+     * @return a string representation of the cache statistics
+     */
+    public synchronized String toString()
+    {
+        return getClass().getSimpleName() + "[size=" + entries.size() + ", weight=" + weight //$NON-NLS-1$ //$NON-NLS-2$
+        + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ']'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    /**
+     * Looks up a record.
+     *
+     * @param tableId the table ID
+     * @param rid the record ID
+     * @param clist the column list (as a string)
+     * @return a copy of the cached record, or <code>null</code> if the record is not cached
+     */
+    synchronized QuickBaseRecord get(String tableId, int rid, String clist)
+    {
+        Key key = new Key(tableId, rid, clist);
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+        if (ttlNanos > 0 && System.nanoTime() - entry.created >= ttlNanos)
+        {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.record.copy();
+    }
+
+    /**
+     * Gets the generation of a record, which must be passed to
+     * {@link #put(String, String, QuickBaseRecord, long)}. The generation must be retrieved
+     * before the record is loaded.
+     *
+     * @param tableId the table ID
+     * @param rid the record ID
+     * @return the current generation of the record
+     */
+    synchronized long generation(String tableId, int rid)
+    {
+        return generations[stripe(tableId, rid)];
+    }
+
+    /**
+     * Adds a record to the cache, unless the record was invalidated after it was loaded.
+     *
+     * @param tableId the table ID
+     * @param clist the column list (as a string) that was used for loading the record
+     * @param record the record
+     * @param generation the generation of the record (see {@link #generation(String, int)}) from
+     * before the record was loaded
+     */
+    synchronized void put(String tableId, String clist, QuickBaseRecord record, long generation)
+    {
+        if (generations[stripe(tableId, record.getRecordID())] != generation)
+        {
+            return;
+        }
+        Key key = new Key(tableId, record.getRecordID(), clist);
+        remove(key);
+        Entry entry = new Entry(record.copy());
+        entries.put(key, entry);
+        weight += entry.weight;
+        RecordKey recordKey = key.recordKey();
+        Set<Key> keys = recordIndex.get(recordKey);
+        if (keys == null)
+        {
+            keys = new HashSet<Key>();
+            recordIndex.put(recordKey, keys);
+        }
+        keys.add(key);
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext())
+        {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            weight -= evicted.getValue().weight;
+            eldest.remove();
+            unindex(evicted.getKey());
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes all cached variants (i.e., column lists) of a record.
+     *
+     * @param tableId the table ID
+     * @param rid the record ID
+     */
+    synchronized void invalidate(String tableId, int rid)
+    {
+        generations[stripe(tableId, rid)]++;
+        Set<Key> keys = recordIndex.remove(new RecordKey(tableId, rid));
+        if (keys != null)
+        {
+            for (Key key: keys)
+            {
+                Entry entry = entries.remove(key);
+                weight -= entry != null ? entry.weight : 0;
+            }
+        }
+    }
+
+    /**
+     * Removes all cached records of a table.
+     *
+     * @param tableId the table ID
+     */
+    synchronized void invalidateTable(String tableId)
+    {
+        advanceAll();
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().tableId.equals(tableId))
+            {
+                weight -= entry.getValue().weight;
+                iterator.remove();
+                unindex(entry.getKey());
+            }
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    /**
+     * Gets the index of the generation counter of a record. Records share counters, so an
+     * invalidation may occasionally keep an unrelated record from being cached.
+     */
+    private static int stripe(String tableId, int rid)
+    {
+        int hash = new RecordKey(tableId, rid).hashCode();
+        return (hash ^ hash >>> 16) & (GENERATION_STRIPES - 1);
+    }
+
+    private void advanceAll()
+    {
+        for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++)
+        {
+            generations[stripe]++;
+        }
+    }
+
+    private void remove(Key key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+        {
+            weight -= entry.weight;
+            unindex(key);
+        }
+    }
+
+    private void unindex(Key key)
+    {
+        RecordKey recordKey = key.recordKey();
+        Set<Key> keys = recordIndex.get(recordKey);
+        if (keys != null)
+        {
+            keys.remove(key);
+            if (keys.isEmpty())
+            {
+                recordIndex.remove(recordKey);
+            }
+        }
+    }
+
+    /**
+     * Identifies all cached variants of a record.
+     */
+    private static class RecordKey
+    {
+        final String tableId;
+        final int rid;
+
+        RecordKey(String tableId, int rid)
+        {
+            this.tableId = tableId;
+            this.rid = rid;
+        }
+
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof RecordKey))
+            {
+                return false;
+            }
+            RecordKey other = (RecordKey)object;
+            return rid == other.rid && tableId.equals(other.tableId);
+        }
+
+        public int hashCode()
+        {
+            return 31*tableId.hashCode() + rid;
+        }
+    }
+
+    /**
+     * Identifies a cached record loaded with a particular column list.
+     */
+    private static class Key
+    {
+        final String tableId;
+        final int rid;
+        final String clist;
+
+        Key(String tableId, int rid, String clist)
+        {
+            this.tableId = tableId;
+            this.rid = rid;
+            this.clist = clist;
+        }
+
+        RecordKey recordKey()
+        {
+            return new RecordKey(tableId, rid);
+        }
+
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key)object;
+            return rid == other.rid && tableId.equals(other.tableId) && clist.equals(other.clist);
+        }
+
+        public int hashCode()
+        {
+            return 31*(31*tableId.hashCode() + rid) + clist.hashCode();
+        }
+    }
+
+    private static class Entry
+    {
+        final QuickBaseRecord record;
+        final long created;
+        final long weight;
+
+        Entry(QuickBaseRecord record)
+        {
+            this.record = record;
+            this.created = System.nanoTime();
+            this.weight = ENTRY_OVERHEAD + record.estimateSize(FIELD_OVERHEAD);
+        }
+    }
+}
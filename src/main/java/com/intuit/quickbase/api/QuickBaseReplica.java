@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseReplica.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.CRC32;
+import com.intuit.quickbase.api.query.CList;
+
+/**
+ * The class {@link QuickBaseReplica} is a local, persistent copy of the records of a table. The
+ * records are kept in an append-only file that is mapped into memory, so that a replica that is
+ * opened again can serve reads immediately (and while QuickBase is unavailable) without fetching
+ * the table again. The replica is brought up to date by {@link #refresh(boolean)}, which performs
+ * an incremental synchronization (see
+ * {@link QuickBaseTable#sync(CList, QuickBaseSyncState, boolean, QuickBaseChangeHandler)}).
+ * <p/>
+ * Every change is appended to the file as an entry that consists of its length, a CRC-32
+ * checksum, the record ID, and the field values of the record (or a deletion marker). An index
+ * maps each record ID to the position of its most recent entry. Reads do not acquire any locks;
+ * {@link #refresh(boolean)}, {@link #compact()}, and {@link #close()} are serialized. When a
+ * replica is opened, a partially written entry (after a crash) and all entries after it are
+ * discarded; the synchronization state is only saved after all preceding entries were written to
+ * disk, so that the discarded changes are fetched again by the next refresh. Entries that were
+ * superseded by newer entries are removed by {@link #compact()}, which writes a new file and
+ * replaces the old file atomically.
+ * <small><pre>
+ * QuickBaseReplica replica = table.openReplica(directory, new CList(NAME, PRICE));
+ * replica.refresh(true);
+ * QuickBaseRecord record = replica.getRecord(rid);
+ * </pre></small>
+ * A replica file is limited to 2 GB. Only one {@link QuickBaseReplica} may use a directory at a
+ * time; this is enforced with a lock on the replica file, which is held until the replica is
+ * closed.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseReplica implements Closeable
+{
+    private final static String DATA_FILE = "records.dat"; //$NON-NLS-1$
+    private final static String TEMPORARY_FILE = "records.tmp"; //$NON-NLS-1$
+    private final static String STATE_FILE = "sync.state"; //$NON-NLS-1$
+    private final static int MAGIC = 0x51425250;
+    private final static int VERSION = 1;
+    private final static int ENTRY_HEADER = 8; // length and checksum
+    private final static int ENTRY_PREFIX = 5; // record ID and kind
+    private final static byte DELETED = 0;
+    private final static byte PRESENT = 1;
+    private final static int INITIAL_CAPACITY = 1 << 20;
+    private final static int MAXIMUM_CAPACITY = Integer.MAX_VALUE;
+    private final static long MINIMUM_COMPACTION_BYTES = 1 << 20;
+    private final static Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final QuickBaseTable table;
+    private final CList clist;
+    private final int[] columns;
+    private final int headerSize;
+    private final Path dataFile;
+    private final Path temporaryFile;
+    private final Path stateFile;
+    private final QuickBaseSyncState state;
+    private final QuickBaseChangeHandler applier = new Applier();
+    private final CRC32 checksum = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private FileChannel channel;
+    private volatile Snapshot snapshot;
+    private volatile int size;
+    private int end;
+    private long liveBytes;
+
+    /**
+     * Opens (or creates) a replica of a table. If the replica was created with different columns,
+     * it is discarded and the next refresh fetches the whole table.
+     *
+     * @param table the replicated {@link QuickBaseTable}
+     * @param clist the {@link CList} that specifies the replicated fields
+     * @param directory the directory of the replica (it is created if necessary)
+     * @throws QuickBaseException if the replica could not be opened or is in use
+     */
+    QuickBaseReplica(QuickBaseTable table, CList clist, Path directory) throws QuickBaseException
+    {
+        Set<Integer> fields = new LinkedHashSet<Integer>();
+        for (int column: clist.getColumns())
+        {
+            fields.add(column);
+        }
+        fields.add(QuickBaseTable.DATE_MODIFIED_FIELD);
+        fields.add(QuickBaseTable.RECORD_ID_FIELD);
+        this.columns = new int[fields.size()];
+        int index = 0;
+        for (int field: fields)
+        {
+            columns[index++] = field;
+        }
+        this.table = table;
+        this.clist = clist;
+        this.headerSize = 12 + 4*columns.length;
+        this.dataFile = directory.resolve(DATA_FILE);
+        this.temporaryFile = directory.resolve(TEMPORARY_FILE);
+        this.stateFile = directory.resolve(STATE_FILE);
+        try
+        {
+            Files.createDirectories(directory);
+            channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            if (!tryLock(channel))
+            {
+                close(channel);
+                throw new QuickBaseException("Replica " + dataFile + " is in use"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            Files.deleteIfExists(temporaryFile);
+            long fileSize = channel.size();
+            if (fileSize > 0 && !hasHeader())
+            {
+                channel.truncate(0);
+                fileSize = 0;
+            }
+            if (fileSize == 0)
+            {
+                Files.deleteIfExists(stateFile);
+                write(channel, header());
+                channel.force(true);
+                fileSize = headerSize;
+            }
+            snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity(fileSize)),
+                new AtomicIntegerArray(1024));
+            recover((int)fileSize);
+        }
+        catch (IOException exception)
+        {
+            close(channel);
+            throw new QuickBaseException("Could not open replica " + dataFile, exception); //$NON-NLS-1$
+        }
+        try
+        {
+            state = QuickBaseSyncState.load(stateFile);
+        }
+        catch (QuickBaseException exception)
+        {
+            close(channel);
+            throw exception;
+        }
+        BitSet known = state.getKnownRids();
+        AtomicIntegerArray offsets = snapshot.offsets;
+        for (int rid = 1; rid < offsets.length(); rid++)
+        {
+            if (offsets.get(rid) != 0)
+            {
+                known.set(rid);
+            }
+        }
+    }
+
+    /**
+     * Gets a record from the replica. This method does not block and can be called concurrently
+     * with {@link #refresh(boolean)}.
+     *
+     * @param rid the record ID
+     * @return a new {@link QuickBaseRecord}, or <code>null</code> if the replica does not contain
+     * the record
+     * @throws IllegalStateException if the replica was closed
+     */
+    public QuickBaseRecord getRecord(int rid)
+    {
+        while (true)
+        {
+            AtomicIntegerArray offsets = current().offsets;
+            int offset = rid > 0 && rid < offsets.length()? offsets.get(rid):0;
+
+            // The entry may have been appended after the file was mapped again, so the most recent
+            // mapping must be used; if the index was replaced in the meantime, the offset may
+            // refer to a different file:
+            //
+            Snapshot latest = current();
+            if (latest.offsets != offsets)
+            {
+                continue;
+            }
+            return offset != 0? read(latest.buffer, offset):null;
+        }
+    }
+
+    /**
+     * Gets the number of records in the replica.
+     *
+     * @return the number of records
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Updates the replica with the changes of the table since the last refresh. The first refresh
+     * of a new replica fetches the whole table.
+     *
+     * @param reconcileDeletions <code>true</code> if deleted records should be detected
+     * @return the {@link QuickBaseSyncResult}
+     * @throws QuickBaseException if the synchronization failed or the replica could not be
+     * written; the changes are fetched again by the next refresh
+     */
+    public synchronized QuickBaseSyncResult refresh(boolean reconcileDeletions) throws QuickBaseException
+    {
+        current(); // fails if the replica is closed
+        QuickBaseSyncResult result = table.sync(clist, state, reconcileDeletions, applier);
+        snapshot.buffer.force();
+        state.save(stateFile);
+        long deadBytes = end - headerSize - liveBytes;
+        if (deadBytes > liveBytes && deadBytes > MINIMUM_COMPACTION_BYTES)
+        {
+            compact();
+        }
+        return result;
+    }
+
+    /**
+     * Removes superseded entries from the replica. The replica is written to a new file, which
+     * replaces the old file atomically. Concurrent reads continue to use the old file until the
+     * new file is complete. The new file is locked before it replaces the old file, so that the
+     * replica directory remains locked throughout.
+     *
+     * @throws QuickBaseException if the new file could not be written; the replica remains
+     * unchanged in this case
+     */
+    public synchronized void compact() throws QuickBaseException
+    {
+        Snapshot old = current();
+        AtomicIntegerArray offsets = new AtomicIntegerArray(old.offsets.length());
+        int position = headerSize;
+        FileChannel target = null;
+        try
+        {
+            target = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!tryLock(target))
+            {
+                throw new IOException("Could not lock " + temporaryFile); //$NON-NLS-1$
+            }
+            write(target, header());
+            for (int rid = 1; rid < old.offsets.length(); rid++)
+            {
+                int offset = old.offsets.get(rid);
+                if (offset != 0)
+                {
+                    ByteBuffer entry = old.buffer.duplicate();
+                    entry.limit(offset + ENTRY_HEADER + old.buffer.getInt(offset)).position(offset);
+                    offsets.set(rid, position);
+                    position += write(target, entry);
+                }
+            }
+            target.force(true);
+            MappedByteBuffer buffer = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity(position));
+            Files.move(temporaryFile, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // The channel of the temporary file (and its lock) now refers to the replica file:
+            //
+            close(channel);
+            channel = target;
+            target = null;
+            snapshot = new Snapshot(buffer, offsets);
+            end = position;
+            liveBytes = position - headerSize;
+        }
+        catch (IOException exception)
+        {
+            close(target);
+            throw new QuickBaseException("Could not compact replica " + dataFile, exception); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Closes the replica. Reads that are in progress complete normally.
+     */
+    @Override
+    public synchronized void close()
+    {
+        snapshot = null;
+        close(channel);
+    }
+
+    //-------------------------------------- PRIVATE SECTION -------------------------------------//
+
+    /**
+     * A consistent pair of a mapping of the replica file and the index of that file. The index
+     * maps a record ID to the position of its most recent entry (<code>0</code> if the record
+     * does not exist).
+     */
+    private static class Snapshot
+    {
+        final MappedByteBuffer buffer;
+        final AtomicIntegerArray offsets;
+
+        Snapshot(MappedByteBuffer buffer, AtomicIntegerArray offsets)
+        {
+            this.buffer = buffer;
+            this.offsets = offsets;
+        }
+    }
+
+    /**
+     * Appends the changes of a synchronization to the replica.
+     */
+    private class Applier implements QuickBaseChangeHandler
+    {
+        @Override
+        public void recordChanged(QuickBaseRecord record) throws QuickBaseException
+        {
+            append(record.getRecordID(), record);
+        }
+
+        @Override
+        public void recordDeleted(int rid) throws QuickBaseException
+        {
+            if (offset(rid) != 0)
+            {
+                append(rid, null);
+            }
+        }
+    }
+
+    private Snapshot current()
+    {
+        Snapshot current = snapshot;
+        if (current == null)
+        {
+            throw new IllegalStateException("Replica is closed"); //$NON-NLS-1$
+        }
+        return current;
+    }
+
+    private QuickBaseRecord read(ByteBuffer buffer, int offset)
+    {
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset + ENTRY_HEADER);
+        QuickBaseRecord record = new QuickBaseRecord();
+        record.setRecordID(entry.getInt());
+        entry.get();
+        for (int column: columns)
+        {
+            int length = readLength(entry);
+            if (length >= 0)
+            {
+                byte[] value = new byte[length];
+                entry.get(value);
+                record.setField(column, new String(value, UTF_8));
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Appends an entry to the replica file and updates the index. The entry is not visible to
+     * readers before it is written completely.
+     *
+     * @param rid the record ID
+     * @param record the record, or <code>null</code> if the record was deleted
+     */
+    private void append(int rid, QuickBaseRecord record) throws QuickBaseException
+    {
+        scratch.clear();
+        reserve(ENTRY_PREFIX);
+        scratch.putInt(rid).put(record != null? PRESENT:DELETED);
+        if (record != null)
+        {
+            for (int column: columns)
+            {
+                String value = record.getFieldValue(column);
+                byte[] bytes = value != null? value.getBytes(UTF_8):null;
+                reserve(5 + (bytes != null? bytes.length:0));
+                writeLength(scratch, bytes != null? bytes.length:-1);
+                if (bytes != null)
+                {
+                    scratch.put(bytes);
+                }
+            }
+        }
+        int length = scratch.position();
+        checksum.reset();
+        checksum.update(scratch.array(), 0, length);
+        ensureCapacity((long)end + ENTRY_HEADER + length);
+        ByteBuffer target = snapshot.buffer.duplicate();
+        target.position(end);
+        target.putInt(length).putInt((int)checksum.getValue()).put(scratch.array(), 0, length);
+        index(rid, record != null? end:0, ENTRY_HEADER + length);
+        end += ENTRY_HEADER + length;
+    }
+
+    /**
+     * Reads the entries of the replica file into the index. Reading stops at the first entry
+     * that is incomplete or corrupt, or at an entry length of zero; that entry and any data after
+     * it are always erased. After a crash, the pages of the mapping may have been written out of
+     * order, so valid entries may follow a zero length; they must not reappear once new entries
+     * are appended.
+     *
+     * @param fileSize the size of the file
+     */
+    private void recover(int fileSize)
+    {
+        ByteBuffer buffer = snapshot.buffer.duplicate();
+        int offset = headerSize;
+        while (offset + ENTRY_HEADER + ENTRY_PREFIX <= fileSize)
+        {
+            int length = buffer.getInt(offset);
+            if (length < ENTRY_PREFIX || (long)offset + ENTRY_HEADER + length > fileSize)
+            {
+                break;
+            }
+            scratch.clear();
+            reserve(length);
+            buffer.position(offset + ENTRY_HEADER);
+            buffer.get(scratch.array(), 0, length);
+            checksum.reset();
+            checksum.update(scratch.array(), 0, length);
+            int rid = buffer.getInt(offset + ENTRY_HEADER);
+            byte kind = buffer.get(offset + ENTRY_HEADER + 4);
+            if ((int)checksum.getValue() != buffer.getInt(offset + 4) || rid <= 0 || (kind != PRESENT && kind != DELETED))
+            {
+                break;
+            }
+            index(rid, kind == PRESENT? offset:0, ENTRY_HEADER + length);
+            offset += ENTRY_HEADER + length;
+        }
+        end = offset;
+
+        // The file is extended with zeros when it is mapped, so an entry length of zero marks the
+        // end of the file; bytes that are zero already are not written, so that the unused (and
+        // usually sparse) end of the file is not allocated:
+        //
+        for (int position = offset; position < fileSize; position++)
+        {
+            if (buffer.get(position) != 0)
+            {
+                buffer.put(position, (byte)0);
+            }
+        }
+    }
+
+    private void index(int rid, int offset, int entrySize)
+    {
+        int previous = offset(rid);
+        if (previous != 0)
+        {
+            liveBytes -= ENTRY_HEADER + snapshot.buffer.getInt(previous);
+            size--;
+        }
+        AtomicIntegerArray offsets = snapshot.offsets;
+        if (rid >= offsets.length())
+        {
+            AtomicIntegerArray larger = new AtomicIntegerArray(Math.max(rid + 1, 2*offsets.length()));
+            for (int index = 1; index < offsets.length(); index++)
+            {
+                larger.set(index, offsets.get(index));
+            }
+            snapshot = new Snapshot(snapshot.buffer, larger);
+            offsets = larger;
+        }
+        offsets.set(rid, offset);
+        if (offset != 0)
+        {
+            liveBytes += entrySize;
+            size++;
+        }
+    }
+
+    private int offset(int rid)
+    {
+        AtomicIntegerArray offsets = snapshot.offsets;
+        return rid < offsets.length()? offsets.get(rid):0;
+    }
+
+    /**
+     * Makes sure that the mapping of the replica file has a certain capacity. The new mapping is
+     * published before any entry is written into it; readers of the old mapping are unaffected.
+     */
+    private void ensureCapacity(long required) throws QuickBaseException
+    {
+        MappedByteBuffer buffer = snapshot.buffer;
+        if (required <= buffer.capacity())
+        {
+            return;
+        }
+        if (required > MAXIMUM_CAPACITY)
+        {
+            throw new QuickBaseException("Replica " + dataFile + " exceeds the maximum size"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        try
+        {
+            buffer.force();
+            long capacity = Math.min(MAXIMUM_CAPACITY, Math.max(required, 2L*buffer.capacity()));
+            snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), snapshot.offsets);
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Could not extend replica " + dataFile, exception); //$NON-NLS-1$
+        }
+    }
+
+    private void reserve(int bytes)
+    {
+        if (scratch.remaining() < bytes)
+        {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(scratch.position() + bytes, 2*scratch.capacity()));
+            larger.put(scratch.array(), 0, scratch.position());
+            scratch = larger;
+        }
+    }
+
+    /**
+     * Locks a file for this replica.
+     *
+     * @return <code>false</code> if the file is locked by another process or another replica in
+     * the same process
+     */
+    private static boolean tryLock(FileChannel channel) throws IOException
+    {
+        try
+        {
+            return channel.tryLock() != null;
+        }
+        catch (OverlappingFileLockException exception)
+        {
+            return false;
+        }
+    }
+
+    private boolean hasHeader() throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+        {
+            // Continue reading
+        }
+        header.flip();
+        return header.equals(header());
+    }
+
+    private ByteBuffer header()
+    {
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(VERSION).putInt(columns.length);
+        for (int column: columns)
+        {
+            header.putInt(column);
+        }
+        header.flip();
+        return header;
+    }
+
+    private static long capacity(long size)
+    {
+        long capacity = (size + INITIAL_CAPACITY - 1)/INITIAL_CAPACITY*INITIAL_CAPACITY;
+        return Math.min(MAXIMUM_CAPACITY, Math.max(INITIAL_CAPACITY, capacity));
+    }
+
+    private static int write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        int written = 0;
+        while (buffer.hasRemaining())
+        {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the length of a field value (<code>-1</code> for <code>null</code>) as a variable
+     * length integer with 7 bits per byte.
+     */
+    private static void writeLength(ByteBuffer buffer, int length)
+    {
+        int value = length + 1;
+        while (value >= 0x80)
+        {
+            buffer.put((byte)(value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    private static int readLength(ByteBuffer buffer)
+    {
+        int value = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            byte next = buffer.get();
+            value |= (next & 0x7F) << shift;
+            if (next >= 0)
+            {
+                return value - 1;
+            }
+        }
+    }
+
+    private static void close(Closeable closeable)
+    {
+        try
+        {
+            if (closeable != null)
+            {
+                closeable.close();
+            }
+        }
+        catch (IOException ignored)
+        {
+            // Nothing to do
+        }
+    }
+}
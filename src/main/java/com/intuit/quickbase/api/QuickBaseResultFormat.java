@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseResultFormat.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The enumeration {@link QuickBaseResultFormat} selects the wire format that is used by
+ * {@link QuickBaseDatabase#bulkRead(String, com.intuit.quickbase.api.query.CList, QuickBaseResultFormat, QuickBaseResultHandler)}.
+ * Both formats deliver the same {@link QuickBaseRecord}s; they differ in size, speed, and in the
+ * representation of some field values.
+ *
+ * @version $Revision$
+ */
+public enum QuickBaseResultFormat
+{
+    /**
+     * Structured XML through {@link QuickBaseAPICall#API_DoQuery}. Field values are raw values
+     * (for example, dates are milliseconds since the epoch) and records include their update ID.
+     */
+    XML,
+
+    /**
+     * Comma-separated values through {@link QuickBaseAPICall#API_GenResultsTable}. The response
+     * is considerably smaller and is parsed while it is received, but field values are formatted
+     * the way QuickBase displays them and records do not include an update ID.
+     */
+    CSV;
+}
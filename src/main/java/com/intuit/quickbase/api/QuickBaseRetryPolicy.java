@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseRetryPolicy.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * The class {@link QuickBaseRetryPolicy} configures the retrying of failed requests for a
+ * {@link QuickBaseConnection}. A request is retried if it failed with a transient error (an I/O
+ * error or a QuickBase error code that indicates overload or a temporary problem) and if it may
+ * safely be sent again. Read-only requests (see {@link QuickBaseAPICall#isReadOnly()}) may always
+ * be sent again; requests that modify data are only retried if they carry a guard against being
+ * applied twice (for example, an edit with an update ID, or an import that merges on a key field).
+ * <p/>
+ * Retries wait for an exponentially growing delay with full jitter, i.e., a random delay between
+ * zero and <code>baseDelay * 2^retry</code> (but at most the maximum delay). To prevent retries
+ * from amplifying an outage, they are limited to a budget that is expressed as a percentage of all
+ * requests. Subclasses may override {@link #isRetryable(QuickBaseErrorCode)} and
+ * {@link #isRetryable(IOException)} to change the classification of errors.
+ *
+ * @see QuickBaseConnection#setRetryPolicy(QuickBaseRetryPolicy)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseRetryPolicy
+{
+    private final static double MAX_BUDGET = 10;
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double budgetRatio;
+    private final QuickBaseClock clock;
+    private final Random random = new Random();
+
+    private double budget = MAX_BUDGET;
+    private long retries;
+    private long rejectedRetries;
+
+    /**
+     * Creates a new {@link QuickBaseRetryPolicy} based on the system clock.
+     *
+     * @param maxRetries the maximum number of retries per request
+     * @param baseDelayMillis the maximum delay (in milliseconds) before the first retry
+     * @param maxDelayMillis the maximum delay (in milliseconds) before any retry
+     * @param budgetPercent the maximum number of retries as a percentage of all requests, for
+     * example, <code>10</code>
+     */
+    public QuickBaseRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, double budgetPercent)
+    {
+        this(maxRetries, baseDelayMillis, maxDelayMillis, budgetPercent, QuickBaseClock.SYSTEM);
+    }
+
+    /**
+     * Creates a new {@link QuickBaseRetryPolicy}.
+     *
+     * @param maxRetries the maximum number of retries per request
+     * @param baseDelayMillis the maximum delay (in milliseconds) before the first retry
+     * @param maxDelayMillis the maximum delay (in milliseconds) before any retry
+     * @param budgetPercent the maximum number of retries as a percentage of all requests, for
+     * example, <code>10</code>
+     * @param clock the {@link QuickBaseClock} used for waiting between retries
+     */
+    public QuickBaseRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, double budgetPercent,
+    QuickBaseClock clock)
+    {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis || budgetPercent < 0)
+        {
+            throw new IllegalArgumentException("Invalid retry parameters"); //$NON-NLS-1$
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetRatio = budgetPercent/100;
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the number of retries that were sent.
+     *
+     * @return the number of retries
+     */
+    public synchronized long getRetries()
+    {
+        return retries;
+    }
+
+    /**
+     * Gets the number of retries that were not sent because the retry budget was used up.
+     *
+     * @return the number of rejected retries
+     */
+    public synchronized long getRejectedRetries()
+    {
+        return rejectedRetries;
+    }
+
+    /**
+     * Determines whether a QuickBase error code indicates a transient failure. By default, the
+     * error codes that indicate overload (see {@link QuickBaseErrorCode#isOverload()}) and
+     * {@link QuickBaseErrorCode#DB_ERROR} are considered transient.
+     *
+     * @param errorCode the {@link QuickBaseErrorCode} of a failed request
+     * @return <code>true</code> if the request may succeed when it is sent again
+     */
+    public boolean isRetryable(QuickBaseErrorCode errorCode)
+    {
+        return errorCode.isOverload() || errorCode == QuickBaseErrorCode.DB_ERROR;
+    }
+
+    /**
+     * Determines whether an I/O error indicates a transient failure. By default, all I/O errors
+     * except unknown hosts, malformed URLs, and SSL errors are considered transient.
+     *
+     * @param exception the {@link IOException} of a failed request
+     * @return <code>true</code> if the request may succeed when it is sent again
+     */
+    public boolean isRetryable(IOException exception)
+    {
+        return !(exception instanceof UnknownHostException || exception instanceof MalformedURLException
+        || exception instanceof SSLException);
+    }
+
+    /**
+     * Accounts for a new request in the retry budget.
+     */
+    synchronized void startRequest()
+    {
+        budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+    }
+
+    /**
+     * Takes a retry from the budget and waits for the backoff delay.
+     *
+     * @param retry the number of the retry (starting at <code>0</code> for the first retry)
+     * @param remainingNanos the time that remains until the deadline of the call
+     * @return <code>true</code> if the request should be sent again, <code>false</code> if the
+     * maximum number of retries was reached, the budget is used up, or the delay would exceed the
+     * deadline
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    boolean awaitRetry(int retry, long remainingNanos) throws InterruptedException
+    {
+        long delay;
+        synchronized (this)
+        {
+            if (retry >= maxRetries)
+            {
+                return false;
+            }
+            if (budget < 1)
+            {
+                rejectedRetries++;
+                return false;
+            }
+            long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+            delay = (long)(random.nextDouble()*(ceiling + 1));
+            if (TimeUnit.MILLISECONDS.toNanos(delay) >= remainingNanos)
+            {
+                return false;
+            }
+            budget -= 1;
+            retries++;
+        }
+        if (delay > 0)
+        {
+            clock.sleep(TimeUnit.MILLISECONDS.toNanos(delay));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseSession.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.net.PasswordAuthentication;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class <code>QuickBaseSession</code> represents one set of credentials of a
+ * {@link QuickBaseConnection}, together with its ticket and its state: the number of outstanding
+ * requests and whether QuickBase is currently throttling the user. A session that was throttled
+ * (or whose requests failed with I/O errors) is avoided for an exponentially growing period, so
+ * that other sessions of the same connection can take over its requests.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseSession
+{
+    private final static long MIN_PENALTY = TimeUnit.SECONDS.toNanos(1);
+    private final static long MAX_PENALTY = TimeUnit.MINUTES.toNanos(1);
+
+    private final PasswordAuthentication credentials;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile String ticket;
+    private long penalty;
+    private long avoidUntil;
+
+    QuickBaseSession(PasswordAuthentication credentials)
+    {
+        this.credentials = credentials;
+    }
+
+    PasswordAuthentication getCredentials()
+    {
+        return credentials;
+    }
+
+    String getUserName()
+    {
+        return credentials.getUserName();
+    }
+
+    String getTicket()
+    {
+        return ticket;
+    }
+
+    void setTicket(String ticket)
+    {
+        this.ticket = ticket;
+    }
+
+    int getOutstanding()
+    {
+        return outstanding.get();
+    }
+
+    void begin()
+    {
+        outstanding.incrementAndGet();
+    }
+
+    void end()
+    {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Determines whether the session should currently be avoided because it was throttled or
+     * failed recently.
+     *
+     * @param now the current value of {@link System#nanoTime()}
+     * @return <code>true</code> if the session is currently throttled
+     */
+    synchronized boolean isThrottled(long now)
+    {
+        return penalty > 0 && now - avoidUntil < 0;
+    }
+
+    /**
+     * Records that QuickBase throttled a request of this session or that the request failed.
+     */
+    synchronized void throttled()
+    {
+        penalty = penalty == 0 ? MIN_PENALTY : Math.min(MAX_PENALTY, penalty*2);
+        avoidUntil = System.nanoTime() + penalty;
+    }
+
+    /**
+     * Records that a request of this session succeeded.
+     */
+    synchronized void succeeded()
+    {
+        penalty = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getUserName() + " (" + getOutstanding() + " outstanding)"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
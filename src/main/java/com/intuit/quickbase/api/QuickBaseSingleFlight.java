@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseSingleFlight.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+
+/**
+ * The class <code>QuickBaseSingleFlight</code> coalesces identical requests that are issued
+ * concurrently. The first caller (the "leader") executes the request; all callers that ask for the
+ * same key while the request is in flight wait for the leader's response instead of sending their
+ * own request. Only read-only requests may be coalesced.
+ * <p/>
+ * DOM documents are not safe for concurrent access (not even for concurrent reads), so every
+ * waiting caller receives its own deep copy of the response. The copies are created by the leader
+ * before the response is handed out.
+ * <p/>
+ * Waiting callers observe their own {@link QuickBaseCallContext}: a caller stops waiting when its
+ * context is cancelled or expires. If the leader fails because its own context was cancelled or
+ * expired, the waiting callers do not inherit that failure but execute the request again.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseSingleFlight
+{
+    private final static Object RETRY = new Object();
+
+    private final Map<String, Flight> flights = new HashMap<String, Flight>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Executes a request, or waits for an identical request that is already in flight.
+     *
+     * @param key the key identifying the request (database, API call, and normalized parameters)
+     * @param request the {@link Request} that actually sends the request
+     * @return the response {@link Document} (owned exclusively by the caller)
+     * @throws QuickBaseException if the request failed, or if the {@link QuickBaseCallContext}
+     * of the current thread was cancelled or expired while waiting
+     */
+    Document execute(String key, Request request) throws QuickBaseException
+    {
+        QuickBaseCallContext context = QuickBaseCallContext.current();
+        while (true)
+        {
+            Object result = execute(key, request, context);
+            if (result != RETRY)
+            {
+                return (Document)result;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of requests that were answered by sharing another request's response.
+     *
+     * @return the number of coalesced requests
+     */
+    long getCoalescedRequests()
+    {
+        return coalesced.get();
+    }
+
+    /**
+     * A request that can be coalesced.
+     */
+    interface Request
+    {
+        Document execute() throws QuickBaseException;
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    /**
+     * Executes a request or waits for an identical request.
+     *
+     * @return the response {@link Document}, or {@link #RETRY} if the leader failed because of
+     * its own context
+     */
+    private Object execute(String key, Request request, QuickBaseCallContext context) throws QuickBaseException
+    {
+        Flight flight;
+        boolean leader;
+        synchronized (flights)
+        {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader)
+            {
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+            else
+            {
+                flight.followers++;
+            }
+        }
+        if (!leader)
+        {
+            coalesced.incrementAndGet();
+            try
+            {
+                return flight.await(context);
+            }
+            catch (QuickBaseException exception)
+            {
+                synchronized (flights)
+                {
+                    flight.followers--;
+                }
+                throw exception;
+            }
+        }
+        int followers;
+        Document response = null;
+        QuickBaseException failure = null;
+        try
+        {
+            response = request.execute();
+        }
+        catch (QuickBaseException exception)
+        {
+            failure = exception;
+        }
+        catch (RuntimeException exception)
+        {
+            failure = new QuickBaseException(exception);
+        }
+        finally
+        {
+            synchronized (flights)
+            {
+                flights.remove(key);
+                followers = flight.followers;
+            }
+            boolean ownFailure = failure != null && context != null
+                && (context.isCancelled() || context.getRemainingNanos() <= 0);
+            flight.complete(response, ownFailure ? RETRY : failure, followers);
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return response;
+    }
+
+    /**
+     * The state of a request that is in flight.
+     */
+    private static class Flight
+    {
+        private final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+        int followers;
+
+        void complete(Document response, Object failure, int followers)
+        {
+            for (int count = 0; count < followers; count++)
+            {
+                if (failure != null)
+                {
+                    results.add(failure);
+                }
+                else
+                {
+                    results.add(response.cloneNode(true));
+                }
+            }
+        }
+
+        Object await(QuickBaseCallContext context) throws QuickBaseException
+        {
+            Object result;
+            try
+            {
+                if (context == null)
+                {
+                    result = results.take();
+                }
+                else
+                {
+                    do
+                    {
+                        result = results.poll(QuickBaseCallContext.limitWait(context, Long.MAX_VALUE), TimeUnit.NANOSECONDS);
+                    }
+                    while (result == null);
+                }
+            }
+            catch (InterruptedException interruptedException)
+            {
+                Thread.currentThread().interrupt();
+                throw new QuickBaseException(interruptedException);
+            }
+            if (result instanceof QuickBaseException)
+            {
+                QuickBaseException failure = (QuickBaseException)result;
+                throw new QuickBaseException(failure.getMessage(), failure);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseSyncResult.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The class {@link QuickBaseSyncResult} reports the outcome of an incremental synchronization.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseSyncResult
+{
+    private int changed;
+    private int deleted;
+    private long watermark;
+
+    QuickBaseSyncResult(int changed, int deleted, long watermark)
+    {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.watermark = watermark;
+    }
+
+    /**
+     * Gets the number of records that were reported as added or modified.
+     *
+     * @return the number of changed records
+     */
+    public int getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * Gets the number of records that were reported as deleted.
+     *
+     * @return the number of deleted records
+     */
+    public int getDeleted()
+    {
+        return deleted;
+    }
+
+    /**
+     * Gets the watermark from which the next synchronization starts.
+     *
+     * @return the watermark (milliseconds since the epoch)
+     */
+    public long getWatermark()
+    {
+        return watermark;
+    }
+
+    /**
+     * Converts the {@link QuickBaseSyncResult} to a string.
+     *
+     * @return a string representation of the result
+     */
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[changed=" + changed + ", deleted=" + deleted //$NON-NLS-1$ //$NON-NLS-2$
+        + ", watermark=" + watermark + ']'; //$NON-NLS-1$
+    }
+}
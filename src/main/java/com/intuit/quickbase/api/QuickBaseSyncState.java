@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseSyncState.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The class {@link QuickBaseSyncState} holds the progress of incremental synchronizations of a
+ * table: the <i>watermark</i> (a "Date Modified" time stamp from which the next synchronization
+ * starts), the record IDs of the records that were already reported with exactly that time
+ * stamp, and the record IDs of all known records (for detecting deletions). A new
+ * {@link QuickBaseSyncState} starts with a full synchronization. The state can be saved to a
+ * file and loaded again, so that synchronizations continue across restarts:
+ * <small><pre>
+ * QuickBaseSyncState state = QuickBaseSyncState.load(stateFile);
+ * table.sync(clist, state, true, handler);
+ * state.save(stateFile);
+ * </pre></small>
+ * A {@link QuickBaseSyncState} must only be used for one table and must not be used by several
+ * synchronizations at the same time.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseSyncState
+{
+    private final static int MAGIC = 0x51425353;
+    private final static int VERSION = 1;
+    private final static String TEMPORARY_SUFFIX = ".tmp"; //$NON-NLS-1$
+    private final static int[] NONE = new int[0];
+
+    private long watermark;
+    private int[] watermarkRids = NONE;
+    private BitSet knownRids = new BitSet();
+
+    /**
+     * Creates a new {@link QuickBaseSyncState} for a full synchronization.
+     */
+    public QuickBaseSyncState()
+    {
+        super();
+    }
+
+    /**
+     * Loads a {@link QuickBaseSyncState} from a file.
+     *
+     * @param file the state file
+     * @return the loaded {@link QuickBaseSyncState}, or a new {@link QuickBaseSyncState} if the
+     * file does not exist
+     * @throws QuickBaseException if the file could not be read
+     */
+    public static QuickBaseSyncState load(Path file) throws QuickBaseException
+    {
+        QuickBaseSyncState state = new QuickBaseSyncState();
+        if (!Files.exists(file))
+        {
+            return state;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+            {
+                throw new IOException("Unsupported file format"); //$NON-NLS-1$
+            }
+            state.watermark = input.readLong();
+            state.watermarkRids = new int[input.readInt()];
+            for (int index = 0; index < state.watermarkRids.length; index++)
+            {
+                state.watermarkRids[index] = input.readInt();
+            }
+            byte[] known = new byte[input.readInt()];
+            input.readFully(known);
+            state.knownRids = BitSet.valueOf(known);
+            return state;
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Could not read synchronization state " + file, exception); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Saves the {@link QuickBaseSyncState} to a file. The file is replaced atomically.
+     *
+     * @param file the state file
+     * @throws QuickBaseException if the file could not be written
+     */
+    public void save(Path file) throws QuickBaseException
+    {
+        Path temporary = null;
+        try
+        {
+            temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), TEMPORARY_SUFFIX);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))
+            {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(watermark);
+                output.writeInt(watermarkRids.length);
+                for (int rid: watermarkRids)
+                {
+                    output.writeInt(rid);
+                }
+                byte[] known = knownRids.toByteArray();
+                output.writeInt(known.length);
+                output.write(known);
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE))
+            {
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporary = null;
+        }
+        catch (IOException exception)
+        {
+            throw new QuickBaseException("Could not write synchronization state " + file, exception); //$NON-NLS-1$
+        }
+        finally
+        {
+            try
+            {
+                if (temporary != null)
+                {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            catch (IOException ignored)
+            {
+                // The original exception is more relevant
+            }
+        }
+    }
+
+    /**
+     * Gets the watermark from which the next synchronization starts.
+     *
+     * @return the watermark (milliseconds since the epoch), or <code>0</code> if the next
+     * synchronization is a full synchronization
+     */
+    public long getWatermark()
+    {
+        return watermark;
+    }
+
+    /**
+     * Gets the number of records that are known from previous synchronizations.
+     *
+     * @return the number of known records
+     */
+    public int getKnownRecords()
+    {
+        return knownRids.cardinality();
+    }
+
+    //--------------------------------------- PACKAGE SECTION --------------------------------------//
+
+    /**
+     * Checks whether a record was already reported with the current watermark as its time stamp.
+     *
+     * @param modified the "Date Modified" time stamp of the record
+     * @param rid the record ID
+     * @return <code>true</code> if the record does not need to be reported again
+     */
+    boolean isReported(long modified, int rid)
+    {
+        return modified == watermark && Arrays.binarySearch(watermarkRids, rid) >= 0;
+    }
+
+    /**
+     * Advances the watermark.
+     *
+     * @param watermark the new watermark
+     * @param rids the record IDs of the reported records whose time stamp equals the new watermark
+     */
+    void advance(long watermark, int[] rids)
+    {
+        int[] sorted = rids.clone();
+        Arrays.sort(sorted);
+        this.watermark = watermark;
+        this.watermarkRids = sorted;
+    }
+
+    /**
+     * Gets the record IDs of the records that are known from previous synchronizations. The
+     * returned {@link BitSet} is modified directly.
+     *
+     * @return the {@link BitSet} of known record IDs
+     */
+    BitSet getKnownRids()
+    {
+        return knownRids;
+    }
+}
@@ -13,13 +13,28 @@
 
 package com.intuit.quickbase.api;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import com.intuit.quickbase.api.query.CList;
+
 /**
  * The class {@link QuickBaseTable} represents a table in a QuickBase database.
  * The {@link #getField(String, QuickBaseFieldResolver)} method allows client code to create
@@ -31,10 +46,30 @@ import org.w3c.dom.Node;
 public class QuickBaseTable
 {
     private final static String ID = "id"; //$NON-NLS-1$
+    private final static String RID = "rid"; //$NON-NLS-1$
+    private final static String UPDATE_ID = "update_id"; //$NON-NLS-1$
+    private final static String RECORDS_CSV = "records_csv"; //$NON-NLS-1$
+    private final static String CLIST = "clist"; //$NON-NLS-1$
+    private final static String SKIPFIRST = "skipfirst"; //$NON-NLS-1$
+    private final static String MERGE_FIELD_ID = "mergeFieldId"; //$NON-NLS-1$
+    private final static String QUERY = "query"; //$NON-NLS-1$
+
+    /** The ID of the built-in "Record ID#" field. **/
+    final static int RECORD_ID_FIELD = 3;
+
+    /** The ID of the built-in "Date Modified" field. **/
+    final static int DATE_MODIFIED_FIELD = 2;
+
+    /** The maximum number of lines sent in a single {@link QuickBaseAPICall#API_ImportFromCSV}. **/
+    final static int IMPORT_CHUNK_SIZE = 1000;
+
+    /** The maximum number of parallel requests issued by a single bulk operation. **/
+    final static int MAX_CONCURRENCY = 4;
 
     private QuickBaseDatabase database;
     private Node table;
     private String tableId;
+    private volatile QuickBaseRecordCache recordCache;
 
     protected QuickBaseTable(QuickBaseDatabase database, Node table, String tableId)
     {
@@ -99,32 +134,549 @@ public class QuickBaseTable
         String[] elements = new String[fieldValues.size()];
         for (int i = 0; i < fieldValues.size(); i++) {
             NameValuePair fieldValue = fieldValues.get(i);
-            
-            StringBuffer b = new StringBuffer();
-            b.append("<field fid=\"");
-            b.append(fieldValue.getName());
-            b.append("\">");
-            b.append(fieldValue.getValue());
-            b.append("</field>");
-            
-            elements[i] = b.toString();
+            elements[i] = QuickBaseXml.field(fieldValue.getName(), fieldValue.getValue());
         }
         
-//      InputSource result;
-//      result = 
-        database.getConnection().executeXml(tableId, QuickBaseAPICall.API_AddRecord, elements);
-
-//      InputStream byteStream = result.getByteStream();
-//      int n = 0;
-//      try {
-//          while ((n = byteStream.read()) != -1)
-//          {
-//              System.err.write(n);
-//          }
-//      } catch (IOException e) {
-//          // TODO Auto-generated catch block
-//          e.printStackTrace();
-//      }
+        Document response = database.getConnection().executeXml(tableId, QuickBaseAPICall.API_AddRecord, elements);
+        if (recordCache != null) {
+            try {
+                String rid = StringUtils.stripToNull(QuickBaseXPath.QDBAPI_RID.evaluate(response));
+                if (rid != null) {
+                    invalidate(Integer.parseInt(rid));
+                }
+            } catch (XPathExpressionException e) {
+                throw new QuickBaseException("Could not retrieve record id.", e);
+            }
+        }
+    }
+
+    /**
+     * Performs a query that returns matching records from this table. The returned records can be
+     * modified and saved using {@link #editRecord(QuickBaseRecord)}.
+     *
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist a {@link CList} that specifies which fields are included in the results
+     * @return the list of matching {@link QuickBaseRecord}s
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public List<QuickBaseRecord> doQuery(String query, CList clist) throws QuickBaseException {
+        return database.doQuery(tableId, query, clist, null);
+    }
+
+    /**
+     * Reads all records of this table that match a query and passes them to a
+     * {@link QuickBaseResultHandler}, using the given wire format.
+     *
+     * @param query the query string (an empty string or <code>null</code> matches all records)
+     * @param clist a {@link CList} that specifies which fields are included in the results
+     * @param format the {@link QuickBaseResultFormat} of the response
+     * @param resultHandler the {@link QuickBaseResultHandler} that receives the records
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     * @see QuickBaseDatabase#bulkRead(String, CList, QuickBaseResultFormat, QuickBaseResultHandler)
+     */
+    public void bulkRead(String query, CList clist, QuickBaseResultFormat format, QuickBaseResultHandler resultHandler)
+    throws QuickBaseException {
+        database.bulkRead(tableId, query, clist, null, format, resultHandler);
+    }
+
+    /**
+     * Reports the records of this table that were added, modified, or deleted since the previous
+     * synchronization with the same {@link QuickBaseSyncState}.
+     *
+     * @param clist a {@link CList} that specifies which fields are included in the records
+     * @param state the {@link QuickBaseSyncState} of this table (which is updated)
+     * @param reconcileDeletions <code>true</code> if deleted records should be detected
+     * @param changeHandler the {@link QuickBaseChangeHandler} that receives the changes
+     * @return the {@link QuickBaseSyncResult}
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase or the
+     * {@link QuickBaseChangeHandler} failed
+     * @see QuickBaseDatabase#sync(CList, QuickBaseSyncState, boolean, QuickBaseChangeHandler)
+     */
+    public QuickBaseSyncResult sync(CList clist, QuickBaseSyncState state, boolean reconcileDeletions,
+            QuickBaseChangeHandler changeHandler) throws QuickBaseException {
+        return database.sync(tableId, clist, state, reconcileDeletions, changeHandler);
+    }
+
+    /**
+     * Loads a single record by its record ID.
+     *
+     * @param rid the record ID
+     * @param clist a {@link CList} that specifies which fields are included in the record
+     * @return the {@link QuickBaseRecord}, or <code>null</code> if no such record exists
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public QuickBaseRecord getRecord(int rid, CList clist) throws QuickBaseException {
+        QuickBaseRecordCache cache = recordCache;
+        long generation = 0;
+        if (cache != null) {
+            QuickBaseRecord cached = cache.get(tableId, rid, clist.toString());
+            if (cached != null) {
+                return cached;
+            }
+            generation = cache.generation(tableId, rid);
+        }
+        List<QuickBaseRecord> records = doQuery(recordIdQuery(rid), clist);
+        if (records.isEmpty()) {
+            return null;
+        }
+        if (cache != null) {
+            cache.put(tableId, clist.toString(), records.get(0), generation);
+        }
+        return records.get(0);
+    }
+
+    /**
+     * Loads a set of records by their record IDs. The record IDs are packed into as few queries as
+     * possible (each query is sent as an XML POST request and therefore not subject to URL length
+     * limits), and the queries are executed in parallel.
+     *
+     * @param rids the record IDs of the records to be loaded (duplicates are ignored)
+     * @param clist a {@link CList} that specifies which fields are included in the records
+     * @return a {@link Map} from record ID to {@link QuickBaseRecord}; record IDs that do not
+     * exist are missing from the map
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public Map<Integer, QuickBaseRecord> getRecords(int[] rids, final CList clist) throws QuickBaseException {
+        Set<Integer> uniqueRids = new LinkedHashSet<Integer>();
+        for (int rid : rids) {
+            uniqueRids.add(rid);
+        }
+        Map<Integer, QuickBaseRecord> found = new HashMap<Integer, QuickBaseRecord>();
+        QuickBaseRecordCache cache = recordCache;
+        List<Integer> missing = new ArrayList<Integer>();
+        Map<Integer, Long> generations = new HashMap<Integer, Long>();
+        for (Integer rid : uniqueRids) {
+            QuickBaseRecord cached = cache != null ? cache.get(tableId, rid, clist.toString()) : null;
+            if (cached != null) {
+                found.put(rid, cached);
+            } else {
+                missing.add(rid);
+                if (cache != null) {
+                    generations.put(rid, cache.generation(tableId, rid));
+                }
+            }
+        }
+        List<Callable<List<QuickBaseRecord>>> queries = new ArrayList<Callable<List<QuickBaseRecord>>>();
+        for (final String query : QuickBaseQuery.anyOf(RECORD_ID_FIELD, missing)) {
+            queries.add(new Callable<List<QuickBaseRecord>>() {
+                @Override
+                public List<QuickBaseRecord> call() throws QuickBaseException {
+                    return doQuery(query, clist);
+                }
+            });
+        }
+        for (List<QuickBaseRecord> records : QuickBaseTasks.invokeAll(database.getConnection().getExecutor(), queries, MAX_CONCURRENCY)) {
+            for (QuickBaseRecord record : records) {
+                found.put(record.getRecordID(), record);
+                Long generation = generations.get(record.getRecordID());
+                if (cache != null && generation != null) {
+                    cache.put(tableId, clist.toString(), record, generation);
+                }
+            }
+        }
+        Map<Integer, QuickBaseRecord> result = new LinkedHashMap<Integer, QuickBaseRecord>();
+        for (Integer rid : uniqueRids) {
+            QuickBaseRecord record = found.get(rid);
+            if (record != null) {
+                result.put(rid, record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Saves the changes of a record that was loaded from this table. Only the fields that were
+     * modified since the record was loaded are sent to QuickBase. If the record's update ID is
+     * known it is sent along, so that QuickBase rejects the edit if the record was changed by
+     * someone else in the meantime. Records without any changes are skipped entirely.
+     *
+     * @param record the modified {@link QuickBaseRecord}
+     * @return <code>true</code> if the record was sent to QuickBase, <code>false</code> if it was
+     * skipped because it contained no changes
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase (including an
+     * update conflict)
+     */
+    public boolean editRecord(QuickBaseRecord record) throws QuickBaseException {
+        if (!record.isModified()) {
+            return false;
+        }
+        if (record.getRecordID() <= 0) {
+            throw new IllegalArgumentException("Record has no record ID and cannot be edited");
+        }
+        List<String> elements = new ArrayList<String>();
+        elements.add(QuickBaseXml.element(RID, record.getRecordID()));
+        if (record.getUpdateID() != null) {
+            elements.add(QuickBaseXml.element(UPDATE_ID, record.getUpdateID()));
+        }
+        for (int fieldID : record.getModifiedFieldIDs()) {
+            elements.add(QuickBaseXml.field(fieldID, record.getFieldValue(fieldID)));
+        }
+        Document response;
+        try {
+            // An edit with an update ID cannot be applied twice, so it may be retried
+            response = database.getConnection().executeXml(tableId, QuickBaseAPICall.API_EditRecord,
+                    record.getUpdateID() != null, elements.toArray(new String[elements.size()]));
+        } finally {
+            invalidate(record.getRecordID());
+        }
+        try {
+            record.commit(StringUtils.stripToNull(QuickBaseXPath.QDBAPI_UPDATE_ID.evaluate(response)));
+        } catch (XPathExpressionException e) {
+            throw new QuickBaseException("Could not retrieve update id.", e);
+        }
+        return true;
+    }
+
+    /**
+     * Saves the changes of several records. Records without any changes are skipped.
+     *
+     * @param records the {@link QuickBaseRecord}s to be saved
+     * @return the number of records that were actually sent to QuickBase
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     * @see #editRecord(QuickBaseRecord)
+     */
+    public int editRecords(Iterable<QuickBaseRecord> records) throws QuickBaseException {
+        int edited = 0;
+        for (QuickBaseRecord record : records) {
+            if (editRecord(record)) {
+                edited++;
+            }
+        }
+        return edited;
+    }
+
+    /**
+     * Inserts or updates records based on the value of a unique key field. Existing records are
+     * looked up in batches (several keys per query); rows whose values already match the
+     * existing record are skipped. All remaining rows are sent in chunks through
+     * {@link QuickBaseAPICall#API_ImportFromCSV} using the key field as merge field, so the number
+     * of QuickBase calls is proportional to the number of chunks rather than the number of rows.
+     * If several rows have the same key, their field values are merged (later values win).
+     *
+     * @param rows the {@link QuickBaseRecordBuilder}s containing the rows (each row must contain
+     * a value for the key field)
+     * @param keyField the unique field that identifies records
+     * @return a {@link QuickBaseUpsertResult} with the numbers of inserted, updated, and unchanged
+     * records
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public QuickBaseUpsertResult upsert(Iterable<QuickBaseRecordBuilder> rows, QuickBaseField<?> keyField)
+    throws QuickBaseException {
+        int keyID = keyField.getID();
+        Map<String, SortedMap<Integer, String>> rowsByKey = new LinkedHashMap<String, SortedMap<Integer, String>>();
+        TreeSet<Integer> fieldIDs = new TreeSet<Integer>();
+        for (QuickBaseRecordBuilder row : rows) {
+            if (!row.getTable().tableId.equals(tableId)) {
+                throw new IllegalArgumentException("RecordBuilder is not setup for use with this table");
+            }
+            SortedMap<Integer, String> fields = row.getFieldValueMap();
+            String key = fields.get(keyID);
+            if (key == null || key.isEmpty()) {
+                throw new IllegalArgumentException("Row does not contain a value for key field " + keyID);
+            }
+            SortedMap<Integer, String> existing = rowsByKey.get(key);
+            if (existing != null) {
+                existing.putAll(fields);
+            } else {
+                rowsByKey.put(key, fields);
+            }
+            fieldIDs.addAll(fields.keySet());
+        }
+
+        // Look up the existing records for all keys and drop the rows that would not change anything:
+        //
+        List<String> queryableKeys = new ArrayList<String>();
+        for (String key : rowsByKey.keySet()) {
+            if (QuickBaseQuery.isQueryable(key)) {
+                queryableKeys.add(key);
+            }
+        }
+        CList clist = new CList(toArray(fieldIDs));
+        int unchanged = 0;
+        for (String query : QuickBaseQuery.anyOf(keyID, queryableKeys)) {
+            for (QuickBaseRecord existing : doQuery(query, clist)) {
+                String key = existing.getFieldValue(keyID);
+                SortedMap<Integer, String> fields = key != null ? rowsByKey.get(key) : null;
+                if (fields != null && matches(existing, fields)) {
+                    rowsByKey.remove(key);
+                    unchanged++;
+                }
+            }
+        }
+
+        Map<String, List<SortedMap<Integer, String>>> groups = new LinkedHashMap<String, List<SortedMap<Integer, String>>>();
+        for (SortedMap<Integer, String> fields : rowsByKey.values()) {
+            String columns = fields.keySet().toString();
+            List<SortedMap<Integer, String>> group = groups.get(columns);
+            if (group == null) {
+                group = new ArrayList<SortedMap<Integer, String>>();
+                groups.put(columns, group);
+            }
+            group.add(fields);
+        }
+        int inserted = 0;
+        int updated = 0;
+        for (List<SortedMap<Integer, String>> group : groups.values()) {
+            int[] columns = toArray(group.get(0).keySet());
+            for (int start = 0; start < group.size(); start += IMPORT_CHUNK_SIZE) {
+                List<String[]> chunk = new ArrayList<String[]>();
+                for (SortedMap<Integer, String> fields : group.subList(start, Math.min(start + IMPORT_CHUNK_SIZE, group.size()))) {
+                    chunk.add(fields.values().toArray(new String[columns.length]));
+                }
+                QuickBaseImportResult result = importFromCSV(columns, chunk, keyID);
+                inserted += result.getAdded();
+                updated += result.getUpdated();
+            }
+        }
+        return new QuickBaseUpsertResult(inserted, updated, unchanged);
+    }
+
+    /**
+     * Deletes all records that match a query using {@link QuickBaseAPICall#API_PurgeRecords}.
+     *
+     * @param query the query string; must not be empty (QuickBase would delete all records of the
+     * table otherwise)
+     * @return the number of deleted records
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public int purge(String query) throws QuickBaseException {
+        if (StringUtils.isBlank(query)) {
+            throw new IllegalArgumentException("Purging without a query would delete all records");
+        }
+        try {
+            return purgeRecords(query);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Deletes a set of records by their record IDs. The record IDs are combined into compact
+     * OR-queries, which are executed through {@link QuickBaseAPICall#API_PurgeRecords} with a
+     * limited number of parallel requests.
+     *
+     * @param rids the record IDs of the records to be deleted
+     * @return the number of deleted records
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    public int deleteRecords(Collection<Integer> rids) throws QuickBaseException {
+        List<Callable<Integer>> purges = new ArrayList<Callable<Integer>>();
+        for (final String query : QuickBaseQuery.anyOf(RECORD_ID_FIELD, new TreeSet<Integer>(rids))) {
+            purges.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws QuickBaseException {
+                    return purgeRecords(query);
+                }
+            });
+        }
+        try {
+            int deleted = 0;
+            for (int count : QuickBaseTasks.invokeAll(database.getConnection().getExecutor(), purges, MAX_CONCURRENCY)) {
+                deleted += count;
+            }
+            return deleted;
+        } finally {
+            for (int rid : rids) {
+                invalidate(rid);
+            }
+        }
+    }
+
+    /**
+     * Uploads a file into a file attachment field of a record. The file is streamed from disk
+     * and never held in memory as a whole, so that large attachments can be uploaded.
+     *
+     * @param rid the record ID
+     * @param fieldId the ID of the file attachment field
+     * @param file the {@link Path} of the file to be uploaded
+     * @return the URL of the uploaded attachment
+     * @throws QuickBaseException if an error occurrs reading the file or communicating with QuickBase.
+     */
+    public String uploadFile(int rid, int fieldId, Path file) throws QuickBaseException {
+        Document response;
+        try {
+            response = database.getConnection().uploadFile(tableId, rid, fieldId, file);
+        } finally {
+            invalidate(rid);
+        }
+        try {
+            return StringUtils.stripToNull(QuickBaseXPath.QDBAPI_FILE_FIELDS_FIELD_URL.evaluate(response));
+        } catch (XPathExpressionException e) {
+            throw new QuickBaseException("Could not retrieve attachment URL.", e);
+        }
+    }
+
+    /**
+     * Downloads a file attachment of a record directly into a file. The attachment is never held
+     * in memory as a whole, so that large attachments can be downloaded.
+     *
+     * @param rid the record ID
+     * @param fieldId the ID of the file attachment field
+     * @param version the version of the attachment, or <code>0</code> for the latest version
+     * @param target the {@link Path} of the file to be written (an existing file is replaced)
+     * @return the size of the attachment in bytes
+     * @throws QuickBaseException if an error occurrs writing the file or communicating with QuickBase.
+     */
+    public long downloadAttachment(int rid, int fieldId, int version, Path target) throws QuickBaseException {
+        return database.getConnection().downloadAttachment(tableId, rid, fieldId, version, target);
+    }
+
+    /**
+     * Sets the {@link QuickBaseRecordCache} that is used by {@link #getRecord(int, CList)} and
+     * {@link #getRecords(int[], CList)}. Records that are added, edited, or deleted through this
+     * table object are removed from the cache.
+     *
+     * @param recordCache the {@link QuickBaseRecordCache}, or <code>null</code> to disable caching
+     */
+    public void setRecordCache(QuickBaseRecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * Returns the {@link QuickBaseRecordCache} of this table, or <code>null</code> if caching is
+     * disabled.
+     */
+    public QuickBaseRecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    private int purgeRecords(String query) throws QuickBaseException {
+        Document response = database.getConnection().executeXml(tableId, QuickBaseAPICall.API_PurgeRecords,
+                QuickBaseXml.element(QUERY, query));
+        try {
+            String deleted = StringUtils.stripToNull(QuickBaseXPath.QDBAPI_NUM_RECORDS_DELETED.evaluate(response));
+            return deleted != null ? Integer.parseInt(deleted) : 0;
+        } catch (XPathExpressionException e) {
+            throw new QuickBaseException("Could not retrieve number of deleted records.", e);
+        }
+    }
+
+    /**
+     * Creates a {@link QuickBaseExporter} that exports records of this table into files.
+     *
+     * @param format the {@link QuickBaseExportFormat} of the files
+     * @param directory the directory of the files (it is created if necessary)
+     * @param baseName the base name of the files
+     * @return a new {@link QuickBaseExporter}; columns must be added before the export is started
+     */
+    public QuickBaseExporter createExporter(QuickBaseExportFormat format, Path directory, String baseName) {
+        return new QuickBaseExporter(this, format, directory, baseName);
+    }
+
+    /**
+     * Opens a {@link QuickBaseReplica} of this table. A new replica is empty until it is
+     * refreshed.
+     *
+     * @param directory the directory of the replica (it is created if necessary)
+     * @param clist a {@link CList} that specifies the replicated fields
+     * @return the {@link QuickBaseReplica}; the replica must be closed after use
+     * @throws QuickBaseException if the replica could not be opened
+     */
+    public QuickBaseReplica openReplica(Path directory, CList clist) throws QuickBaseException {
+        return new QuickBaseReplica(this, clist, directory);
+    }
+
+    /**
+     * Creates a {@link QuickBaseWriteBuffer} that collects record additions and edits for this
+     * table and sends them to QuickBase in batches.
+     *
+     * @param maxBatchRecords the number of buffered records that triggers a flush
+     * @param maxBatchBytes the (approximate) number of buffered bytes that triggers a flush
+     * @param maxDelayMillis the maximum time (in milliseconds) that a write is buffered
+     * @return a new {@link QuickBaseWriteBuffer}; the buffer must be closed after use
+     */
+    public QuickBaseWriteBuffer createWriteBuffer(int maxBatchRecords, int maxBatchBytes, long maxDelayMillis) {
+        return new QuickBaseWriteBuffer(this, maxBatchRecords, maxBatchBytes, maxDelayMillis);
+    }
+
+    /**
+     * Returns the table ID.
+     */
+    public String getTableId() {
+        return tableId;
+    }
+
+    /**
+     * Imports records into this table using {@link QuickBaseAPICall#API_ImportFromCSV}. If the
+     * column list contains the record ID field, lines with a record ID update the corresponding
+     * existing records.
+     *
+     * @param clist the field IDs of the CSV columns
+     * @param rows the CSV lines (each array must have the same length as the column list)
+     * @param mergeFieldId the ID of a unique field that should be used for matching existing
+     * records, or <code>0</code> for the default behavior
+     * @return the {@link QuickBaseImportResult}
+     * @throws QuickBaseException if an error occurrs communicating with QuickBase.
+     */
+    QuickBaseImportResult importFromCSV(int[] clist, List<String[]> rows, int mergeFieldId) throws QuickBaseException {
+        StringBuilder csv = new StringBuilder();
+        for (String[] row : rows) {
+            QuickBaseCSV.appendRow(csv, row);
+        }
+        List<String> elements = new ArrayList<String>();
+        elements.add(QuickBaseXml.cdata(RECORDS_CSV, csv));
+        elements.add(QuickBaseXml.element(CLIST, new CList(clist)));
+        elements.add(QuickBaseXml.element(SKIPFIRST, 0));
+        if (mergeFieldId > 0) {
+            elements.add(QuickBaseXml.element(MERGE_FIELD_ID, mergeFieldId));
+        }
+        Document response;
+        try {
+            // Merging on a key field makes the import repeatable, so it may be retried
+            response = database.getConnection().executeXml(tableId, QuickBaseAPICall.API_ImportFromCSV,
+                    mergeFieldId > 0, elements.toArray(new String[elements.size()]));
+        } catch (QuickBaseException e) {
+            invalidateAll();
+            throw e;
+        }
+        QuickBaseImportResult result = QuickBaseImportResult.parse(response);
+        if (result.getRecordIDs().size() < rows.size()) {
+            invalidateAll();
+        } else {
+            for (Integer rid : result.getRecordIDs()) {
+                if (rid != null) {
+                    invalidate(rid);
+                }
+            }
+        }
+        return result;
+    }
+
+    private void invalidate(int rid) {
+        QuickBaseRecordCache cache = recordCache;
+        if (cache != null) {
+            cache.invalidate(tableId, rid);
+        }
+    }
+
+    private void invalidateAll() {
+        QuickBaseRecordCache cache = recordCache;
+        if (cache != null) {
+            cache.invalidateTable(tableId);
+        }
+    }
+
+    private static boolean matches(QuickBaseRecord existing, Map<Integer, String> fields) {
+        for (Map.Entry<Integer, String> field : fields.entrySet()) {
+            String current = StringUtils.defaultString(existing.getFieldValue(field.getKey()));
+            if (!current.equals(StringUtils.defaultString(field.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toArray(Collection<Integer> values) {
+        int[] array = new int[values.size()];
+        int index = 0;
+        for (int value : values) {
+            array[index++] = value;
+        }
+        return array;
+    }
+
+    static String recordIdQuery(int rid) {
+        return "{" + RECORD_ID_FIELD + ".EX." + rid + "}"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
        
     
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseTasks.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The class <code>QuickBaseTasks</code> runs a number of independent QuickBase calls (for example,
+ * the chunks of a bulk operation) in parallel, while limiting the number of calls that are in
+ * flight at the same time. The tasks inherit the {@link QuickBasePriority} and the
+ * {@link QuickBaseCallContext} of the calling thread.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseTasks
+{
+    private QuickBaseTasks()
+    {
+        super();
+    }
+
+    /**
+     * Executes all tasks and waits for their completion. At most <code>maxConcurrency</code>
+     * tasks are executed at the same time. If a task fails, no further tasks are started and the
+     * failure is reported after all running tasks have finished.
+     *
+     * @param <$ResultType> the result type of the tasks
+     * @param executor the {@link ExecutorService} that runs the tasks
+     * @param tasks the tasks to be executed
+     * @param maxConcurrency the maximum number of tasks that run at the same time
+     * @return the results of the tasks (in the same order as the tasks)
+     * @throws QuickBaseException if any of the tasks failed or the current thread was interrupted
+     */
+    static <$ResultType> List<$ResultType> invokeAll(ExecutorService executor,
+    final List<? extends Callable<$ResultType>> tasks, int maxConcurrency) throws QuickBaseException
+    {
+        final Object[] results = new Object[tasks.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        int workers = Math.max(1, Math.min(maxConcurrency, tasks.size()));
+        final CountDownLatch finished = new CountDownLatch(workers);
+        final QuickBasePriority priority = QuickBasePriority.current();
+        final QuickBaseCallContext context = QuickBaseCallContext.current();
+        Runnable worker = new Runnable()
+        {
+            public void run()
+            {
+                QuickBasePriority previous = priority.makeCurrent();
+                QuickBaseCallContext previousContext = QuickBaseCallContext.attach(context);
+                try
+                {
+                    int index;
+                    while (failure.get() == null && (index = next.getAndIncrement()) < tasks.size())
+                    {
+                        results[index] = tasks.get(index).call();
+                    }
+                }
+                catch (Exception exception)
+                {
+                    failure.compareAndSet(null, exception);
+                }
+                finally
+                {
+                    QuickBaseCallContext.attach(previousContext);
+                    previous.makeCurrent();
+                    finished.countDown();
+                }
+            }
+        };
+        if (tasks.size() <= 1)
+        {
+            worker.run();
+        }
+        else
+        {
+            for (int count = 0; count < workers; count++)
+            {
+                executor.execute(worker);
+            }
+            try
+            {
+                finished.await();
+            }
+            catch (InterruptedException interruptedException)
+            {
+                failure.compareAndSet(null, interruptedException);
+                Thread.currentThread().interrupt();
+            }
+        }
+        Exception exception = failure.get();
+        if (exception instanceof QuickBaseException)
+        {
+            throw (QuickBaseException)exception;
+        }
+        if (exception != null)
+        {
+            throw new QuickBaseException(exception);
+        }
+        @SuppressWarnings("unchecked")
+        List<$ResultType> list = (List<$ResultType>)new ArrayList<Object>(Arrays.asList(results));
+        return list;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseTicketStore.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The interface {@link QuickBaseTicketStore} persists authentication tickets, so that a
+ * {@link QuickBaseConnection} can reuse a ticket that is still valid instead of authenticating
+ * again (for example, after a restart). Tickets are keyed by realm and user name.
+ * Implementations must be thread-safe.
+ *
+ * @see QuickBaseFileTicketStore
+ *
+ * @version $Revision$
+ */
+public interface QuickBaseTicketStore
+{
+    /**
+     * Loads a stored ticket.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param user the user name
+     * @return the ticket, or <code>null</code> if no unexpired ticket is stored
+     * @throws QuickBaseException if the store could not be read
+     */
+    public abstract String load(String realm, String user) throws QuickBaseException;
+
+    /**
+     * Stores a ticket, replacing any ticket that was previously stored for the same realm and
+     * user.
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param user the user name
+     * @param ticket the ticket
+     * @param expiresAtMillis the time (in milliseconds since the epoch) at which the ticket
+     * should no longer be used
+     * @throws QuickBaseException if the store could not be written
+     */
+    public abstract void store(String realm, String user, String ticket, long expiresAtMillis) throws QuickBaseException;
+
+    /**
+     * Removes a stored ticket (for example, after signing out).
+     *
+     * @param realm the QuickBase realm (domain)
+     * @param user the user name
+     * @throws QuickBaseException if the store could not be written
+     */
+    public abstract void remove(String realm, String user) throws QuickBaseException;
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseUploadEntity.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * The class <code>QuickBaseUploadEntity</code> is a {@link RequestEntity} for
+ * {@link QuickBaseAPICall#API_UploadFile} that streams the Base64 encoding of a file between an
+ * XML prefix and suffix. The file is read block by block through a {@link FileChannel} into
+ * pooled buffers, so that the memory that is needed does not depend on the size of the file.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseUploadEntity implements RequestEntity
+{
+    /** The size of the blocks that are read from the file (a multiple of 3 whose encoding fits
+     * into a pooled buffer). **/
+    private final static int BLOCK_SIZE = QuickBaseBufferPool.BUFFER_SIZE/4*3;
+
+    private final byte[] prefix;
+    private final Path file;
+    private final long fileSize;
+    private final byte[] suffix;
+    private final String contentType;
+    private final QuickBaseBufferPool pool;
+
+    QuickBaseUploadEntity(byte[] prefix, Path file, long fileSize, byte[] suffix, String contentType,
+    QuickBaseBufferPool pool)
+    {
+        this.prefix = prefix;
+        this.file = file;
+        this.fileSize = fileSize;
+        this.suffix = suffix;
+        this.contentType = contentType;
+        this.pool = pool;
+    }
+
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+    public long getContentLength()
+    {
+        return prefix.length + QuickBaseBase64.encodedLength(fileSize) + suffix.length;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public void writeRequest(OutputStream output) throws IOException
+    {
+        output.write(prefix);
+        byte[] block = pool.acquire();
+        byte[] encoded = pool.acquire();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, BLOCK_SIZE);
+            long remaining = fileSize;
+            while (remaining > 0)
+            {
+                // Fill the block completely (except at the end of the file), so that no padding
+                // is inserted in the middle of the encoding:
+                //
+                buffer.clear().limit((int)Math.min(BLOCK_SIZE, remaining));
+                while (buffer.hasRemaining())
+                {
+                    if (channel.read(buffer) < 0)
+                    {
+                        throw new IOException("File was truncated during upload: " + file); //$NON-NLS-1$
+                    }
+                }
+                int length = buffer.position();
+                output.write(encoded, 0, QuickBaseBase64.encode(block, length, encoded));
+                remaining -= length;
+            }
+        }
+        finally
+        {
+            pool.release(encoded);
+            pool.release(block);
+        }
+        output.write(suffix);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseUpsertResult.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+/**
+ * The class {@link QuickBaseUpsertResult} reports the outcome of
+ * {@link QuickBaseTable#upsert(Iterable, QuickBaseField)}.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseUpsertResult
+{
+    private int inserted;
+    private int updated;
+    private int unchanged;
+
+    QuickBaseUpsertResult(int inserted, int updated, int unchanged)
+    {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Gets the number of rows that were added as new records.
+     *
+     * @return the number of inserted records
+     */
+    public int getInserted()
+    {
+        return inserted;
+    }
+
+    /**
+     * Gets the number of rows that changed existing records.
+     *
+     * @return the number of updated records
+     */
+    public int getUpdated()
+    {
+        return updated;
+    }
+
+    /**
+     * Gets the number of rows that were skipped because the existing records already contained
+     * the same values.
+     *
+     * @return the number of unchanged records
+     */
+    public int getUnchanged()
+    {
+        return unchanged;
+    }
+
+    /**
+     * Converts the {@link QuickBaseUpsertResult} to a string.
+     *
+     * @return a string representation of the result
+     */
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[inserted=" + inserted + ", updated=" + updated //$NON-NLS-1$ //$NON-NLS-2$
+        + ", unchanged=" + unchanged + ']'; //$NON-NLS-1$
+    }
+}
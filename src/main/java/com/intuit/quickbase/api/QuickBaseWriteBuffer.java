@@ -0,0 +1,529 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseWriteBuffer.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class {@link QuickBaseWriteBuffer} collects record additions and edits for a
+ * {@link QuickBaseTable} and sends them to QuickBase in batches using
+ * {@link QuickBaseAPICall#API_ImportFromCSV}. Writes are accepted without waiting for QuickBase;
+ * each write returns a {@link QuickBaseFuture} that completes with the record ID once the batch
+ * containing the write was imported.
+ * <p/>
+ * A batch is sent when the number of buffered records or their (approximate) size reaches the
+ * configured limit, or when the oldest buffered write has waited for the configured maximum
+ * delay. Multiple edits of the same record that are buffered at the same time are merged into a
+ * single line. The buffer holds at most four times the batch limits (including the batch that is
+ * currently being sent); when it is full, new writes block until there is space again.
+ * <p/>
+ * Edits sent through the buffer do not carry an update ID, i.e., the last write wins. Use
+ * {@link QuickBaseTable#editRecord(QuickBaseRecord)} if conflicting edits must be detected.
+ * The buffer must be closed after use; closing the buffer sends all remaining writes.
+ *
+ * @see QuickBaseTable#createWriteBuffer(int, int, long)
+ *
+ * @version $Revision$
+ */
+public class QuickBaseWriteBuffer implements Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(QuickBaseWriteBuffer.class);
+
+    private final static int CAPACITY_FACTOR = 4;
+    private final static char ADD = 'A';
+    private final static char EDIT = 'E';
+
+    private final QuickBaseTable table;
+    private final int maxBatchRecords;
+    private final long maxBatchBytes;
+    private final long maxDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+
+    private List<PendingWrite> additions = new ArrayList<PendingWrite>();
+    private Map<Integer, PendingWrite> edits = new LinkedHashMap<Integer, PendingWrite>();
+    private int bufferedRecords;
+    private long bufferedBytes;
+    private long oldestWriteNanos;
+    private int pendingRecords;
+    private long pendingBytes;
+    private long sequence;
+    private long completedSequence;
+    private boolean flushRequested;
+    private boolean closed;
+
+    private final Thread flusher;
+
+    QuickBaseWriteBuffer(QuickBaseTable table, int maxBatchRecords, int maxBatchBytes, long maxDelayMillis)
+    {
+        if (maxBatchRecords <= 0 || maxBatchBytes <= 0 || maxDelayMillis <= 0)
+        {
+            throw new IllegalArgumentException("Batch limits must be positive"); //$NON-NLS-1$
+        }
+        this.table = table;
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.flusher = new Thread(new Flusher(), "QuickBaseWriteBuffer-" + table.getTableId()); //$NON-NLS-1$
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Buffers the addition of a new record.
+     *
+     * @param recordBuilder the {@link QuickBaseRecordBuilder} containing the field values
+     * @return a {@link QuickBaseFuture} that completes with the record ID of the new record (or
+     * <code>null</code> if QuickBase did not report it)
+     * @throws InterruptedException if the current thread was interrupted while waiting for space
+     * in the buffer
+     */
+    public QuickBaseFuture<Integer> add(QuickBaseRecordBuilder recordBuilder) throws InterruptedException
+    {
+        return enqueue(new PendingWrite(0, fieldValues(recordBuilder)));
+    }
+
+    /**
+     * Buffers an edit of an existing record. The edit is merged with other buffered edits of the
+     * same record.
+     *
+     * @param rid the record ID of the record to be changed
+     * @param recordBuilder the {@link QuickBaseRecordBuilder} containing the changed field values
+     * @return a {@link QuickBaseFuture} that completes with the record ID
+     * @throws InterruptedException if the current thread was interrupted while waiting for space
+     * in the buffer
+     */
+    public QuickBaseFuture<Integer> edit(int rid, QuickBaseRecordBuilder recordBuilder) throws InterruptedException
+    {
+        if (rid <= 0)
+        {
+            throw new IllegalArgumentException("Invalid record ID: " + rid); //$NON-NLS-1$
+        }
+        return enqueue(new PendingWrite(rid, fieldValues(recordBuilder)));
+    }
+
+    /**
+     * Buffers the modified fields of a record that was loaded from the table. The current values
+     * of the modified fields are copied; the record itself is not changed. Records without any
+     * modifications are not buffered at all.
+     *
+     * @param record the modified {@link QuickBaseRecord}
+     * @return a {@link QuickBaseFuture} that completes with the record ID
+     * @throws InterruptedException if the current thread was interrupted while waiting for space
+     * in the buffer
+     */
+    public QuickBaseFuture<Integer> edit(QuickBaseRecord record) throws InterruptedException
+    {
+        if (record.getRecordID() <= 0)
+        {
+            throw new IllegalArgumentException("Record has no record ID and cannot be edited"); //$NON-NLS-1$
+        }
+        if (!record.isModified())
+        {
+            QuickBaseFuture<Integer> unchanged = new QuickBaseFuture<Integer>();
+            unchanged.complete(record.getRecordID());
+            return unchanged;
+        }
+        SortedMap<Integer, String> fields = new TreeMap<Integer, String>();
+        for (int fieldID: record.getModifiedFieldIDs())
+        {
+            fields.put(fieldID, record.getFieldValue(fieldID));
+        }
+        return enqueue(new PendingWrite(record.getRecordID(), fields));
+    }
+
+    /**
+     * Sends all writes that were buffered before this call and waits until they are completed
+     * (successfully or not).
+     *
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public void flush() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            long target = sequence;
+            flushRequested = true;
+            flushNeeded.signalAll();
+            while (completedSequence < target && flusher.isAlive())
+            {
+                flushed.await(maxDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records that are currently buffered or being sent.
+     *
+     * @return the number of pending records
+     */
+    public int getPendingRecords()
+    {
+        lock.lock();
+        try
+        {
+            return pendingRecords;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the buffer. All remaining writes are sent before this method returns. Writes that
+     * are submitted after the buffer was closed are rejected with an {@link IllegalStateException}.
+     */
+    public void close()
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            flushNeeded.signalAll();
+            spaceAvailable.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (flusher.isAlive())
+        {
+            try
+            {
+                flusher.join();
+            }
+            catch (InterruptedException interruptedException)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private SortedMap<Integer, String> fieldValues(QuickBaseRecordBuilder recordBuilder)
+    {
+        if (!recordBuilder.getTable().getTableId().equals(table.getTableId()))
+        {
+            throw new IllegalArgumentException("RecordBuilder is not setup for use with this table"); //$NON-NLS-1$
+        }
+        return recordBuilder.getFieldValueMap();
+    }
+
+    private QuickBaseFuture<Integer> enqueue(PendingWrite write) throws InterruptedException
+    {
+        QuickBaseFuture<Integer> future = write.futures.get(0);
+        lock.lockInterruptibly();
+        try
+        {
+            while (!closed && pendingRecords > 0
+            && (pendingRecords >= CAPACITY_FACTOR*maxBatchRecords
+            || pendingBytes + write.bytes > CAPACITY_FACTOR*maxBatchBytes))
+            {
+                spaceAvailable.await();
+            }
+            if (closed)
+            {
+                throw new IllegalStateException("Write buffer is closed"); //$NON-NLS-1$
+            }
+            if (bufferedRecords == 0)
+            {
+                oldestWriteNanos = System.nanoTime();
+            }
+            PendingWrite existing = write.rid > 0 ? edits.get(write.rid) : null;
+            if (existing != null)
+            {
+                long bytes = existing.merge(write);
+                bufferedBytes += bytes;
+                pendingBytes += bytes;
+            }
+            else
+            {
+                if (write.rid > 0)
+                {
+                    edits.put(write.rid, write);
+                }
+                else
+                {
+                    additions.add(write);
+                }
+                bufferedRecords++;
+                pendingRecords++;
+                bufferedBytes += write.bytes;
+                pendingBytes += write.bytes;
+            }
+            sequence++;
+            if (bufferedRecords >= maxBatchRecords || bufferedBytes >= maxBatchBytes)
+            {
+                flushNeeded.signalAll();
+            }
+            return future;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFlushDue()
+    {
+        return bufferedRecords > 0 && (flushRequested || closed || bufferedRecords >= maxBatchRecords
+        || bufferedBytes >= maxBatchBytes || System.nanoTime() - oldestWriteNanos >= maxDelayNanos);
+    }
+
+    private void send(List<PendingWrite> writes)
+    {
+        Map<String, List<PendingWrite>> groups = new LinkedHashMap<String, List<PendingWrite>>();
+        for (PendingWrite write: writes)
+        {
+            // Lines of a single import must have the same columns; otherwise, missing fields
+            // would be overwritten with empty values:
+            //
+            String key = (write.rid > 0 ? EDIT : ADD) + write.fields.keySet().toString();
+            List<PendingWrite> group = groups.get(key);
+            if (group == null)
+            {
+                group = new ArrayList<PendingWrite>();
+                groups.put(key, group);
+            }
+            group.add(write);
+        }
+        for (List<PendingWrite> group: groups.values())
+        {
+            for (int start = 0; start < group.size(); start += maxBatchRecords)
+            {
+                importBatch(group.subList(start, Math.min(start + maxBatchRecords, group.size())));
+            }
+        }
+    }
+
+    private void importBatch(List<PendingWrite> batch)
+    {
+        PendingWrite first = batch.get(0);
+        boolean edit = first.rid > 0;
+        int offset = edit ? 1 : 0;
+        int[] clist = new int[first.fields.size() + offset];
+        if (edit)
+        {
+            clist[0] = QuickBaseTable.RECORD_ID_FIELD;
+        }
+        int column = offset;
+        for (int fieldID: first.fields.keySet())
+        {
+            clist[column++] = fieldID;
+        }
+        List<String[]> rows = new ArrayList<String[]>(batch.size());
+        for (PendingWrite write: batch)
+        {
+            String[] row = new String[clist.length];
+            if (edit)
+            {
+                row[0] = String.valueOf(write.rid);
+            }
+            column = offset;
+            for (String value: write.fields.values())
+            {
+                row[column++] = value;
+            }
+            rows.add(row);
+        }
+        try
+        {
+            QuickBaseImportResult result = table.importFromCSV(clist, rows, 0);
+            List<Integer> rids = result.getRecordIDs();
+            for (int index = 0; index < batch.size(); index++)
+            {
+                PendingWrite write = batch.get(index);
+                Integer rid = edit ? Integer.valueOf(write.rid) : index < rids.size() ? rids.get(index) : null;
+                write.complete(rid);
+            }
+            log.debug("Imported {} records into table {}", batch.size(), table.getTableId());
+        }
+        catch (QuickBaseException exception)
+        {
+            log.warn("Buffered import into table " + table.getTableId() + " failed", exception);
+            for (PendingWrite write: batch)
+            {
+                write.fail(exception);
+            }
+        }
+        catch (RuntimeException exception)
+        {
+            log.error("Buffered import into table " + table.getTableId() + " failed", exception);
+            for (PendingWrite write: batch)
+            {
+                write.fail(new QuickBaseException(exception));
+            }
+        }
+    }
+
+    /**
+     * A buffered addition or edit. Merged edits share a single line but keep the futures of all
+     * original writes.
+     */
+    private static class PendingWrite
+    {
+        final int rid;
+        final SortedMap<Integer, String> fields;
+        final List<QuickBaseFuture<Integer>> futures = new ArrayList<QuickBaseFuture<Integer>>(1);
+        long bytes;
+
+        PendingWrite(int rid, SortedMap<Integer, String> fields)
+        {
+            this.rid = rid;
+            this.fields = fields;
+            this.futures.add(new QuickBaseFuture<Integer>());
+            this.bytes = estimateBytes();
+        }
+
+        long merge(PendingWrite other)
+        {
+            long before = bytes;
+            fields.putAll(other.fields);
+            futures.addAll(other.futures);
+            bytes = estimateBytes();
+            return bytes - before;
+        }
+
+        void complete(Integer rid)
+        {
+            for (QuickBaseFuture<Integer> future: futures)
+            {
+                future.complete(rid);
+            }
+        }
+
+        void fail(QuickBaseException exception)
+        {
+            for (QuickBaseFuture<Integer> future: futures)
+            {
+                future.fail(exception);
+            }
+        }
+
+        private long estimateBytes()
+        {
+            long estimate = rid > 0 ? 12 : 2;
+            for (String value: fields.values())
+            {
+                estimate += QuickBaseCSV.estimateLength(value);
+            }
+            return estimate;
+        }
+    }
+
+    /**
+     * The background task that waits until a flush is due, takes all buffered writes and sends
+     * them to QuickBase. Batches are sent with {@link QuickBasePriority#BULK} priority.
+     */
+    private class Flusher implements Runnable
+    {
+        public void run()
+        {
+            QuickBasePriority.BULK.makeCurrent();
+            while (true)
+            {
+                List<PendingWrite> writes;
+                long batchSequence;
+                int batchRecords;
+                long batchBytes;
+                lock.lock();
+                try
+                {
+                    while (!isFlushDue())
+                    {
+                        if (closed && bufferedRecords == 0)
+                        {
+                            flushed.signalAll();
+                            return;
+                        }
+                        if (bufferedRecords == 0)
+                        {
+                            flushRequested = false;
+                            completedSequence = sequence;
+                            flushed.signalAll();
+                            flushNeeded.awaitUninterruptibly();
+                        }
+                        else
+                        {
+                            long delay = oldestWriteNanos + maxDelayNanos - System.nanoTime();
+                            if (delay > 0)
+                            {
+                                flushNeeded.awaitNanos(delay);
+                            }
+                        }
+                    }
+                    writes = new ArrayList<PendingWrite>(additions);
+                    writes.addAll(edits.values());
+                    additions = new ArrayList<PendingWrite>();
+                    edits = new LinkedHashMap<Integer, PendingWrite>();
+                    batchSequence = sequence;
+                    batchRecords = bufferedRecords;
+                    batchBytes = bufferedBytes;
+                    bufferedRecords = 0;
+                    bufferedBytes = 0;
+                    flushRequested = false;
+                }
+                catch (InterruptedException interruptedException)
+                {
+                    // awaitNanos was interrupted; the next iteration re-evaluates the state
+                    //
+                    continue;
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+                send(writes);
+                lock.lock();
+                try
+                {
+                    pendingRecords -= batchRecords;
+                    pendingBytes -= batchBytes;
+                    completedSequence = batchSequence;
+                    spaceAvailable.signalAll();
+                    flushed.signalAll();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
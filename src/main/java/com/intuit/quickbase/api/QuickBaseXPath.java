@@ -57,9 +57,33 @@ public class QuickBaseXPath
     /** The pre-compiled {@link XPathExpression} "<code>qdbapi/rid</code>". **/
     public final static XPathExpression QDBAPI_RID = compile("qdbapi/rid"); //$NON-NLS-1$
     
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/update_id</code>". **/
+    public final static XPathExpression QDBAPI_UPDATE_ID = compile("qdbapi/update_id"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/num_recs_added</code>". **/
+    public final static XPathExpression QDBAPI_NUM_RECS_ADDED = compile("qdbapi/num_recs_added"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/num_recs_updated</code>". **/
+    public final static XPathExpression QDBAPI_NUM_RECS_UPDATED = compile("qdbapi/num_recs_updated"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/rids/rid</code>". **/
+    public final static XPathExpression QDBAPI_RIDS_RID = compile("qdbapi/rids/rid"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/num_records_deleted</code>". **/
+    public final static XPathExpression QDBAPI_NUM_RECORDS_DELETED = compile("qdbapi/num_records_deleted"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/lastRecModTime</code>". **/
+    public final static XPathExpression QDBAPI_LAST_REC_MOD_TIME = compile("qdbapi/lastRecModTime"); //$NON-NLS-1$
+    
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/lastModifiedTime</code>". **/
+    public final static XPathExpression QDBAPI_LAST_MODIFIED_TIME = compile("qdbapi/lastModifiedTime"); //$NON-NLS-1$
+    
     /** The pre-compiled {@link XPathExpression} "<code>qdbapi/record</code>". **/
     public final static XPathExpression QDBAPI_RECORD = compile("qdbapi/record"); //$NON-NLS-1$
     
+    /** The pre-compiled {@link XPathExpression} "<code>qdbapi/file_fields/field/url</code>". **/
+    public final static XPathExpression QDBAPI_FILE_FIELDS_FIELD_URL = compile("qdbapi/file_fields/field/url"); //$NON-NLS-1$
+    
     /** The pre-compiled XPath {@link Format} "<code>fields/field[label=''{0}'']</code>". **/
     public final static Format FIELDS_FIELD_LABEL = new MessageFormat(FORMAT_FIELDS_FIELD);
 
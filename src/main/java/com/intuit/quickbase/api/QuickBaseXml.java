@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseXml.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * The class <code>QuickBaseXml</code> provides helper methods for composing the XML elements that
+ * are passed to {@link QuickBaseConnection#executeXml(String, QuickBaseAPICall, String...)}.
+ * All values are escaped properly.
+ *
+ * @version $Revision$
+ */
+final class QuickBaseXml
+{
+    private final static String CDATA_END = "]]>"; //$NON-NLS-1$
+
+    private QuickBaseXml()
+    {
+        super();
+    }
+
+    /**
+     * Creates a simple element of the form <code>&lt;name&gt;value&lt;/name&gt;</code>.
+     *
+     * @param name the element name
+     * @param value the element value (will be escaped)
+     * @return the XML element as a string
+     */
+    static String element(String name, Object value)
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append('<').append(name).append('>');
+        if (value != null)
+        {
+            xml.append(StringEscapeUtils.escapeXml(value.toString()));
+        }
+        xml.append('<').append('/').append(name).append('>');
+        return xml.toString();
+    }
+
+    /**
+     * Creates a field element of the form <code>&lt;field fid="id"&gt;value&lt;/field&gt;</code>.
+     *
+     * @param fieldID the field ID
+     * @param value the field value (will be escaped)
+     * @return the XML element as a string
+     */
+    static String field(int fieldID, String value)
+    {
+        return field(String.valueOf(fieldID), value);
+    }
+
+    /**
+     * Creates a field element of the form <code>&lt;field fid="id"&gt;value&lt;/field&gt;</code>.
+     *
+     * @param fieldID the field ID
+     * @param value the field value (will be escaped)
+     * @return the XML element as a string
+     */
+    static String field(String fieldID, String value)
+    {
+        StringBuilder xml = new StringBuilder();
+        xml.append("<field fid=\"").append(fieldID).append("\">"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (value != null)
+        {
+            xml.append(StringEscapeUtils.escapeXml(value));
+        }
+        xml.append("</field>"); //$NON-NLS-1$
+        return xml.toString();
+    }
+
+    /**
+     * Creates an element whose content is wrapped into a CDATA section, which is the preferred way
+     * of sending large text payloads such as the CSV data for
+     * {@link QuickBaseAPICall#API_ImportFromCSV}.
+     *
+     * @param name the element name
+     * @param text the element content
+     * @return the XML element as a string
+     */
+    static String cdata(String name, CharSequence text)
+    {
+        StringBuilder xml = new StringBuilder(text.length() + 2*name.length() + 17);
+        xml.append('<').append(name).append("><![CDATA["); //$NON-NLS-1$
+        String content = text.toString();
+        int start = 0;
+        int end;
+        while ((end = content.indexOf(CDATA_END, start)) >= 0)
+        {
+            // "]]>" cannot appear inside a CDATA section; split it across two sections:
+            //
+            xml.append(content, start, end + 2).append("]]><![CDATA["); //$NON-NLS-1$
+            start = end + 2;
+        }
+        xml.append(content, start, content.length());
+        xml.append("]]></").append(name).append('>'); //$NON-NLS-1$
+        return xml.toString();
+    }
+}
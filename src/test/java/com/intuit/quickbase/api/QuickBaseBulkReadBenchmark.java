@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseBulkReadBenchmark.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.InputSource;
+
+import com.intuit.quickbase.api.query.CList;
+
+/**
+ * Compares the two formats of
+ * {@link QuickBaseDatabase#bulkRead(String, CList, QuickBaseResultFormat, QuickBaseResultHandler)}
+ * on a synthetic result set: the structured XML of {@link QuickBaseAPICall#API_DoQuery}, parsed
+ * with SAX and a {@link QuickBaseContentHandler}, and the CSV of
+ * {@link QuickBaseAPICall#API_GenResultsTable}, parsed with a {@link QuickBaseCSVReader}.
+ * Both responses are parsed from memory, so the results show the cost of parsing alone; the size
+ * of the responses indicates the difference in transfer time. This is not a unit test; run it
+ * with <code>java ... QuickBaseBulkReadBenchmark [records [fields [iterations]]]</code>.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseBulkReadBenchmark
+{
+    private final static Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private final static int RECORD_ID_FIELD = QuickBaseTable.RECORD_ID_FIELD;
+
+    public static void main(String[] arguments) throws Exception
+    {
+        int records = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 100000;
+        int fields = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 10;
+        int iterations = arguments.length > 2 ? Integer.parseInt(arguments[2]) : 10;
+
+        int[] fieldIDs = new int[fields + 1];
+        fieldIDs[0] = RECORD_ID_FIELD;
+        for (int field = 1; field <= fields; field++)
+        {
+            fieldIDs[field] = RECORD_ID_FIELD + field;
+        }
+        byte[] xml = xml(records, fieldIDs);
+        byte[] csv = csv(records, fieldIDs);
+        System.out.printf("%,d records with %d fields: XML %,d bytes, CSV %,d bytes%n", //$NON-NLS-1$
+            records, fields, xml.length, csv.length);
+
+        // The first half of the iterations warms up the JIT compiler:
+        //
+        for (int iteration = -iterations/2; iteration < iterations; iteration++)
+        {
+            long xmlNanos = parseXml(xml, records);
+            long csvNanos = parseCsv(csv, fieldIDs, records);
+            if (iteration >= 0)
+            {
+                System.out.printf("XML %6d ms (%,10.0f records/s)   CSV %6d ms (%,10.0f records/s)%n", //$NON-NLS-1$
+                    TimeUnit.NANOSECONDS.toMillis(xmlNanos), rate(records, xmlNanos),
+                    TimeUnit.NANOSECONDS.toMillis(csvNanos), rate(records, csvNanos));
+            }
+        }
+    }
+
+    //------------------------------------- PRIVATE SECTION --------------------------------------//
+
+    private static long parseXml(byte[] xml, int records) throws Exception
+    {
+        CountingHandler handler = new CountingHandler();
+        long start = System.nanoTime();
+        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+        parser.parse(new InputSource(new ByteArrayInputStream(xml)), new QuickBaseContentHandler(handler));
+        long nanos = System.nanoTime() - start;
+        handler.check(records);
+        return nanos;
+    }
+
+    private static long parseCsv(byte[] csv, int[] fieldIDs, int records) throws Exception
+    {
+        CountingHandler handler = new CountingHandler();
+        long start = System.nanoTime();
+        InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(csv), UTF_8);
+        QuickBaseDatabase.handleCSVRecords(reader, fieldIDs, 0, true, handler);
+        long nanos = System.nanoTime() - start;
+        handler.check(records);
+        return nanos;
+    }
+
+    private static double rate(int records, long nanos)
+    {
+        return records*1e9/Math.max(nanos, 1);
+    }
+
+    /**
+     * Generates an <code>API_DoQuery</code> response with structured records.
+     */
+    private static byte[] xml(int records, int[] fieldIDs)
+    {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>\n<qdbapi>\n"); //$NON-NLS-1$
+        xml.append("<action>API_DoQuery</action>\n<errcode>0</errcode>\n<errtext>No error</errtext>\n"); //$NON-NLS-1$
+        xml.append("<table>\n<records>\n"); //$NON-NLS-1$
+        for (int rid = 1; rid <= records; rid++)
+        {
+            xml.append("<record rid=\"").append(rid).append("\" update_id=\"").append(1400000000000L + rid); //$NON-NLS-1$ //$NON-NLS-2$
+            xml.append("\">\n"); //$NON-NLS-1$
+            for (int fieldID: fieldIDs)
+            {
+                xml.append("<f id=\"").append(fieldID).append("\">"); //$NON-NLS-1$ //$NON-NLS-2$
+                xml.append(fieldID == RECORD_ID_FIELD ? String.valueOf(rid) : value(rid, fieldID).replace("&", "&amp;")); //$NON-NLS-1$ //$NON-NLS-2$
+                xml.append("</f>\n"); //$NON-NLS-1$
+            }
+            xml.append("</record>\n"); //$NON-NLS-1$
+        }
+        xml.append("</records>\n</table>\n</qdbapi>\n"); //$NON-NLS-1$
+        return xml.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates an <code>API_GenResultsTable</code> response in CSV format.
+     */
+    private static byte[] csv(int records, int[] fieldIDs)
+    {
+        StringBuilder csv = new StringBuilder();
+        for (int index = 0; index < fieldIDs.length; index++)
+        {
+            csv.append(index > 0 ? "," : "").append("\"Field ").append(fieldIDs[index]).append('"'); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        csv.append('\n');
+        for (int rid = 1; rid <= records; rid++)
+        {
+            for (int index = 0; index < fieldIDs.length; index++)
+            {
+                String value = fieldIDs[index] == RECORD_ID_FIELD ? String.valueOf(rid) : value(rid, fieldIDs[index]);
+                csv.append(index > 0 ? "," : ""); //$NON-NLS-1$ //$NON-NLS-2$
+                if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0)
+                {
+                    csv.append('"').append(value.replace("\"", "\"\"")).append('"'); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                else
+                {
+                    csv.append(value);
+                }
+            }
+            csv.append('\n');
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Generates a mix of numbers, short text, and text that needs quoting or escaping.
+     */
+    private static String value(int rid, int fieldID)
+    {
+        switch ((rid + fieldID) % 4)
+        {
+            case 0:
+                return String.valueOf(rid*31L + fieldID);
+            case 1:
+                return "Customer " + rid; //$NON-NLS-1$
+            case 2:
+                return "Smith, Jones & Partners"; //$NON-NLS-1$
+            default:
+                return "The \"quick\" brown fox jumps over the lazy dog"; //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Counts the records, so that parsing cannot be optimized away.
+     */
+    private static class CountingHandler implements QuickBaseResultHandler
+    {
+        private int records;
+        private long ridSum;
+        private QuickBaseException exception;
+
+        @Override
+        public void handleRecord(QuickBaseRecord record)
+        {
+            records++;
+            ridSum += record.getRecordID();
+        }
+
+        @Override
+        public void handleException(QuickBaseException exception)
+        {
+            this.exception = exception;
+        }
+
+        @Override
+        public void done()
+        {
+            // Nothing to do
+        }
+
+        void check(int expected) throws QuickBaseException
+        {
+            if (exception != null)
+            {
+                throw exception;
+            }
+            if (records != expected || ridSum != expected*(expected + 1L)/2)
+            {
+                throw new IllegalStateException("Parsed " + records + " of " + expected + " records"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015 Cartera Commerce Inc. All Rights reserved.
+ * -------------------------------------------------------------------------------------------------
+ *
+ * File name  : QuickBaseRateLimiterTest.java
+ * -------------------------------------------------------------------------------------------------
+ *
+ *
+ * *************************************************************************************************
+ */
+
+package com.intuit.quickbase.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Simulates the {@link QuickBaseRateLimiter} with a {@link QuickBaseClock} that only advances when
+ * the limiter waits, so that all waiting times are deterministic.
+ *
+ * @version $Revision$
+ */
+public class QuickBaseRateLimiterTest
+{
+    private final static String REALM = "example.quickbase.com"; //$NON-NLS-1$
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndDatabaseRefill() throws Exception
+    {
+        FakeClock clock = new FakeClock();
+        QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(10, 4, 2, 2, clock);
+        assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        assertEquals(SECOND/2, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+
+        limiter.acquire(REALM, "a", QuickBasePriority.INTERACTIVE); //$NON-NLS-1$
+        assertEquals(SECOND/2, clock.now);
+        limiter.acquire(REALM, "a", QuickBasePriority.INTERACTIVE); //$NON-NLS-1$
+        assertEquals(SECOND, clock.now);
+    }
+
+    @Test
+    public void testRealmLimitAcrossDatabases() throws Exception
+    {
+        FakeClock clock = new FakeClock();
+        QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(10, 4, 2, 2, clock);
+        for (String dbid: new String[] {"a", "a", "b", "b"}) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        {
+            assertEquals(0, limiter.tryAcquire(REALM, dbid, QuickBasePriority.INTERACTIVE));
+        }
+
+        // Database "c" has a full bucket, but the realm bucket is empty:
+        //
+        assertEquals(SECOND/10, limiter.tryAcquire(REALM, "c", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        limiter.acquire(REALM, "c", QuickBasePriority.INTERACTIVE); //$NON-NLS-1$
+        assertEquals(SECOND/10, clock.now);
+
+        // Another realm is not affected:
+        //
+        assertEquals(0, limiter.tryAcquire("other.quickbase.com", "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testRefillIsCappedAtBurst() throws Exception
+    {
+        FakeClock clock = new FakeClock();
+        QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(100, 100, 1, 3, clock);
+        clock.now = 60*SECOND;
+        for (int request = 0; request < 3; request++)
+        {
+            assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        }
+        assertEquals(SECOND, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testBulkKeepsInteractiveReserve() throws Exception
+    {
+        FakeClock clock = new FakeClock();
+        QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(100, 100, 1, 5, clock);
+        for (int request = 0; request < 4; request++)
+        {
+            assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        }
+
+        // One token is left, but bulk requests must leave a quarter of the burst to interactive ones:
+        //
+        assertTrue(limiter.tryAcquire(REALM, "a", QuickBasePriority.BULK) > 0); //$NON-NLS-1$
+        assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+
+        // The bulk request needs two tokens (one plus the reserve of one):
+        //
+        limiter.acquire(REALM, "a", QuickBasePriority.BULK); //$NON-NLS-1$
+        assertEquals(2*SECOND, clock.now);
+    }
+
+    @Test(timeout=10000)
+    public void testBulkYieldsToInteractiveWaitingForRealm() throws Exception
+    {
+        final BlockingClock clock = new BlockingClock();
+        final QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(1, 1, 100, 100, clock);
+        assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        Thread interactive = waitInBackground(limiter, "a"); //$NON-NLS-1$
+        clock.sleeping.await();
+
+        // The interactive request is waiting for the shared realm, so bulk requests for other
+        // databases must wait as well:
+        //
+        assertTrue(limiter.tryAcquire(REALM, "b", QuickBasePriority.BULK) > 0); //$NON-NLS-1$
+        clock.proceed.countDown();
+        interactive.join();
+        assertEquals(SECOND, clock.now);
+    }
+
+    @Test(timeout=10000)
+    public void testBulkProceedsWhileOtherDatabaseIsShort() throws Exception
+    {
+        final BlockingClock clock = new BlockingClock();
+        final QuickBaseRateLimiter limiter = new QuickBaseRateLimiter(100, 100, 1, 1, clock);
+        assertEquals(0, limiter.tryAcquire(REALM, "a", QuickBasePriority.INTERACTIVE)); //$NON-NLS-1$
+        Thread interactive = waitInBackground(limiter, "a"); //$NON-NLS-1$
+        clock.sleeping.await();
+
+        // The interactive request only waits for the bucket of database "a"; the realm still has
+        // tokens, so bulk requests for database "b" proceed:
+        //
+        assertTrue(limiter.tryAcquire(REALM, "a", QuickBasePriority.BULK) > 0); //$NON-NLS-1$
+        assertEquals(0, limiter.tryAcquire(REALM, "b", QuickBasePriority.BULK)); //$NON-NLS-1$
+        clock.proceed.countDown();
+        interactive.join();
+        assertEquals(SECOND, clock.now);
+    }
+
+    /**
+     * Starts a thread that acquires a token for an interactive request.
+     */
+    private static Thread waitInBackground(final QuickBaseRateLimiter limiter, final String dbid)
+    {
+        Thread interactive = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    limiter.acquire(REALM, dbid, QuickBasePriority.INTERACTIVE);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        interactive.start();
+        return interactive;
+    }
+
+    /**
+     * A {@link QuickBaseClock} that advances only when a caller sleeps.
+     */
+    private static class FakeClock implements QuickBaseClock
+    {
+        volatile long now;
+
+        @Override
+        public long nanoTime()
+        {
+            return now;
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException
+        {
+            now += nanos;
+        }
+    }
+
+    /**
+     * A {@link FakeClock} whose first sleep blocks until the test allows it to continue.
+     */
+    private static class BlockingClock extends FakeClock
+    {
+        final CountDownLatch sleeping = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException
+        {
+            sleeping.countDown();
+            proceed.await();
+            super.sleep(nanos);
+        }
+    }
+}